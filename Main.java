@@ -44,6 +44,15 @@ public class Main {
     Scanner scanner = new Scanner(System.in);
     UserManager userManager = new UserManager();
 
+    // Warm the price history cache, from -Dstockhistory.snapshot when one was exported
+    if (PriceHistoryCache.isEnabled()) {
+      try {
+        PriceHistoryCache.loadAll();
+      } catch (SQLException e) {
+        System.err.println("Could not warm the price history cache: " + e.getMessage());
+      }
+    }
+
 //        // Create tables for our database, commented once the database is created
 //        String create_database_file = "src/main/java/create_database.sql";
 //        executeSqlFile(create_database_file);
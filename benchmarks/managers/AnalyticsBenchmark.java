@@ -0,0 +1,76 @@
+package managers;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+// In-memory history lookups, the indicator pipeline and a rebalancing backtest
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class AnalyticsBenchmark {
+    private static final int PORTFOLIO_SIZE = 50;
+
+    @Param("500")
+    public int symbols;
+
+    @Param("20")
+    public int years;
+
+    private SyntheticMarket market;
+    private PriceHistoryCache.SymbolHistory[] histories;
+    private IndicatorPipeline pipeline;
+    private Backtester.MarketData backtestData;
+    private Backtester.Account backtestAccount;
+    private Backtester.Strategy rebalance;
+    private Random random;
+
+    @Setup
+    public void setUp() {
+        market = new SyntheticMarket(symbols, years * SyntheticMarket.TRADING_DAYS_PER_YEAR, 42);
+        histories = market.histories();
+        pipeline = IndicatorPipeline.of("sma:20,ema:50,rsi:14,macd:12:26:9,bollinger:20:2,atr:14");
+
+        int portfolioSize = Math.min(PORTFOLIO_SIZE, symbols);
+        List<String> portfolio = new ArrayList<>();
+        for (int i = 0; i < portfolioSize; i++) {
+            portfolio.add("S" + i);
+        }
+        backtestData = Backtester.MarketData.of(portfolio, market.epochDays,
+                Arrays.copyOf(market.closes, portfolioSize));
+        backtestAccount = Backtester.Account.ofCash(1_000_000, portfolioSize);
+        rebalance = new Backtester.EqualWeightRebalance(21, 0.02);
+        random = new Random(7);
+    }
+
+    @Benchmark
+    public double cachedLatestClose() {
+        PriceHistoryCache.SymbolHistory history = histories[random.nextInt(histories.length)];
+        return history.close(history.size() - 1);
+    }
+
+    // A one-year window starting on a random day
+    @Benchmark
+    public int cachedRangeSlice() {
+        PriceHistoryCache.SymbolHistory history = histories[random.nextInt(histories.length)];
+        int from = history.lowerBound(market.firstEpochDay
+                + random.nextInt(market.days - SyntheticMarket.TRADING_DAYS_PER_YEAR));
+        int to = history.upperBound(history.epochDay(from) + 365);
+        return history.closes(from, to).length;
+    }
+
+    @Benchmark
+    public double indicatorPipeline() {
+        PriceHistoryCache.SymbolHistory history = histories[random.nextInt(histories.length)];
+        return pipeline.run("", history, 0, history.size()).values()[0][history.size() - 1];
+    }
+
+    @Benchmark
+    public double backtestRebalance() {
+        return Backtester.run(backtestData, backtestAccount, rebalance, "").totalReturn();
+    }
+}
@@ -0,0 +1,54 @@
+package managers;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.concurrent.*;
+
+// PriceHistoryCache.loadAll() as Main runs it at startup: one ordered scan of StockHistory through JDBC (database),
+// or the memory-mapped PriceHistorySnapshot plus the rows after it (snapshot)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules=jdk.incubator.vector", "-Dstockhistory.cache=true"})
+public class CacheWarmUpBenchmark {
+    @Param("200")
+    public int symbols;
+
+    @Param("10")
+    public int years;
+
+    @Param({"database", "snapshot"})
+    public String source;
+
+    private EmbeddedMarket database;
+    private Path snapshot;
+
+    @Setup
+    public void setUp() throws IOException, SQLException {
+        database = new EmbeddedMarket(symbols, years);
+        snapshot = Files.createTempFile("stockhistory", ".snapshot");
+        PriceHistorySnapshot.export(snapshot);
+        if (source.equals("snapshot")) {
+            System.setProperty("stockhistory.snapshot", snapshot.toString());
+        } else {
+            System.clearProperty("stockhistory.snapshot");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        database.close();
+        Files.deleteIfExists(snapshot);
+    }
+
+    @Benchmark
+    public int warmUp() throws SQLException {
+        PriceHistoryCache.loadAll();
+        return PriceHistoryCache.get(database.symbolNames.get(0)).size();
+    }
+}
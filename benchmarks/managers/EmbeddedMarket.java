@@ -0,0 +1,82 @@
+package managers;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+
+// A local PostgreSQL server (embedded-postgres runs the binaries from a temporary directory, no Docker needed) with the
+// schema of create_database.sql and the synthetic history of S0 .. S<n-1>, which DatabaseConnection is pointed at.
+// The schema is read from the working directory; -Dbenchmark.schema=<path> points elsewhere.
+final class EmbeddedMarket implements Closeable {
+    final SyntheticMarket market;
+    final List<String> symbolNames = new ArrayList<>();
+    private final EmbeddedPostgres postgres;
+
+    EmbeddedMarket(int symbols, int years) throws IOException, SQLException {
+        postgres = EmbeddedPostgres.builder().start();
+        market = new SyntheticMarket(symbols, years * SyntheticMarket.TRADING_DAYS_PER_YEAR, 42);
+        for (int i = 0; i < symbols; i++) {
+            symbolNames.add("S" + i);
+        }
+        try (Connection conn = postgres.getPostgresDatabase().getConnection()) {
+            createSchema(conn);
+            insertHistory(conn);
+        }
+        System.setProperty("db.url", postgres.getJdbcUrl("postgres", "postgres"));
+        System.setProperty("db.user", "postgres");
+        System.setProperty("db.password", "");
+    }
+
+    @Override
+    public void close() throws IOException {
+        DatabaseConnection.shutdown();
+        postgres.close();
+    }
+
+    // create_database.sql without its COPY statements, which read files on the database host
+    private static void createSchema(Connection conn) throws IOException, SQLException {
+        String script = Files.readString(Paths.get(System.getProperty("benchmark.schema", "create_database.sql")),
+                StandardCharsets.UTF_8);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(script.replaceAll("(?s)\\bCOPY [^;]*;", ""));
+        }
+    }
+
+    // One statement per symbol, so the LatestQuote trigger runs once per symbol
+    private void insertHistory(Connection conn) throws SQLException {
+        String stockSql = "INSERT INTO Stock (symbol, company_name) VALUES (?, ?)";
+        String historySql = """
+                INSERT INTO StockHistory (timestamp, open, high, low, close, volume, symbol)
+                SELECT d, c, c, c, c, 1000000, ?
+                FROM UNNEST(?::date[], ?::numeric[]) AS t(d, c)
+                """;
+        java.sql.Date[] dates = new java.sql.Date[market.days];
+        for (int t = 0; t < market.days; t++) {
+            dates[t] = java.sql.Date.valueOf(LocalDate.ofEpochDay(market.epochDays[t]));
+        }
+        try (PreparedStatement stock = conn.prepareStatement(stockSql);
+             PreparedStatement history = conn.prepareStatement(historySql)) {
+            for (int i = 0; i < market.symbols; i++) {
+                stock.setString(1, symbolNames.get(i));
+                stock.setString(2, "Synthetic " + i);
+                stock.addBatch();
+            }
+            stock.executeBatch();
+            for (int i = 0; i < market.symbols; i++) {
+                Double[] closes = new Double[market.days];
+                for (int t = 0; t < market.days; t++) {
+                    closes[t] = Math.round(market.closes[i][t] * 100) / 100.0;
+                }
+                history.setString(1, symbolNames.get(i));
+                history.setArray(2, conn.createArrayOf("date", dates));
+                history.setArray(3, conn.createArrayOf("numeric", closes));
+                history.executeUpdate();
+            }
+        }
+    }
+}
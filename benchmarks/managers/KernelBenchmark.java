@@ -0,0 +1,99 @@
+package managers;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.*;
+
+// The NumericKernels loops three ways: the single running sum they replaced (*Scalar), the multi-accumulator scalar
+// fallback (*Kernel) and the Vector API version (*Vector)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class KernelBenchmark {
+    @Param("20")
+    public int years;
+
+    private double[] x;
+    private double[] y;
+    // Two rows of an off-heap matrix, as CovarianceCalculator reads them; every tenth value of the second is missing
+    private PriceMatrix matrix;
+    private final double[] out = new double[4];
+
+    @Setup
+    public void setUp() {
+        SyntheticMarket market = new SyntheticMarket(2, years * SyntheticMarket.TRADING_DAYS_PER_YEAR, 42);
+        x = market.closes[0];
+        y = market.closes[1];
+        double[] gaps = y.clone();
+        for (int t = 0; t < gaps.length; t += 10) {
+            gaps[t] = Double.NaN;
+        }
+        matrix = PriceMatrix.of(new double[][]{x, gaps});
+    }
+
+    @TearDown
+    public void tearDown() {
+        matrix.close();
+    }
+
+    @Benchmark
+    public double dotScalar() {
+        double sum = 0;
+        for (int t = 0; t < x.length; t++) {
+            sum += x[t] * y[t];
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double dotKernel() {
+        return NumericKernels.scalarDot(x, y, x.length);
+    }
+
+    @Benchmark
+    public double dotVector() {
+        return VectorKernels.dot(x, y, x.length);
+    }
+
+    // The loop LinearRegressionModel.fit used before NumericKernels.linearTrend; returns the slope
+    @Benchmark
+    public double linearTrendScalar() {
+        int n = x.length;
+        double sumX = 0, sumY = 0, sumXY = 0, sumX2 = 0;
+        for (int i = 0; i < n; i++) {
+            double t = i + 1;
+            sumX += t;
+            sumY += x[i];
+            sumXY += t * x[i];
+            sumX2 += t * t;
+        }
+        return (n * sumXY - sumX * sumY) / (n * sumX2 - sumX * sumX);
+    }
+
+    @Benchmark
+    public double linearTrendKernel() {
+        NumericKernels.scalarTrendSums(x, out);
+        return out[1];
+    }
+
+    @Benchmark
+    public double linearTrendVector() {
+        VectorKernels.trendSums(x, out);
+        return out[1];
+    }
+
+    @Benchmark
+    public double[] pairSumsKernel() {
+        NumericKernels.scalarPairSums(matrix.row(0), matrix.row(1), 100, 100, out);
+        return out;
+    }
+
+    @Benchmark
+    public double[] pairSumsVector() {
+        VectorKernels.pairSums(matrix.row(0), matrix.row(1), 100, 100, out);
+        return out;
+    }
+}
@@ -0,0 +1,35 @@
+package managers;
+
+import org.openjdk.jmh.results.format.*;
+import org.openjdk.jmh.runner.*;
+import org.openjdk.jmh.runner.options.*;
+
+import java.io.*;
+
+// Runs the JMH benchmarks of this module (PredictionBenchmark, KernelBenchmark, StatisticsBenchmark,
+// AnalyticsBenchmark, PriceLookupBenchmark) and writes the results as JSON, so runs can be compared across releases.
+//
+// Usage: java -jar benchmarks/target/benchmarks.jar [JMH options] [benchmark regexps]
+//        results go to benchmark-results.json unless -rf / -rff say otherwise; -h lists the JMH options.
+public class PerformanceBenchmark {
+    private static final String DEFAULT_OUTPUT = "benchmark-results.json";
+
+    public static void main(String[] args) throws IOException, CommandLineOptionException, RunnerException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp()) {
+            commandLine.showHelp();
+            return;
+        }
+        if (commandLine.shouldList()) {
+            new Runner(commandLine).list();
+            return;
+        }
+        Options options = new OptionsBuilder()
+                .parent(commandLine)
+                .resultFormat(commandLine.getResultFormat().orElse(ResultFormatType.JSON))
+                .result(commandLine.getResult().orElse(DEFAULT_OUTPUT))
+                .build();
+        new Runner(options).run();
+        System.out.println("Results written to " + options.getResult().get());
+    }
+}
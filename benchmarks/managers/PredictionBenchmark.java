@@ -0,0 +1,49 @@
+package managers;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.*;
+
+// Fit and 30-day forecast of each prediction model on the closes of one symbol
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class PredictionBenchmark {
+    private static final int FORECAST_DAYS = 30;
+
+    @Param("20")
+    public int years;
+
+    private double[] prices;
+    private double[] forecast;
+
+    @Setup
+    public void setUp() {
+        prices = new SyntheticMarket(1, years * SyntheticMarket.TRADING_DAYS_PER_YEAR, 42).closes[0];
+        forecast = new double[FORECAST_DAYS];
+    }
+
+    @Benchmark
+    public double predictLinearRegression() {
+        return predict(new LinearRegressionModel());
+    }
+
+    @Benchmark
+    public double predictMovingAverage() {
+        return predict(new MovingAverageModel());
+    }
+
+    @Benchmark
+    public double predictExponentialSmoothing() {
+        return predict(new ExponentialSmoothingModel());
+    }
+
+    private double predict(PredictionModel model) {
+        model.fit(prices);
+        model.forecast(forecast.length, forecast);
+        return forecast[forecast.length - 1];
+    }
+}
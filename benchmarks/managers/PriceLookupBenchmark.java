@@ -0,0 +1,72 @@
+package managers;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// StockManager price lookups against a local PostgreSQL server with synthetic history (see EmbeddedMarket)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class PriceLookupBenchmark {
+    private static final int MATRIX_SYMBOLS = 50;
+
+    @Param("100")
+    public int symbols;
+
+    @Param("5")
+    public int years;
+
+    private EmbeddedMarket database;
+    private SyntheticMarket market;
+    private List<String> symbolNames;
+    private StockManager stockManager;
+    private Random random;
+
+    @Setup
+    public void setUp() throws IOException, SQLException {
+        database = new EmbeddedMarket(symbols, years);
+        market = database.market;
+        symbolNames = database.symbolNames;
+        QuoteCache.loadAll();
+        stockManager = new StockManager();
+        random = new Random(7);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        database.close();
+    }
+
+    // Served from QuoteCache
+    @Benchmark
+    public double getStockPriceCached() {
+        return stockManager.getStockPrice(symbolNames.get(random.nextInt(symbols)));
+    }
+
+    // A cache miss, read from LatestQuote
+    @Benchmark
+    public double getStockPriceDatabase() {
+        String symbol = symbolNames.get(random.nextInt(symbols));
+        QuoteCache.invalidate(symbol);
+        return stockManager.getStockPrice(symbol);
+    }
+
+    // One year of closes of a portfolio, as the statistics views load them
+    @Benchmark
+    public double priceMatrixLoad() throws SQLException {
+        int from = random.nextInt(market.days - SyntheticMarket.TRADING_DAYS_PER_YEAR);
+        LocalDate start = LocalDate.ofEpochDay(market.epochDays[from]);
+        try (PriceMatrix matrix = PriceMatrix.load(symbolNames.subList(0, Math.min(MATRIX_SYMBOLS, symbols)),
+                Timestamp.valueOf(start.atStartOfDay()), Timestamp.valueOf(start.plusYears(1).atStartOfDay()))) {
+            return matrix.get(0, 0);
+        }
+    }
+}
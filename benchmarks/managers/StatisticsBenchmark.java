@@ -0,0 +1,64 @@
+package managers;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+// Covariance, correlation and beta over the closes of a portfolio (50 symbols) and of the index universe (500)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class StatisticsBenchmark {
+    @Param({"50", "500"})
+    public int symbols;
+
+    @Param("20")
+    public int years;
+
+    private SyntheticMarket market;
+    // The statistics path loads closes straight into an off-heap matrix, so time the kernels on one
+    private PriceMatrix closes;
+    private PriceMatrix returns;
+    private MarketReturns.ReturnSeries[] returnSeries;
+    private int[] returnDays;
+    private double[] marketReturns;
+
+    @Setup
+    public void setUp() {
+        market = new SyntheticMarket(symbols, years * SyntheticMarket.TRADING_DAYS_PER_YEAR, 42);
+        closes = PriceMatrix.of(market.closes);
+        returns = closes.returns();
+        returnSeries = market.returns();
+        returnDays = Arrays.copyOfRange(market.epochDays, 1, market.days);
+        marketReturns = market.equalWeightedReturns();
+    }
+
+    @TearDown
+    public void tearDown() {
+        returns.close();
+        closes.close();
+    }
+
+    @Benchmark
+    public double covarianceMatrix() {
+        return CovarianceCalculator.computeInMemory(closes)[0][0];
+    }
+
+    @Benchmark
+    public double universeCorrelation() {
+        return UniverseCorrelation.compute(returns, 0, market.days, 10, false).mostCorrelated().get(0).correlation();
+    }
+
+    @Benchmark
+    public double marketBeta() {
+        double sum = 0;
+        for (MarketReturns.ReturnSeries series : returnSeries) {
+            sum += MarketReturns.beta(series, returnDays, marketReturns);
+        }
+        return sum;
+    }
+}
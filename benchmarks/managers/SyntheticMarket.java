@@ -0,0 +1,82 @@
+package managers;
+
+import java.time.*;
+import java.util.*;
+
+// Geometric random walks standing in for StockHistory
+final class SyntheticMarket {
+    static final int TRADING_DAYS_PER_YEAR = 252;
+
+    final int symbols;
+    final int days;
+    final int firstEpochDay = (int) LocalDate.of(2000, 1, 3).toEpochDay();
+    final int[] epochDays;
+    final double[][] closes;
+
+    SyntheticMarket(int symbols, int days, long seed) {
+        this.symbols = symbols;
+        this.days = days;
+        Random random = new Random(seed);
+
+        // Weekdays only, like a trading calendar without holidays
+        epochDays = new int[days];
+        LocalDate date = LocalDate.ofEpochDay(firstEpochDay);
+        for (int t = 0; t < days; t++) {
+            while (date.getDayOfWeek() == DayOfWeek.SATURDAY || date.getDayOfWeek() == DayOfWeek.SUNDAY) {
+                date = date.plusDays(1);
+            }
+            epochDays[t] = (int) date.toEpochDay();
+            date = date.plusDays(1);
+        }
+
+        // A common market factor plus an idiosyncratic shock per symbol
+        closes = new double[symbols][days];
+        double[] beta = new double[symbols];
+        for (int i = 0; i < symbols; i++) {
+            closes[i][0] = 20 + random.nextDouble() * 200;
+            beta[i] = 0.5 + random.nextDouble();
+        }
+        for (int t = 1; t < days; t++) {
+            double market = random.nextGaussian() * 0.01;
+            for (int i = 0; i < symbols; i++) {
+                double dailyReturn = 0.0003 + beta[i] * market + random.nextGaussian() * 0.015;
+                closes[i][t] = Math.max(0.01, closes[i][t - 1] * (1 + dailyReturn));
+            }
+        }
+    }
+
+    // Close-to-close returns of every symbol, dated by the later day
+    MarketReturns.ReturnSeries[] returns() {
+        MarketReturns.ReturnSeries[] returns = new MarketReturns.ReturnSeries[symbols];
+        for (int i = 0; i < symbols; i++) {
+            double[] r = new double[days - 1];
+            for (int t = 1; t < days; t++) {
+                r[t - 1] = closes[i][t] / closes[i][t - 1] - 1;
+            }
+            returns[i] = new MarketReturns.ReturnSeries(Arrays.copyOfRange(epochDays, 1, days), r);
+        }
+        return returns;
+    }
+
+    // Average return across all symbols on each day after the first
+    double[] equalWeightedReturns() {
+        double[] market = new double[days - 1];
+        for (int i = 0; i < symbols; i++) {
+            for (int t = 1; t < days; t++) {
+                market[t - 1] += (closes[i][t] / closes[i][t - 1] - 1) / symbols;
+            }
+        }
+        return market;
+    }
+
+    PriceHistoryCache.SymbolHistory[] histories() {
+        PriceHistoryCache.SymbolHistory[] histories = new PriceHistoryCache.SymbolHistory[symbols];
+        long[] volume = new long[days];
+        Arrays.fill(volume, 1_000_000);
+        for (int i = 0; i < symbols; i++) {
+            histories[i] = PriceHistoryCache.SymbolHistory.of(epochDays, closes[i], closes[i], closes[i],
+                    closes[i], volume);
+        }
+        return histories;
+    }
+}
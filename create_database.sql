@@ -3,12 +3,18 @@ DROP TABLE IF EXISTS
     Users,
     Portfolio,
     PortfolioHolding,
+    PortfolioValue,
     Stats,
     Stock,
     StockHistory,
+    LatestQuote,
+    DailyReturn,
+    MarketReturn,
     StockList,
     SharedStockList,
     StockListHolding,
+    StockListValue,
+    HoldingsVersion,
     Friend,
     Review
 CASCADE;
@@ -37,7 +43,9 @@ CREATE TABLE Portfolio (
 -- Stock table
 CREATE TABLE Stock (
     symbol VARCHAR(10) PRIMARY KEY CHECK (symbol = UPPER(symbol)),
-    company_name VARCHAR(100) NOT NULL
+    company_name VARCHAR(100) NOT NULL,
+    -- Fixed-width surrogate key of the stock (see migrations/add_stock_history_symbol_id.sql)
+    symbol_id SMALLINT GENERATED BY DEFAULT AS IDENTITY UNIQUE NOT NULL
 );
 
 -- Insert stocks in StockHistory table to Stock table, from an external CSV file consisting of all stocks
@@ -80,14 +88,282 @@ CREATE TABLE StockHistory (
     volume BIGINT CHECK (volume >= 0),
     symbol VARCHAR(10),
     PRIMARY KEY (symbol, timestamp)
-);
+) PARTITION BY RANGE (timestamp);
+
+-- StockHistory is partitioned by year, so date range scans only read the years they cover.
+-- BRIN keeps the timestamp range index tiny; (timestamp, symbol) serves cross-sectional joins on a date.
+CREATE INDEX idx_stock_history_timestamp_brin ON StockHistory USING BRIN (timestamp);
+CREATE INDEX idx_stock_history_timestamp_symbol ON StockHistory (timestamp, symbol);
+
+-- Create the partition of one year (no-op if it exists); run it ahead of loading data for a new year
+CREATE OR REPLACE FUNCTION create_stock_history_partition(p_year INT)
+RETURNS VOID AS $$
+BEGIN
+    EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF StockHistory FOR VALUES FROM (%L) TO (%L)',
+                   'stockhistory_y' || p_year, make_date(p_year, 1, 1), make_date(p_year + 1, 1, 1));
+END;
+$$ LANGUAGE plpgsql;
+
+SELECT create_stock_history_partition(year::INT)
+FROM generate_series(1990, EXTRACT(YEAR FROM CURRENT_DATE)::INT + 1) AS year;
+
+-- Rows outside every yearly partition
+CREATE TABLE StockHistory_default PARTITION OF StockHistory DEFAULT;
 
 -- Load all records from CSV file into the StockHistory table
+-- (managers.StockHistoryLoader loads files from the client side instead, for files not on the database host)
+-- (managers.StockHistoryMigration converts a database created before partitioning, without downtime)
 COPY StockHistory (timestamp, open, high, low, close, volume, symbol)
 FROM 'SP500History.csv' -- To be replaced with the actual path to the CSV file
 DELIMITER ','
 CSV HEADER;
 
+-- LatestQuote table to store the most recent close of each stock, so current prices need no MAX(timestamp) lookup
+CREATE TABLE LatestQuote (
+    symbol VARCHAR(10) PRIMARY KEY,
+    timestamp DATE NOT NULL,
+    close DECIMAL(10, 2) NOT NULL CHECK (close >= 0)
+);
+
+-- Fill LatestQuote from the loaded history
+INSERT INTO LatestQuote (symbol, timestamp, close)
+SELECT DISTINCT ON (symbol) symbol, timestamp, close
+FROM StockHistory
+ORDER BY symbol, timestamp DESC;
+
+-- Create triggers to keep LatestQuote up to date when StockHistory rows are inserted or updated.
+-- They run once per statement over the changed rows, so bulk loads update LatestQuote in one set-based pass.
+CREATE OR REPLACE FUNCTION update_latest_quote()
+RETURNS TRIGGER AS $$
+BEGIN
+    INSERT INTO LatestQuote (symbol, timestamp, close)
+    SELECT DISTINCT ON (symbol) symbol, timestamp, close
+    FROM changed_rows
+    ORDER BY symbol, timestamp DESC
+    ON CONFLICT (symbol) DO UPDATE
+    SET timestamp = EXCLUDED.timestamp, close = EXCLUDED.close
+    WHERE LatestQuote.timestamp <= EXCLUDED.timestamp;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER trigger_insert_latest_quote
+AFTER INSERT ON StockHistory
+REFERENCING NEW TABLE AS changed_rows
+FOR EACH STATEMENT
+EXECUTE FUNCTION update_latest_quote();
+
+CREATE TRIGGER trigger_update_latest_quote
+AFTER UPDATE ON StockHistory
+REFERENCING NEW TABLE AS changed_rows
+FOR EACH STATEMENT
+EXECUTE FUNCTION update_latest_quote();
+
+-- Execute a buy (p_shares > 0) or sell (p_shares < 0) of one stock at its latest close, in one call.
+-- The Portfolio row is locked first, so concurrent trades on a portfolio run one after another and its cash
+-- balance and holdings always change together. status is FILLED, or the reason nothing was changed; shares_held and
+-- cash_balance are the holding and balance after the trade.
+CREATE OR REPLACE FUNCTION execute_trade(p_portfolio_id INT, p_symbol VARCHAR, p_shares INT,
+                                         OUT status VARCHAR, OUT fill_price DECIMAL(10, 2),
+                                         OUT shares_held INT, OUT cash_balance DECIMAL(15, 2)) AS $$
+DECLARE
+    v_amount DECIMAL(15, 2);
+BEGIN
+    SELECT p.cash_balance INTO cash_balance
+    FROM Portfolio p
+    WHERE p.portfolio_id = p_portfolio_id
+    FOR UPDATE;
+    IF NOT FOUND THEN
+        status := 'NO_PORTFOLIO';
+        RETURN;
+    END IF;
+
+    SELECT ph.shares INTO shares_held
+    FROM PortfolioHolding ph
+    WHERE ph.portfolio_id = p_portfolio_id AND ph.symbol = p_symbol;
+    IF NOT FOUND THEN
+        shares_held := 0;
+    END IF;
+
+    IF p_shares IS NULL OR p_shares = 0 THEN
+        status := 'INVALID_QUANTITY';
+        RETURN;
+    END IF;
+
+    -- LatestQuote follows StockHistory, which keeps the rows of removed stocks, so the stock must still exist
+    SELECT lq.close INTO fill_price
+    FROM Stock s
+    LEFT JOIN LatestQuote lq ON s.symbol = lq.symbol
+    WHERE s.symbol = p_symbol;
+    IF NOT FOUND THEN
+        status := 'UNKNOWN_STOCK';
+        RETURN;
+    END IF;
+    IF fill_price IS NULL THEN
+        status := 'NO_QUOTE';
+        RETURN;
+    END IF;
+
+    -- Cash moves by the value of the shares traded, not of the whole position
+    v_amount := fill_price * ABS(p_shares);
+    IF p_shares > 0 THEN
+        IF v_amount > cash_balance THEN
+            status := 'INSUFFICIENT_FUNDS';
+            RETURN;
+        END IF;
+        INSERT INTO PortfolioHolding AS ph (portfolio_id, symbol, shares)
+        VALUES (p_portfolio_id, p_symbol, p_shares)
+        ON CONFLICT (portfolio_id, symbol) DO UPDATE SET shares = ph.shares + EXCLUDED.shares
+        RETURNING ph.shares INTO shares_held;
+        UPDATE Portfolio p SET cash_balance = p.cash_balance - v_amount
+        WHERE p.portfolio_id = p_portfolio_id
+        RETURNING p.cash_balance INTO cash_balance;
+    ELSE
+        IF shares_held < -p_shares THEN
+            status := 'INSUFFICIENT_SHARES';
+            RETURN;
+        END IF;
+        -- A holding cannot have 0 shares, so selling the whole position removes it
+        IF shares_held = -p_shares THEN
+            DELETE FROM PortfolioHolding ph WHERE ph.portfolio_id = p_portfolio_id AND ph.symbol = p_symbol;
+            shares_held := 0;
+        ELSE
+            UPDATE PortfolioHolding ph SET shares = ph.shares + p_shares
+            WHERE ph.portfolio_id = p_portfolio_id AND ph.symbol = p_symbol
+            RETURNING ph.shares INTO shares_held;
+        END IF;
+        UPDATE Portfolio p SET cash_balance = p.cash_balance + v_amount
+        WHERE p.portfolio_id = p_portfolio_id
+        RETURNING p.cash_balance INTO cash_balance;
+    END IF;
+    status := 'FILLED';
+END;
+$$ LANGUAGE plpgsql;
+
+-- PortfolioValue table to store the value of each portfolio at the close of each market day: its cash and the market
+-- value of its holdings. Rows are written by the triggers below as trades and cash movements happen, by
+-- managers.MarkToMarket as new bars land, and by the nightly managers.PortfolioValuation job, so performance over any
+-- window is a range read.
+CREATE TABLE PortfolioValue (
+    portfolio_id INT,
+    date DATE,
+    cash DECIMAL(15, 2) NOT NULL,
+    market_value DECIMAL(15, 2) NOT NULL,
+    PRIMARY KEY (portfolio_id, date),
+    FOREIGN KEY (portfolio_id) REFERENCES Portfolio(portfolio_id)
+        ON DELETE CASCADE
+        ON UPDATE CASCADE
+);
+
+CREATE INDEX idx_portfolio_value_date ON PortfolioValue (date);
+
+-- Value the portfolios in p_portfolio_ids (every portfolio if NULL) at the closes of p_date, with their current cash
+-- and holdings, in one set-based statement. A stock without a bar on p_date is valued at its last close before it.
+-- Returns the number of rows written.
+CREATE OR REPLACE FUNCTION revalue_portfolios(p_date DATE, p_portfolio_ids INT[] DEFAULT NULL)
+RETURNS INT AS $$
+DECLARE
+    v_rows INT;
+BEGIN
+    IF p_date IS NULL THEN
+        RETURN 0;
+    END IF;
+    INSERT INTO PortfolioValue AS pv (portfolio_id, date, cash, market_value)
+    SELECT p.portfolio_id, p_date, p.cash_balance, COALESCE(SUM(ph.shares * px.close), 0)
+    FROM Portfolio p
+    LEFT JOIN PortfolioHolding ph ON ph.portfolio_id = p.portfolio_id
+    LEFT JOIN LATERAL (
+        SELECT sh.close
+        FROM StockHistory sh
+        WHERE sh.symbol = ph.symbol AND sh.timestamp <= p_date
+        ORDER BY sh.timestamp DESC
+        LIMIT 1
+    ) px ON TRUE
+    WHERE p_portfolio_ids IS NULL OR p.portfolio_id = ANY(p_portfolio_ids)
+    GROUP BY p.portfolio_id, p.cash_balance
+    ON CONFLICT (portfolio_id, date) DO UPDATE
+    SET cash = EXCLUDED.cash, market_value = EXCLUDED.market_value;
+    GET DIAGNOSTICS v_rows = ROW_COUNT;
+    RETURN v_rows;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Re-record the value of the portfolios changed by a statement on Portfolio or PortfolioHolding, on the date of the
+-- latest bar. Trades, deposits, withdrawals, transfers and batch fills all change these tables, so none of them
+-- needs to maintain PortfolioValue itself.
+CREATE OR REPLACE FUNCTION update_portfolio_value()
+RETURNS TRIGGER AS $$
+BEGIN
+    PERFORM revalue_portfolios((SELECT MAX(lq.timestamp) FROM LatestQuote lq),
+                               ARRAY(SELECT DISTINCT portfolio_id FROM changed_rows));
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER trigger_insert_portfolio_value
+AFTER INSERT ON Portfolio
+REFERENCING NEW TABLE AS changed_rows
+FOR EACH STATEMENT
+EXECUTE FUNCTION update_portfolio_value();
+
+CREATE TRIGGER trigger_update_portfolio_value
+AFTER UPDATE ON Portfolio
+REFERENCING NEW TABLE AS changed_rows
+FOR EACH STATEMENT
+EXECUTE FUNCTION update_portfolio_value();
+
+CREATE TRIGGER trigger_insert_holding_portfolio_value
+AFTER INSERT ON PortfolioHolding
+REFERENCING NEW TABLE AS changed_rows
+FOR EACH STATEMENT
+EXECUTE FUNCTION update_portfolio_value();
+
+CREATE TRIGGER trigger_update_holding_portfolio_value
+AFTER UPDATE ON PortfolioHolding
+REFERENCING NEW TABLE AS changed_rows
+FOR EACH STATEMENT
+EXECUTE FUNCTION update_portfolio_value();
+
+CREATE TRIGGER trigger_delete_holding_portfolio_value
+AFTER DELETE ON PortfolioHolding
+REFERENCING OLD TABLE AS changed_rows
+FOR EACH STATEMENT
+EXECUTE FUNCTION update_portfolio_value();
+
+-- StockListValue table to store the market value of each stock list's holdings at the close of each market day
+CREATE TABLE StockListValue (
+    list_id INT,
+    date DATE,
+    market_value DECIMAL(15, 2) NOT NULL,
+    PRIMARY KEY (list_id, date),
+    FOREIGN KEY (list_id) REFERENCES StockList(list_id)
+        ON DELETE CASCADE
+        ON UPDATE CASCADE
+);
+
+-- After new bars are loaded, managers.MarkToMarket values the portfolios and stock lists holding the changed stocks
+-- and upserts their PortfolioValue and StockListValue rows in batches
+
+-- DailyReturn table to store the close-to-close return of each stock on each trading day,
+-- weighted by the previous day's traded value (close * volume) for the cap-weighted market series
+CREATE TABLE DailyReturn (
+    symbol VARCHAR(10),
+    timestamp DATE,
+    daily_return DOUBLE PRECISION NOT NULL,
+    weight DOUBLE PRECISION,
+    PRIMARY KEY (symbol, timestamp)
+);
+
+-- MarketReturn table to store the S&P 500 market return of each trading day, built from the constituents.csv symbols
+CREATE TABLE MarketReturn (
+    timestamp DATE PRIMARY KEY,
+    equal_weighted DOUBLE PRECISION NOT NULL,
+    cap_weighted DOUBLE PRECISION NOT NULL,
+    constituents INT NOT NULL CHECK (constituents > 0)
+);
+
+-- Both are filled by managers.MarketReturns (run its main once after loading StockHistory)
+
 -- SharedStockList table to store the shared stock lists
 CREATE TABLE SharedStockList (
     list_id INT,
@@ -115,6 +391,34 @@ CREATE TABLE StockListHolding (
         ON UPDATE CASCADE
 );
 
+-- HoldingsVersion table to count the committed changes to each holdings table. managers.MarkToMarket keeps its
+-- symbol-to-holder index in memory and compares these versions in its snapshot on every run, so changes made by
+-- other processes, or directly in SQL, rebuild it. Deletes cascading from Portfolio, StockList or Stock count too.
+CREATE TABLE HoldingsVersion (
+    holdings VARCHAR(20) PRIMARY KEY,
+    version BIGINT NOT NULL
+);
+
+INSERT INTO HoldingsVersion (holdings, version) VALUES ('portfolioholding', 0), ('stocklistholding', 0);
+
+CREATE OR REPLACE FUNCTION bump_holdings_version()
+RETURNS TRIGGER AS $$
+BEGIN
+    UPDATE HoldingsVersion SET version = version + 1 WHERE holdings = lower(TG_TABLE_NAME);
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER trigger_portfolio_holdings_version
+AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON PortfolioHolding
+FOR EACH STATEMENT
+EXECUTE FUNCTION bump_holdings_version();
+
+CREATE TRIGGER trigger_stock_list_holdings_version
+AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON StockListHolding
+FOR EACH STATEMENT
+EXECUTE FUNCTION bump_holdings_version();
+
 -- Friend table
 CREATE TABLE Friend (
     friendship_id SERIAL PRIMARY KEY,
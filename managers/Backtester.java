@@ -0,0 +1,336 @@
+package managers;
+
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+import java.util.function.*;
+
+// This class replays daily closes against a simulated portfolio to evaluate trading and rebalancing rules.
+// The closes of the universe are loaded once into an immutable columnar view aligned on the trading calendar, so any
+// number of runs can replay them in parallel without touching the database. On every bar the strategy may place
+// orders, which are filled at that day's close with the same rules as TradeExecutor / execute_trade: amounts in cents,
+// no buying beyond the cash balance, no selling more than the position. Each run reports its daily NAV, maximum
+// drawdown and turnover.
+//
+// Usage: Backtester <portfolioId> <start YYYY-MM-DD> <end YYYY-MM-DD>
+//        sweeps equal-weight rebalancing periods and tolerance bands over the portfolio's current cash and holdings.
+public class Backtester {
+    private static final int[] DEFAULT_PERIODS = {0, 1, 5, 10, 21, 63, 126, 252};
+    private static final double[] DEFAULT_BANDS = {0, 0.01, 0.02, 0.05, 0.10};
+
+    // Decides the orders of each day; called once per bar after that day's closes are known
+    public interface Strategy {
+        void onBar(Session session);
+    }
+
+    // Closes of a universe on each trading day, in cents and forward-filled over gaps (0 before a symbol's first close)
+    public static final class MarketData {
+        private final List<String> symbols;
+        private final int[] epochDays;
+        private final long[][] closeCents;
+
+        private MarketData(List<String> symbols, int[] epochDays, long[][] closeCents) {
+            this.symbols = List.copyOf(symbols);
+            this.epochDays = epochDays;
+            this.closeCents = closeCents;
+        }
+
+        public static MarketData load(List<String> symbols, Timestamp start, Timestamp end) throws SQLException {
+            try (PriceMatrix raw = PriceMatrix.load(symbols, start, end);
+                 PriceMatrix closes = TradingCalendar.get().align(raw, TradingCalendar.FillPolicy.FORWARD_FILL,
+                         null)) {
+                int[] epochDays = new int[closes.days()];
+                for (int t = 0; t < epochDays.length; t++) {
+                    epochDays[t] = closes.epochDay(t);
+                }
+                return of(symbols, epochDays, closes.toArray());
+            }
+        }
+
+        // From aligned closes (NaN = missing); gaps are filled with the previous close
+        static MarketData of(List<String> symbols, int[] epochDays, double[][] closes) {
+            long[][] cents = new long[symbols.size()][epochDays.length];
+            for (int i = 0; i < cents.length; i++) {
+                long last = 0;
+                for (int t = 0; t < epochDays.length; t++) {
+                    if (!Double.isNaN(closes[i][t])) {
+                        last = Math.round(closes[i][t] * 100);
+                    }
+                    cents[i][t] = last;
+                }
+            }
+            return new MarketData(symbols, epochDays, cents);
+        }
+
+        public List<String> symbols() {
+            return symbols;
+        }
+
+        public int days() {
+            return epochDays.length;
+        }
+    }
+
+    // Starting cash and shares of each symbol of the universe
+    public record Account(long cashCents, int[] shares) {
+        public static Account ofCash(double cash, int symbols) {
+            return new Account(Math.round(cash * 100), new int[symbols]);
+        }
+
+        // Current cash and holdings of a portfolio; holdings outside the universe are ignored
+        public static Account fromPortfolio(int portfolioId, List<String> symbols) throws SQLException {
+            String cashSql = "SELECT cash_balance FROM Portfolio WHERE portfolio_id = ?";
+            String holdingsSql = "SELECT symbol, shares FROM PortfolioHolding WHERE portfolio_id = ?";
+            int[] positions = SymbolDictionary.positions(symbols);
+            int[] shares = new int[symbols.size()];
+            long cash = 0;
+            try (Connection conn = DatabaseConnection.getConnection()) {
+                PreparedStatement stmt = conn.prepareStatement(cashSql);
+                stmt.setInt(1, portfolioId);
+                ResultSet rs = stmt.executeQuery();
+                if (rs.next()) {
+                    cash = rs.getBigDecimal("cash_balance").movePointRight(2).longValueExact();
+                }
+                stmt = conn.prepareStatement(holdingsSql);
+                stmt.setInt(1, portfolioId);
+                rs = stmt.executeQuery();
+                while (rs.next()) {
+                    int i = SymbolDictionary.position(positions, rs.getString("symbol"));
+                    if (i >= 0) {
+                        shares[i] = rs.getInt("shares");
+                    }
+                }
+            }
+            return new Account(cash, shares);
+        }
+    }
+
+    // Outcome of one run. nav[t] is the value of cash and positions at the close of day t.
+    // maxDrawdown is the largest fall from a previous NAV peak, as a fraction of that peak; turnover is the value
+    // traded divided by the average NAV.
+    public record Result(String label, int[] epochDays, double[] nav, double totalReturn, double maxDrawdown,
+                         double turnover, int fills, int rejections) {
+    }
+
+    // State of one run on the current bar, through which the strategy reads prices and places orders
+    public static final class Session {
+        private final MarketData data;
+        private final int[] shares;
+        private long cashCents;
+        private int day;
+        private long tradedCents;
+        private int fills;
+        private int rejections;
+
+        private Session(MarketData data, Account account) {
+            this.data = data;
+            this.shares = account.shares().clone();
+            this.cashCents = account.cashCents();
+        }
+
+        public int day() {
+            return day;
+        }
+
+        public LocalDate date() {
+            return LocalDate.ofEpochDay(data.epochDays[day]);
+        }
+
+        public int symbols() {
+            return shares.length;
+        }
+
+        public String symbol(int i) {
+            return data.symbols.get(i);
+        }
+
+        // Close of symbol i today, NaN before its first close
+        public double price(int i) {
+            long cents = data.closeCents[i][day];
+            return cents == 0 ? Double.NaN : cents / 100.0;
+        }
+
+        public int position(int i) {
+            return shares[i];
+        }
+
+        public double cash() {
+            return cashCents / 100.0;
+        }
+
+        public double nav() {
+            return navCents() / 100.0;
+        }
+
+        private long navCents() {
+            long value = cashCents;
+            for (int i = 0; i < shares.length; i++) {
+                value += shares[i] * data.closeCents[i][day];
+            }
+            return value;
+        }
+
+        // Buy (positive) or sell (negative) shares of symbol i at today's close
+        public TradeExecutor.Status order(int i, int signedShares) {
+            TradeExecutor.Status status = fill(i, signedShares);
+            if (status == TradeExecutor.Status.FILLED) {
+                fills++;
+            } else {
+                rejections++;
+            }
+            return status;
+        }
+
+        private TradeExecutor.Status fill(int i, int signedShares) {
+            if (signedShares == 0) {
+                return TradeExecutor.Status.INVALID_QUANTITY;
+            }
+            long price = data.closeCents[i][day];
+            if (price == 0) {
+                return TradeExecutor.Status.NO_QUOTE;
+            }
+            long amount = price * Math.abs((long) signedShares);
+            if (signedShares > 0) {
+                if (amount > cashCents) {
+                    return TradeExecutor.Status.INSUFFICIENT_FUNDS;
+                }
+                cashCents -= amount;
+            } else {
+                if (shares[i] < -signedShares) {
+                    return TradeExecutor.Status.INSUFFICIENT_SHARES;
+                }
+                cashCents += amount;
+            }
+            shares[i] += signedShares;
+            tradedCents += amount;
+            return TradeExecutor.Status.FILLED;
+        }
+    }
+
+    // Replay every day of data through the strategy
+    public static Result run(MarketData data, Account account, Strategy strategy, String label) {
+        Session session = new Session(data, account);
+        int days = data.days();
+        double[] nav = new double[days];
+        double peak = 0, maxDrawdown = 0, navSum = 0;
+        for (int t = 0; t < days; t++) {
+            session.day = t;
+            strategy.onBar(session);
+            nav[t] = session.nav();
+            navSum += nav[t];
+            peak = Math.max(peak, nav[t]);
+            if (peak > 0) {
+                maxDrawdown = Math.max(maxDrawdown, (peak - nav[t]) / peak);
+            }
+        }
+        double totalReturn = days == 0 || nav[0] == 0 ? Double.NaN : nav[days - 1] / nav[0] - 1;
+        double turnover = navSum == 0 ? 0 : session.tradedCents / 100.0 / (navSum / days);
+        return new Result(label, data.epochDays, nav, totalReturn, maxDrawdown, turnover, session.fills,
+                session.rejections);
+    }
+
+    // Run one strategy per parameter set in parallel over the same data; results are in the order of parameters
+    public static <P> List<Result> sweep(MarketData data, Account account, List<P> parameters,
+                                         Function<P, Strategy> strategies) {
+        return parameters.parallelStream()
+                .map(p -> run(data, account, strategies.apply(p), p.toString()))
+                .toList();
+    }
+
+    // Every period trading days (never if 0), trade each holding whose weight is more than band away from an equal
+    // weight back to it. Sells go first so their proceeds can fund the buys.
+    public record EqualWeightRebalance(int period, double band) implements Strategy {
+        @Override
+        public void onBar(Session session) {
+            if (period == 0 || session.day() % period != 0) {
+                return;
+            }
+            int n = session.symbols();
+            double nav = session.nav();
+            int[] delta = new int[n];
+            int tradable = 0;
+            for (int i = 0; i < n; i++) {
+                if (!Double.isNaN(session.price(i))) {
+                    tradable++;
+                }
+            }
+            if (tradable == 0 || nav <= 0) {
+                return;
+            }
+            double target = 1.0 / tradable;
+            for (int i = 0; i < n; i++) {
+                double price = session.price(i);
+                if (Double.isNaN(price)) {
+                    continue;
+                }
+                double weight = session.position(i) * price / nav;
+                if (Math.abs(weight - target) > band) {
+                    delta[i] = (int) Math.floor(target * nav / price) - session.position(i);
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                if (delta[i] < 0) {
+                    session.order(i, delta[i]);
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                if (delta[i] > 0) {
+                    // Buy what the cash allows if rounding left it a little short
+                    int affordable = (int) Math.min(delta[i], Math.floor(session.cash() / session.price(i)));
+                    if (affordable > 0) {
+                        session.order(i, affordable);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return period == 0 ? "buy and hold" : String.format("every %d days, band %.0f%%", period, band * 100);
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 3) {
+            System.out.println("Usage: Backtester <portfolioId> <start YYYY-MM-DD> <end YYYY-MM-DD>");
+            return;
+        }
+        try {
+            int portfolioId = Integer.parseInt(args[0]);
+            List<String> symbols = StatisticsManager.getHoldingSymbols(portfolioId, true);
+            if (symbols.isEmpty()) {
+                System.out.println("Portfolio is empty. Nothing to backtest.");
+                return;
+            }
+            long started = System.nanoTime();
+            MarketData data = MarketData.load(symbols, Timestamp.valueOf(LocalDate.parse(args[1]).atStartOfDay()),
+                    Timestamp.valueOf(LocalDate.parse(args[2]).atTime(LocalTime.MAX)));
+            Account account = Account.fromPortfolio(portfolioId, symbols);
+
+            List<EqualWeightRebalance> grid = new ArrayList<>();
+            grid.add(new EqualWeightRebalance(0, 0));
+            for (int period : DEFAULT_PERIODS) {
+                for (double band : DEFAULT_BANDS) {
+                    if (period > 0) {
+                        grid.add(new EqualWeightRebalance(period, band));
+                    }
+                }
+            }
+            List<Result> results = new ArrayList<>(sweep(data, account, grid, strategy -> strategy));
+            results.sort(Comparator.comparingDouble(Result::totalReturn).reversed());
+
+            System.out.printf("Backtested %d rules over %d days of %d holdings in %.2fs%n", results.size(), data.days(),
+                    symbols.size(), (System.nanoTime() - started) / 1e9);
+            System.out.println("Rule\t\t\t\tFinal NAV\tReturn\t\tMax Drawdown\tTurnover\tTrades");
+            for (Result result : results) {
+                double finalNav = result.nav().length == 0 ? 0 : result.nav()[result.nav().length - 1];
+                System.out.printf("%-28s\t$%.2f\t%.2f%%\t\t%.2f%%\t\t%.2f\t\t%d%n", result.label(), finalNav,
+                        result.totalReturn() * 100, result.maxDrawdown() * 100, result.turnover(), result.fills());
+            }
+        } catch (SQLException e) {
+            System.err.println("Backtest failed: " + e.getMessage());
+        } finally {
+            DatabaseConnection.shutdown();
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package managers;
+
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+import java.util.stream.*;
+
+// This class predicts the future close of every holding of one or more portfolios or stock lists at once.
+// Holdings and close series are read with one query each, every distinct symbol is fitted once in parallel,
+// and each portfolio / list gets a forecast table plus its projected holdings value weighted by shares.
+public class BatchForecaster {
+    // Fewer closes than this are not enough for a reliable prediction
+    private static final int MIN_HISTORY = 10;
+
+    // Forecast of every holding of one portfolio or stock list; forecasts[i] is NaN-filled if symbol i lacks history
+    public record ForecastTable(int id, List<String> symbols, int[] shares, LocalDate[] lastDates,
+                                double[][] forecasts, double[] projectedValue) {
+        public void print() {
+            int horizon = projectedValue.length;
+            System.out.print("Symbol\tShares\tLast Date\t");
+            for (int d = 1; d <= horizon; d++) {
+                System.out.print("Day " + d + "\t\t");
+            }
+            System.out.println();
+            for (int i = 0; i < symbols.size(); i++) {
+                System.out.print(symbols.get(i) + "\t" + shares[i] + "\t");
+                if (lastDates[i] == null || Double.isNaN(forecasts[i][0])) {
+                    System.out.println("Not enough data to perform reliable prediction.");
+                    continue;
+                }
+                System.out.print(lastDates[i] + "\t");
+                for (int d = 0; d < horizon; d++) {
+                    System.out.printf("$%.2f\t\t", forecasts[i][d]);
+                }
+                System.out.println();
+            }
+            System.out.print("Projected value\t\t\t");
+            for (int d = 0; d < horizon; d++) {
+                System.out.printf("$%.2f\t", projectedValue[d]);
+            }
+            System.out.println();
+        }
+    }
+
+    // Nightly entry point: forecast every portfolio. Usage: BatchForecaster [modelType] [horizon]
+    public static void main(String[] args) {
+        int modelType = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        int horizon = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        try {
+            long start = System.nanoTime();
+            Map<Integer, ForecastTable> tables = forecast(true, null, modelType, horizon);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            for (ForecastTable table : tables.values()) {
+                System.out.printf("Portfolio %d: %d holdings, projected value on day %d: $%.2f%n", table.id(),
+                        table.symbols().size(), horizon, table.projectedValue()[horizon - 1]);
+            }
+            System.out.printf("Forecast %d portfolios in %.2fs%n", tables.size(), seconds);
+        } catch (SQLException e) {
+            System.err.println("Batch forecast failed: " + e.getMessage());
+        } finally {
+            DatabaseConnection.shutdown();
+        }
+    }
+
+    public static ForecastTable forecastPortfolio(int portfolioId, int modelType, int horizon) throws SQLException {
+        return forecast(true, List.of(portfolioId), modelType, horizon).get(portfolioId);
+    }
+
+    public static ForecastTable forecastStockList(int listId, int modelType, int horizon) throws SQLException {
+        return forecast(false, List.of(listId), modelType, horizon).get(listId);
+    }
+
+    public static Map<Integer, ForecastTable> forecastPortfolios(List<Integer> portfolioIds, int modelType, int horizon)
+            throws SQLException {
+        return forecast(true, portfolioIds, modelType, horizon);
+    }
+
+    public static Map<Integer, ForecastTable> forecastStockLists(List<Integer> listIds, int modelType, int horizon)
+            throws SQLException {
+        return forecast(false, listIds, modelType, horizon);
+    }
+
+    // Forecast the holdings of the given portfolios / stock lists (all of them if ids is null), keyed by id
+    private static Map<Integer, ForecastTable> forecast(boolean isPortfolio, List<Integer> ids, int modelType,
+                                                        int horizon) throws SQLException {
+        if (horizon <= 0) {
+            throw new IllegalArgumentException("Number of days must be a positive integer");
+        }
+        PredictionModel prototype = PredictionModel.forType(modelType);
+        if (prototype == null) {
+            throw new IllegalArgumentException("Invalid model type: " + modelType);
+        }
+
+        // owner id -> (symbol -> shares), in symbol order
+        Map<Integer, TreeMap<String, Integer>> holdings = loadHoldings(isPortfolio, ids);
+        Set<String> symbols = new TreeSet<>();
+        for (TreeMap<String, Integer> owned : holdings.values()) {
+            symbols.addAll(owned.keySet());
+        }
+
+        int limit = prototype.window() == 0 ? 0 : Math.max(prototype.window(), MIN_HISTORY);
+        List<String> symbolList = new ArrayList<>(symbols);
+        int[] positions = SymbolDictionary.positions(symbolList);
+        StatisticsManager.CloseSeries[] series = loadSeries(symbolList, positions, limit);
+
+        // Fit each distinct symbol once; models are stateful, so every task gets its own
+        double[][] forecasts = new double[symbolList.size()][];
+        IntStream.range(0, symbolList.size()).parallel().forEach(s -> {
+            if (series[s] == null || series[s].closes().length < MIN_HISTORY) {
+                return;
+            }
+            PredictionModel model = PredictionModel.forType(modelType);
+            double[] out = new double[horizon];
+            model.fit(series[s].closes());
+            model.forecast(horizon, out);
+            forecasts[s] = out;
+        });
+
+        Map<Integer, ForecastTable> tables = new LinkedHashMap<>();
+        for (Map.Entry<Integer, TreeMap<String, Integer>> owner : holdings.entrySet()) {
+            List<String> ownedSymbols = new ArrayList<>(owner.getValue().keySet());
+            int n = ownedSymbols.size();
+            int[] shares = new int[n];
+            LocalDate[] lastDates = new LocalDate[n];
+            double[][] table = new double[n][];
+            double[] projectedValue = new double[horizon];
+            for (int i = 0; i < n; i++) {
+                String symbol = ownedSymbols.get(i);
+                shares[i] = owner.getValue().get(symbol);
+                int s = SymbolDictionary.position(positions, symbol);
+                lastDates[i] = series[s] == null ? null : series[s].lastDate();
+                double[] forecast = forecasts[s];
+                if (forecast == null) {
+                    table[i] = new double[horizon];
+                    Arrays.fill(table[i], Double.NaN);
+                    continue;
+                }
+                table[i] = forecast;
+                for (int d = 0; d < horizon; d++) {
+                    projectedValue[d] += shares[i] * forecast[d];
+                }
+            }
+            tables.put(owner.getKey(), new ForecastTable(owner.getKey(), ownedSymbols, shares, lastDates, table,
+                    projectedValue));
+        }
+        return tables;
+    }
+
+    private static Map<Integer, TreeMap<String, Integer>> loadHoldings(boolean isPortfolio, List<Integer> ids)
+            throws SQLException {
+        String table = isPortfolio ? "PortfolioHolding" : "StockListHolding";
+        String idColumn = isPortfolio ? "portfolio_id" : "list_id";
+        String sql = "SELECT " + idColumn + " AS owner_id, symbol, shares FROM " + table
+                + (ids == null ? "" : " WHERE " + idColumn + " = ANY(?)")
+                + " ORDER BY owner_id";
+
+        Map<Integer, TreeMap<String, Integer>> holdings = new LinkedHashMap<>();
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            if (ids != null) {
+                stmt.setArray(1, conn.createArrayOf("integer", ids.toArray()));
+            }
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                holdings.computeIfAbsent(rs.getInt("owner_id"), k -> new TreeMap<>())
+                        .put(rs.getString("symbol"), rs.getInt("shares"));
+            }
+        }
+        return holdings;
+    }
+
+    // Load the last limit closes (all if limit is 0) of every symbol in one query, oldest first.
+    // series[i] belongs to symbols[i]; positions is SymbolDictionary.positions(symbols).
+    private static StatisticsManager.CloseSeries[] loadSeries(List<String> symbols, int[] positions, int limit)
+            throws SQLException {
+        StatisticsManager.CloseSeries[] series = new StatisticsManager.CloseSeries[symbols.size()];
+        if (symbols.isEmpty()) {
+            return series;
+        }
+        if (PriceHistoryCache.isEnabled()) {
+            for (int i = 0; i < symbols.size(); i++) {
+                series[i] = StatisticsManager.loadCloseSeries(symbols.get(i), limit);
+            }
+            return series;
+        }
+
+        // LIMIT NULL means no limit, so one statement serves windowed and full-series models
+        String sql = """
+                SELECT s.symbol, t.timestamp, t.close
+                FROM UNNEST(?::varchar[]) AS s(symbol)
+                CROSS JOIN LATERAL (
+                    SELECT timestamp, close
+                    FROM StockHistory sh
+                    WHERE sh.symbol = s.symbol
+                    ORDER BY timestamp DESC
+                    LIMIT ?
+                ) t
+                ORDER BY s.symbol, t.timestamp
+                """;
+
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            // A fetch size only streams rows when autocommit is off
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setArray(1, conn.createArrayOf("varchar", symbols.toArray()));
+                if (limit > 0) {
+                    stmt.setInt(2, limit);
+                } else {
+                    stmt.setNull(2, Types.INTEGER);
+                }
+                stmt.setFetchSize(50_000);
+                ResultSet rs = stmt.executeQuery();
+
+                String currentSymbol = null;
+                double[] closes = new double[Math.max(limit, 1024)];
+                int size = 0;
+                LocalDate lastDate = null;
+                while (rs.next()) {
+                    String symbol = rs.getString("symbol");
+                    if (!symbol.equals(currentSymbol)) {
+                        if (currentSymbol != null) {
+                            series[SymbolDictionary.position(positions, currentSymbol)] =
+                                    new StatisticsManager.CloseSeries(Arrays.copyOf(closes, size), lastDate);
+                        }
+                        currentSymbol = symbol;
+                        size = 0;
+                    }
+                    if (size == closes.length) {
+                        closes = Arrays.copyOf(closes, size * 2);
+                    }
+                    closes[size++] = rs.getDouble("close");
+                    lastDate = rs.getDate("timestamp").toLocalDate();
+                }
+                if (currentSymbol != null) {
+                    series[SymbolDictionary.position(positions, currentSymbol)] =
+                            new StatisticsManager.CloseSeries(Arrays.copyOf(closes, size), lastDate);
+                }
+            }
+            conn.commit();
+        }
+        return series;
+    }
+}
@@ -0,0 +1,481 @@
+package managers;
+
+import java.lang.reflect.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+// This class is a bounded JDBC connection pool. Borrowed connections are proxies whose close() hands the
+// physical connection back to the pool, so callers keep using try-with-resources exactly as before.
+public class ConnectionPool {
+    // Upper bounds (in ms) of the borrow latency histogram buckets; the last bucket catches everything above
+    private static final long[] LATENCY_BUCKETS_MS = {1, 5, 10, 50, 100, 500, 1000, 5000};
+    // Skip the validation round trip if the connection was used this recently
+    private static final long VALIDATION_BYPASS_MS = 500;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    private static final long HOUSEKEEPING_INTERVAL_MS = 30_000;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxPoolSize;
+    private final long borrowTimeoutMs;
+    private final long idleTimeoutMs;
+    private final long maxLifetimeMs;
+    private final long leakDetectionThresholdMs;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    private final Deque<Waiter> waitQueue = new ArrayDeque<>();
+    private final Set<PooledConnection> active = new HashSet<>();
+    private int totalConnections = 0;
+    private boolean closed = false;
+
+    private final AtomicLongArray latencyHistogram = new AtomicLongArray(LATENCY_BUCKETS_MS.length + 1);
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong borrowTimeouts = new AtomicLong();
+    private final AtomicLong totalBorrowNanos = new AtomicLong();
+    private final AtomicLong leaksDetected = new AtomicLong();
+    private final ScheduledExecutorService housekeeper;
+
+    public ConnectionPool(String url, String user, String password, int maxPoolSize, long borrowTimeoutMs,
+                          long idleTimeoutMs, long maxLifetimeMs, long leakDetectionThresholdMs) {
+        if (maxPoolSize <= 0) {
+            throw new IllegalArgumentException("Pool size must be greater than zero");
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxPoolSize = maxPoolSize;
+        this.borrowTimeoutMs = borrowTimeoutMs;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.maxLifetimeMs = maxLifetimeMs;
+        this.leakDetectionThresholdMs = leakDetectionThresholdMs;
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        housekeeper.scheduleWithFixedDelay(this::housekeep, HOUSEKEEPING_INTERVAL_MS,
+                HOUSEKEEPING_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    // Borrow a connection, waiting up to the borrow timeout for one to become free
+    public Connection borrow() throws SQLException {
+        long startNanos = System.nanoTime();
+        long deadline = startNanos + TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMs);
+
+        while (true) {
+            PooledConnection pooled = null;
+            boolean create = false;
+
+            lock.lock();
+            try {
+                if (closed) {
+                    throw new SQLException("Connection pool is closed");
+                }
+                // Queued borrowers are served first so a busy pool cannot starve them
+                if (waitQueue.isEmpty()) {
+                    pooled = pollIdle();
+                }
+                if (pooled == null && totalConnections < maxPoolSize) {
+                    totalConnections++;
+                    create = true;
+                } else if (pooled == null) {
+                    Waiter waiter = awaitHandoff(deadline);
+                    if (waiter.handoff != null) {
+                        pooled = waiter.handoff;
+                    } else {
+                        // A slot was freed and reserved for us
+                        create = true;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (create) {
+                try {
+                    pooled = new PooledConnection(DriverManager.getConnection(url, user, password));
+                } catch (SQLException e) {
+                    lock.lock();
+                    try {
+                        totalConnections--;
+                        offerFreedSlot();
+                    } finally {
+                        lock.unlock();
+                    }
+                    throw e;
+                }
+            } else if (!isValid(pooled)) {
+                // Broken connection, throw it away and try again
+                lock.lock();
+                try {
+                    discard(pooled);
+                } finally {
+                    lock.unlock();
+                }
+                continue;
+            }
+
+            pooled.borrowedAt = System.currentTimeMillis();
+            pooled.leakReported = false;
+            pooled.borrowSite = leakDetectionThresholdMs > 0 ? new Exception("Connection borrowed here") : null;
+            lock.lock();
+            try {
+                active.add(pooled);
+            } finally {
+                lock.unlock();
+            }
+
+            recordBorrowLatency(System.nanoTime() - startNanos);
+            return pooled.newHandle();
+        }
+    }
+
+    // Queue up and wait until a connection is handed over or a slot is freed; must be called with the lock held
+    private Waiter awaitHandoff(long deadline) throws SQLException {
+        Waiter waiter = new Waiter(lock.newCondition());
+        waitQueue.addLast(waiter);
+        try {
+            while (waiter.handoff == null && !waiter.slotReserved) {
+                if (closed) {
+                    throw new SQLException("Connection pool is closed");
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    borrowTimeouts.incrementAndGet();
+                    throw new SQLTimeoutException("Timed out after " + borrowTimeoutMs
+                            + "ms waiting for a database connection (active: " + active.size() + ")");
+                }
+                try {
+                    waiter.signal.awaitNanos(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while waiting for a database connection");
+                }
+            }
+            return waiter;
+        } catch (SQLException e) {
+            waitQueue.remove(waiter);
+            // Whatever was handed to us in the meantime goes to the next borrower
+            if (waiter.handoff != null) {
+                handOver(waiter.handoff);
+            } else if (waiter.slotReserved) {
+                totalConnections--;
+                offerFreedSlot();
+            }
+            throw e;
+        }
+    }
+
+    // Hand a connection back to the pool, resetting any session state the caller changed
+    private void release(PooledConnection pooled) {
+        boolean healthy = pooled.resetState();
+        pooled.lastUsedAt = System.currentTimeMillis();
+
+        lock.lock();
+        try {
+            active.remove(pooled);
+            if (!healthy || closed || isExpired(pooled, pooled.lastUsedAt)) {
+                discard(pooled);
+            } else {
+                handOver(pooled);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Give a free connection to the longest waiting borrower, or park it as idle; must be called with the lock held
+    private void handOver(PooledConnection pooled) {
+        Waiter waiter = waitQueue.pollFirst();
+        if (waiter != null) {
+            waiter.handoff = pooled;
+            waiter.signal.signal();
+        } else {
+            idle.addFirst(pooled);
+        }
+    }
+
+    // Let the longest waiting borrower open a new connection in a freed slot; must be called with the lock held
+    private void offerFreedSlot() {
+        if (totalConnections < maxPoolSize) {
+            Waiter waiter = waitQueue.pollFirst();
+            if (waiter != null) {
+                totalConnections++;
+                waiter.slotReserved = true;
+                waiter.signal.signal();
+            }
+        }
+    }
+
+    // Reuse the most recently returned connection, dropping aged ones on the way; must be called with the lock held
+    private PooledConnection pollIdle() {
+        while (!idle.isEmpty()) {
+            PooledConnection candidate = idle.pollFirst();
+            if (!isExpired(candidate, System.currentTimeMillis())) {
+                return candidate;
+            }
+            discard(candidate);
+        }
+        return null;
+    }
+
+    // Periodically evict idle / aged connections and report connections held past the leak threshold
+    private void housekeep() {
+        long now = System.currentTimeMillis();
+        List<PooledConnection> leaked = new ArrayList<>();
+
+        lock.lock();
+        try {
+            Iterator<PooledConnection> it = idle.iterator();
+            while (it.hasNext()) {
+                PooledConnection pooled = it.next();
+                if (isExpired(pooled, now) || now - pooled.lastUsedAt > idleTimeoutMs) {
+                    it.remove();
+                    discard(pooled);
+                }
+            }
+            if (leakDetectionThresholdMs > 0) {
+                for (PooledConnection pooled : active) {
+                    if (!pooled.leakReported && now - pooled.borrowedAt > leakDetectionThresholdMs) {
+                        pooled.leakReported = true;
+                        leaked.add(pooled);
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        for (PooledConnection pooled : leaked) {
+            leaksDetected.incrementAndGet();
+            System.err.println("Possible connection leak: connection held for more than "
+                    + leakDetectionThresholdMs + "ms");
+            if (pooled.borrowSite != null) {
+                pooled.borrowSite.printStackTrace();
+            }
+        }
+    }
+
+    // Close every idle connection and reject further borrows; active connections close when returned
+    public void close() {
+        housekeeper.shutdownNow();
+        lock.lock();
+        try {
+            closed = true;
+            while (!idle.isEmpty()) {
+                discard(idle.pollFirst());
+            }
+            for (Waiter waiter : waitQueue) {
+                waiter.signal.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Stats getStats() {
+        lock.lock();
+        try {
+            long[] histogram = new long[latencyHistogram.length()];
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] = latencyHistogram.get(i);
+            }
+            long borrows = borrowCount.get();
+            double avgBorrowMs = borrows == 0 ? 0 : totalBorrowNanos.get() / 1_000_000.0 / borrows;
+            return new Stats(active.size(), idle.size(), waitQueue.size(), totalConnections, maxPoolSize, borrows,
+                    borrowTimeouts.get(), leaksDetected.get(), avgBorrowMs, LATENCY_BUCKETS_MS.clone(), histogram);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isExpired(PooledConnection pooled, long now) {
+        return maxLifetimeMs > 0 && now - pooled.createdAt > maxLifetimeMs;
+    }
+
+    private boolean isValid(PooledConnection pooled) {
+        if (System.currentTimeMillis() - pooled.lastUsedAt < VALIDATION_BYPASS_MS) {
+            return true;
+        }
+        try {
+            return pooled.physical.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    // Close a connection and free its slot; must be called with the lock held
+    private void discard(PooledConnection pooled) {
+        totalConnections--;
+        try {
+            pooled.physical.close();
+        } catch (SQLException e) {
+            // Nothing useful to do with a connection we are throwing away
+        }
+        if (!closed) {
+            offerFreedSlot();
+        }
+    }
+
+    private void recordBorrowLatency(long nanos) {
+        borrowCount.incrementAndGet();
+        totalBorrowNanos.addAndGet(nanos);
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        int bucket = 0;
+        while (bucket < LATENCY_BUCKETS_MS.length && millis >= LATENCY_BUCKETS_MS[bucket]) {
+            bucket++;
+        }
+        latencyHistogram.incrementAndGet(bucket);
+    }
+
+    // Snapshot of pool metrics
+    public record Stats(int active, int idle, int waiters, int total, int maxPoolSize, long borrows,
+                        long borrowTimeouts, long leaksDetected, double avgBorrowMs,
+                        long[] latencyBucketsMs, long[] latencyHistogram) {
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("Pool: active=%d idle=%d waiters=%d total=%d/%d borrows=%d timeouts=%d leaks=%d avgBorrow=%.3fms%n",
+                    active, idle, waiters, total, maxPoolSize, borrows, borrowTimeouts, leaksDetected, avgBorrowMs));
+            sb.append("Borrow latency:");
+            for (int i = 0; i < latencyHistogram.length; i++) {
+                String label = i < latencyBucketsMs.length ? "<" + latencyBucketsMs[i] + "ms"
+                        : ">=" + latencyBucketsMs[latencyBucketsMs.length - 1] + "ms";
+                sb.append(' ').append(label).append('=').append(latencyHistogram[i]);
+            }
+            return sb.toString();
+        }
+    }
+
+    // A borrower blocked on a full pool
+    private static class Waiter {
+        private final Condition signal;
+        private PooledConnection handoff;
+        private boolean slotReserved;
+
+        private Waiter(Condition signal) {
+            this.signal = signal;
+        }
+    }
+
+    // A physical connection owned by the pool, plus the bookkeeping needed to recycle it
+    private class PooledConnection {
+        private final Connection physical;
+        private final long createdAt = System.currentTimeMillis();
+        private final List<Statement> openStatements = new ArrayList<>();
+        private volatile long lastUsedAt = createdAt;
+        private volatile long borrowedAt;
+        private volatile boolean leakReported;
+        private volatile Exception borrowSite;
+        // Session settings of the fresh connection, restored on every release
+        private final int defaultIsolation;
+        private final String defaultCatalog;
+        private final String defaultSchema;
+        private final int defaultNetworkTimeout;
+
+        private PooledConnection(Connection physical) throws SQLException {
+            this.physical = physical;
+            try {
+                defaultIsolation = physical.getTransactionIsolation();
+                defaultCatalog = physical.getCatalog();
+                defaultSchema = physical.getSchema();
+                defaultNetworkTimeout = physical.getNetworkTimeout();
+            } catch (SQLException e) {
+                physical.close();
+                throw e;
+            }
+        }
+
+        // Each borrow gets its own proxy so a stale handle cannot touch the connection after close()
+        private Connection newHandle() {
+            return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new Handle());
+        }
+
+        // Close statements the caller left open and restore defaults; false if the connection is unusable
+        private boolean resetState() {
+            for (Statement statement : openStatements) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                    // Ignore, the statement is being abandoned anyway
+                }
+            }
+            openStatements.clear();
+            try {
+                if (!physical.getAutoCommit()) {
+                    physical.rollback();
+                    physical.setAutoCommit(true);
+                }
+                if (physical.isReadOnly()) {
+                    physical.setReadOnly(false);
+                }
+                if (physical.getTransactionIsolation() != defaultIsolation) {
+                    physical.setTransactionIsolation(defaultIsolation);
+                }
+                if (!Objects.equals(physical.getCatalog(), defaultCatalog)) {
+                    physical.setCatalog(defaultCatalog);
+                }
+                if (!Objects.equals(physical.getSchema(), defaultSchema)) {
+                    physical.setSchema(defaultSchema);
+                }
+                if (physical.getNetworkTimeout() != defaultNetworkTimeout) {
+                    physical.setNetworkTimeout(Runnable::run, defaultNetworkTimeout);
+                }
+                physical.clearWarnings();
+                return !physical.isClosed();
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        private class Handle implements InvocationHandler {
+            private boolean handleClosed = false;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "close":
+                        if (!handleClosed) {
+                            handleClosed = true;
+                            release(PooledConnection.this);
+                        }
+                        return null;
+                    case "isClosed":
+                        return handleClosed || physical.isClosed();
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return "Pooled" + physical;
+                    case "unwrap":
+                        if (((Class<?>) args[0]).isInstance(proxy)) {
+                            return proxy;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+                if (handleClosed) {
+                    throw new SQLException("Connection has already been returned to the pool");
+                }
+                try {
+                    Object result = method.invoke(physical, args);
+                    if (result instanceof Statement statement) {
+                        openStatements.add(statement);
+                    }
+                    return result;
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        }
+    }
+}
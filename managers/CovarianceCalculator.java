@@ -0,0 +1,160 @@
+package managers;
+
+import java.nio.*;
+import java.sql.*;
+import java.time.*;
+import java.time.temporal.*;
+import java.util.*;
+import java.util.stream.*;
+
+// This class computes covariance matrices of daily close prices for a set of stocks.
+// The close series of all stocks are read into an off-heap PriceMatrix, and the upper triangle is computed in parallel.
+public class CovarianceCalculator {
+    // Above this many (estimated) rows we let Postgres aggregate instead of shipping the series to the JVM
+    private static final long PUSHDOWN_ROW_THRESHOLD = 5_000_000;
+    private static final double TRADING_DAYS_PER_CALENDAR_DAY = 252.0 / 365.0;
+
+    // Compute the population covariance of close prices for every pair of symbols over [start, end].
+    // Each pair is computed over the days on which both stocks have a close, matching COVAR_POP on a join by date.
+    public static double[][] computeCovarianceMatrix(List<String> symbols, Timestamp start, Timestamp end)
+            throws SQLException {
+        if (symbols.isEmpty()) {
+            return new double[0][0];
+        }
+        long calendarDays = ChronoUnit.DAYS.between(start.toLocalDateTime().toLocalDate(),
+                end.toLocalDateTime().toLocalDate()) + 1;
+        long estimatedRows = (long) (calendarDays * TRADING_DAYS_PER_CALENDAR_DAY) * symbols.size();
+        // With the history cache enabled the series are already in memory, so never push down
+        if (!PriceHistoryCache.isEnabled() && estimatedRows > PUSHDOWN_ROW_THRESHOLD) {
+            return computeInDatabase(symbols, start, end);
+        }
+        try (PriceMatrix closes = loadAlignedCloses(symbols, start, end)) {
+            return computeInMemory(closes);
+        }
+    }
+
+    // Load the close prices of all symbols into an off-heap symbol-major matrix aligned on a shared date axis.
+    // Days on which a symbol has no close are NaN. The caller closes the matrix.
+    public static PriceMatrix loadAlignedCloses(List<String> symbols, Timestamp start, Timestamp end)
+            throws SQLException {
+        return PriceMatrix.load(symbols, start, end);
+    }
+
+    // Compute the covariance matrix of aligned series (NaN = missing); only the upper triangle is computed
+    public static double[][] computeInMemory(double[][] series) {
+        try (PriceMatrix closes = PriceMatrix.of(series)) {
+            return computeInMemory(closes);
+        }
+    }
+
+    // Same, over an off-heap matrix; centred rows are kept off-heap too
+    public static double[][] computeInMemory(PriceMatrix closes) {
+        int n = closes.rows();
+        int days = closes.days();
+        double[][] matrix = new double[n][n];
+
+        // Centre complete series once so that pairs of complete series reduce to a dot product
+        boolean[] complete = new boolean[n];
+        try (PriceMatrix centred = PriceMatrix.allocate(closes.symbols(), new int[days])) {
+            for (int i = 0; i < n; i++) {
+                DoubleBuffer row = closes.row(i);
+                complete[i] = days > 0 && !containsNaN(row);
+                if (complete[i]) {
+                    double mean = NumericKernels.sum(row) / days;
+                    DoubleBuffer out = centred.mutableRow(i);
+                    for (int t = 0; t < days; t++) {
+                        out.put(t, row.get(t) - mean);
+                    }
+                }
+            }
+
+            IntStream.range(0, n).parallel().forEach(i -> {
+                DoubleBuffer x = closes.row(i);
+                DoubleBuffer cx = centred.row(i);
+                double[] block = new double[4];
+                int j = i;
+                // Complete rows go four at a time through one pass over x
+                while (j < n) {
+                    if (complete[i] && j + 3 < n && complete[j] && complete[j + 1] && complete[j + 2]
+                            && complete[j + 3]) {
+                        NumericKernels.dot4(cx, centred.row(j), centred.row(j + 1), centred.row(j + 2),
+                                centred.row(j + 3), block);
+                        for (int b = 0; b < 4; b++) {
+                            matrix[i][j + b] = block[b] / days;
+                            matrix[j + b][i] = block[b] / days;
+                        }
+                        j += 4;
+                        continue;
+                    }
+                    double cov = complete[i] && complete[j]
+                            ? NumericKernels.dot(cx, centred.row(j)) / days
+                            : pairwiseCovariance(x, closes.row(j));
+                    matrix[i][j] = cov;
+                    matrix[j][i] = cov;
+                    j++;
+                }
+            });
+        }
+        return matrix;
+    }
+
+    // Covariance over the days on which both series have a value; 0 if they never overlap.
+    // The second pass is taken around the first pass's means, so it cancels like the textbook two-pass formula.
+    private static double pairwiseCovariance(DoubleBuffer x, DoubleBuffer y) {
+        double[] sums = new double[4];
+        NumericKernels.pairSums(x, y, 0, 0, sums);
+        double count = sums[0];
+        if (count == 0) {
+            return 0;
+        }
+        NumericKernels.pairSums(x, y, sums[1] / count, sums[2] / count, sums);
+        return sums[3] / count - (sums[1] / count) * (sums[2] / count);
+    }
+
+    // Fallback for very large windows: one grouped COVAR_POP query over the upper triangle of pairs
+    private static double[][] computeInDatabase(List<String> symbols, Timestamp start, Timestamp end)
+            throws SQLException {
+        // Row of each symbol, indexed by SymbolDictionary id
+        int[] rowOf = SymbolDictionary.positions(symbols);
+
+        String sql = """
+                SELECT s1.symbol AS symbol1, s2.symbol AS symbol2, COVAR_POP(s1.close, s2.close) AS cov
+                FROM StockHistory s1
+                JOIN StockHistory s2 ON s1.timestamp = s2.timestamp AND s1.symbol <= s2.symbol
+                WHERE s1.symbol = ANY(?) AND s2.symbol = ANY(?)
+                AND s1.timestamp BETWEEN ? AND ?
+                GROUP BY s1.symbol, s2.symbol
+                """;
+
+        double[][] matrix = new double[symbols.size()][symbols.size()];
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            Array symbolArray = conn.createArrayOf("varchar", symbols.toArray());
+            stmt.setArray(1, symbolArray);
+            stmt.setArray(2, symbolArray);
+            stmt.setTimestamp(3, start);
+            stmt.setTimestamp(4, end);
+            ResultSet rs = stmt.executeQuery();
+
+            while (rs.next()) {
+                int i = SymbolDictionary.position(rowOf, rs.getString("symbol1"));
+                int j = SymbolDictionary.position(rowOf, rs.getString("symbol2"));
+                if (i >= 0 && j >= 0) {
+                    double cov = rs.getDouble("cov");
+                    matrix[i][j] = cov;
+                    matrix[j][i] = cov;
+                }
+            }
+        }
+        return matrix;
+    }
+
+    private static boolean containsNaN(DoubleBuffer values) {
+        for (int t = 0; t < values.limit(); t++) {
+            if (Double.isNaN(values.get(t))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -7,18 +7,59 @@ public class DatabaseConnection {
     private static final String URL = "URL";
     private static final String USER = "USER";
     private static final String PASSWORD = "PASSWORD";
+    // The db.url, db.user and db.password system properties override them, e.g. to run against a test database
 
-    public static Connection getConnection() throws SQLException {
-        try {
-            Class.forName("org.postgresql.Driver");
-        } catch (ClassNotFoundException e) {
-            throw new RuntimeException("Driver not found");
-        }
+    // Connection pool settings
+    private static final int MAX_POOL_SIZE = 10;
+    private static final long BORROW_TIMEOUT_MS = 30_000;
+    private static final long IDLE_TIMEOUT_MS = 10 * 60_000;
+    private static final long MAX_LIFETIME_MS = 30 * 60_000;
+    private static final long LEAK_DETECTION_THRESHOLD_MS = 60_000;
+
+    private static volatile ConnectionPool pool;
 
+    // Borrow a pooled connection; closing it returns it to the pool
+    public static Connection getConnection() throws SQLException {
         try {
-            return DriverManager.getConnection(URL, USER, PASSWORD);
+            return getPool().borrow();
+        } catch (SQLTimeoutException e) {
+            throw e;
         } catch (SQLException e) {
             throw new RuntimeException("Connection failed: " + e.getMessage());
         }
     }
+
+    // Current pool metrics (active, idle, waiters, borrow latency histogram)
+    public static ConnectionPool.Stats getPoolStats() {
+        return getPool().getStats();
+    }
+
+    // Close all pooled connections
+    public static synchronized void shutdown() {
+        if (pool != null) {
+            pool.close();
+            pool = null;
+        }
+    }
+
+    private static ConnectionPool getPool() {
+        ConnectionPool current = pool;
+        if (current != null) {
+            return current;
+        }
+        synchronized (DatabaseConnection.class) {
+            if (pool == null) {
+                try {
+                    Class.forName("org.postgresql.Driver");
+                } catch (ClassNotFoundException e) {
+                    throw new RuntimeException("Driver not found");
+                }
+                pool = new ConnectionPool(System.getProperty("db.url", URL), System.getProperty("db.user", USER),
+                        System.getProperty("db.password", PASSWORD), MAX_POOL_SIZE, BORROW_TIMEOUT_MS,
+                        IDLE_TIMEOUT_MS, MAX_LIFETIME_MS, LEAK_DETECTION_THRESHOLD_MS);
+                Runtime.getRuntime().addShutdownHook(new Thread(DatabaseConnection::shutdown));
+            }
+            return pool;
+        }
+    }
 }
@@ -0,0 +1,38 @@
+package managers;
+
+// Exponential smoothing of the last close against the one before it.
+public class ExponentialSmoothingModel implements PredictionModel {
+    private static final double DEFAULT_ALPHA = 0.3; // Smoothing factor
+
+    private final double alpha;
+    private double lastValue;
+    private double previousValue;
+
+    public ExponentialSmoothingModel() {
+        this(DEFAULT_ALPHA);
+    }
+
+    public ExponentialSmoothingModel(double alpha) {
+        this.alpha = alpha;
+    }
+
+    @Override
+    public int window() {
+        return 2;
+    }
+
+    @Override
+    public void fit(double[] series) {
+        lastValue = series[series.length - 1];
+        previousValue = series[series.length - 2];
+    }
+
+    @Override
+    public void forecast(int horizon, double[] out) {
+        double value = lastValue;
+        for (int i = 0; i < horizon; i++) {
+            value = alpha * value + (1 - alpha) * previousValue;
+            out[i] = value;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package managers;
+
+// A technical indicator fed one daily bar at a time (oldest first), keeping a constant amount of state.
+public interface Indicator {
+    // Names of the values produced for every bar, e.g. {"macd_12_26", "signal_9", "histogram"}
+    String[] outputs();
+
+    // Consume the next bar and write the current values into out[offset .. offset + outputs().length - 1];
+    // NaN until the indicator has seen enough bars
+    void update(double open, double high, double low, double close, long volume, double[] out, int offset);
+
+    // Indicator for a spec such as "sma:20", "ema:50", "rsi:14", "macd:12:26:9", "bollinger:20:2" or "atr:14"
+    // (parameters after the name are optional); null for an unknown name. Throws IllegalArgumentException for a
+    // period below 1 or a MACD fast period that is not shorter than its slow period.
+    static Indicator forSpec(String spec) {
+        String[] parts = spec.trim().toLowerCase().split(":");
+        switch (parts[0]) {
+            case "sma":
+                return new Indicators.SimpleMovingAverage(intParameter(parts, 1, 20));
+            case "ema":
+                return new Indicators.ExponentialMovingAverage(intParameter(parts, 1, 20));
+            case "rsi":
+                return new Indicators.RelativeStrengthIndex(intParameter(parts, 1, 14));
+            case "macd":
+                int fast = intParameter(parts, 1, 12), slow = intParameter(parts, 2, 26);
+                if (fast >= slow) {
+                    throw new IllegalArgumentException("MACD fast period must be shorter than the slow period: "
+                            + spec);
+                }
+                return new Indicators.Macd(fast, slow, intParameter(parts, 3, 9));
+            case "bollinger":
+                return new Indicators.BollingerBands(intParameter(parts, 1, 20),
+                        parts.length > 2 ? Double.parseDouble(parts[2]) : 2);
+            case "atr":
+                return new Indicators.AverageTrueRange(intParameter(parts, 1, 14));
+            default:
+                return null;
+        }
+    }
+
+    private static int intParameter(String[] parts, int index, int defaultValue) {
+        int value = parts.length > index ? Integer.parseInt(parts[index]) : defaultValue;
+        if (value < 1) {
+            throw new IllegalArgumentException("Period must be at least 1: " + String.join(":", parts));
+        }
+        return value;
+    }
+}
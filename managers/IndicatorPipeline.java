@@ -0,0 +1,230 @@
+package managers;
+
+import java.io.*;
+import java.nio.file.*;
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+import java.util.stream.*;
+
+// This class evaluates a set of indicators over price history in a single pass per symbol: every bar is fed to each
+// indicator in turn, and their values are written side by side. Indicators are stateful, so the pipeline holds their
+// specs and builds fresh instances for every symbol; batch runs evaluate the holdings of a portfolio or stock list in
+// parallel after reading all of their bars with one query.
+//
+// Usage: IndicatorPipeline portfolio|list <id> <start YYYY-MM-DD> <end YYYY-MM-DD>
+//        [specs, e.g. sma:20,ema:50,rsi:14,macd:12:26:9,bollinger:20:2,atr:14] [--out file.csv]
+public class IndicatorPipeline {
+    private static final String DEFAULT_SPECS = "sma:20,ema:50,rsi:14,macd:12:26:9,bollinger:20:2,atr:14";
+
+    private final List<String> specs = new ArrayList<>();
+    private final List<String> columns = new ArrayList<>();
+
+    // Indicator values of one symbol: values[c][t] is column c on epochDays[t]
+    public record Result(String symbol, int[] epochDays, List<String> columns, double[][] values) {
+    }
+
+    // Pipeline of comma-separated specs (see Indicator.forSpec)
+    public static IndicatorPipeline of(String specs) {
+        IndicatorPipeline pipeline = new IndicatorPipeline();
+        for (String spec : specs.split(",")) {
+            if (!spec.isBlank()) {
+                pipeline.add(spec);
+            }
+        }
+        return pipeline;
+    }
+
+    public IndicatorPipeline add(String spec) {
+        Indicator indicator = Indicator.forSpec(spec);
+        if (indicator == null) {
+            throw new IllegalArgumentException("Unknown indicator: " + spec);
+        }
+        specs.add(spec);
+        columns.addAll(Arrays.asList(indicator.outputs()));
+        return this;
+    }
+
+    public List<String> columns() {
+        return Collections.unmodifiableList(columns);
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 4 || !(args[0].equals("portfolio") || args[0].equals("list"))) {
+            System.out.println("Usage: IndicatorPipeline portfolio|list <id> <start YYYY-MM-DD> <end YYYY-MM-DD>"
+                    + " [specs] [--out file.csv]");
+            return;
+        }
+        String specs = DEFAULT_SPECS;
+        Path out = null;
+        for (int a = 4; a < args.length; a++) {
+            if (args[a].equals("--out")) {
+                out = Paths.get(args[++a]);
+            } else {
+                specs = args[a];
+            }
+        }
+        try {
+            IndicatorPipeline pipeline = of(specs);
+            List<String> symbols = StatisticsManager.getHoldingSymbols(Integer.parseInt(args[1]),
+                    args[0].equals("portfolio"));
+            List<Result> results = pipeline.runAll(symbols,
+                    Timestamp.valueOf(LocalDate.parse(args[2]).atStartOfDay()),
+                    Timestamp.valueOf(LocalDate.parse(args[3]).atTime(LocalTime.MAX)));
+            if (out != null) {
+                try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(out))) {
+                    writeCsv(results, writer);
+                }
+                System.out.println("Indicators written to " + out);
+            }
+            printLatest(results, pipeline.columns());
+        } catch (IOException | SQLException | IllegalArgumentException e) {
+            System.err.println("Indicator run failed: " + e.getMessage());
+        } finally {
+            DatabaseConnection.shutdown();
+        }
+    }
+
+    // Values on the last day of each symbol's range
+    public static void printLatest(List<Result> results, List<String> columns) {
+        System.out.print("Symbol\tDate\t\t");
+        for (String column : columns) {
+            System.out.print(column + "\t");
+        }
+        System.out.println();
+        for (Result result : results) {
+            int last = result.epochDays().length - 1;
+            if (last < 0) {
+                System.out.println(result.symbol() + "\tNo price history in range.");
+                continue;
+            }
+            System.out.print(result.symbol() + "\t" + LocalDate.ofEpochDay(result.epochDays()[last]) + "\t");
+            for (double[] column : result.values()) {
+                System.out.printf("%.4f\t", column[last]);
+            }
+            System.out.println();
+        }
+    }
+
+    public static void writeCsv(List<Result> results, PrintWriter writer) {
+        if (results.isEmpty()) {
+            return;
+        }
+        writer.print("symbol,date");
+        for (String column : results.get(0).columns()) {
+            writer.print("," + column);
+        }
+        writer.println();
+        for (Result result : results) {
+            for (int t = 0; t < result.epochDays().length; t++) {
+                writer.print(result.symbol() + "," + LocalDate.ofEpochDay(result.epochDays()[t]));
+                for (double[] column : result.values()) {
+                    writer.printf(",%.6f", column[t]);
+                }
+                writer.println();
+            }
+        }
+        writer.flush();
+    }
+
+    // Evaluate the pipeline over rows [from, to) of one symbol's history
+    public Result run(String symbol, PriceHistoryCache.SymbolHistory history, int from, int to) {
+        Indicator[] indicators = new Indicator[specs.size()];
+        // outputs() may build its array on every call, so the widths are read once
+        int[] widths = new int[indicators.length];
+        for (int i = 0; i < indicators.length; i++) {
+            indicators[i] = Indicator.forSpec(specs.get(i));
+            widths[i] = indicators[i].outputs().length;
+        }
+        int n = to - from;
+        int width = columns.size();
+        double[][] values = new double[width][n];
+        double[] row = new double[width];
+        int[] epochDays = new int[n];
+        for (int t = 0; t < n; t++) {
+            int k = from + t;
+            double open = history.open(k), high = history.high(k), low = history.low(k), close = history.close(k);
+            long volume = history.volume(k);
+            int offset = 0;
+            for (int i = 0; i < indicators.length; i++) {
+                indicators[i].update(open, high, low, close, volume, row, offset);
+                offset += widths[i];
+            }
+            for (int c = 0; c < width; c++) {
+                values[c][t] = row[c];
+            }
+            epochDays[t] = history.epochDay(k);
+        }
+        return new Result(symbol, epochDays, columns(), values);
+    }
+
+    // Evaluate the pipeline for every symbol over [start, end], in parallel, in the order of symbols
+    public List<Result> runAll(List<String> symbols, Timestamp start, Timestamp end) throws SQLException {
+        int firstDay = PriceHistoryCache.firstEpochDay(start);
+        int lastDay = PriceHistoryCache.lastEpochDay(end);
+        PriceHistoryCache.SymbolHistory[] histories = loadHistories(symbols, start, end);
+        Result[] results = new Result[symbols.size()];
+        IntStream.range(0, symbols.size()).parallel().forEach(i -> {
+            PriceHistoryCache.SymbolHistory history = histories[i];
+            int from = history.lowerBound(firstDay);
+            int to = history.upperBound(lastDay);
+            results[i] = run(symbols.get(i), history, from, to);
+        });
+        return Arrays.asList(results);
+    }
+
+    // Bars of every symbol, from the history cache or with one query ordered by symbol and date
+    private static PriceHistoryCache.SymbolHistory[] loadHistories(List<String> symbols, Timestamp start,
+                                                                   Timestamp end) throws SQLException {
+        PriceHistoryCache.SymbolHistory[] histories = new PriceHistoryCache.SymbolHistory[symbols.size()];
+        if (PriceHistoryCache.isEnabled()) {
+            for (int i = 0; i < symbols.size(); i++) {
+                histories[i] = PriceHistoryCache.get(symbols.get(i));
+            }
+            return histories;
+        }
+
+        String sql = """
+                SELECT symbol, timestamp, open, high, low, close, volume
+                FROM StockHistory
+                WHERE symbol = ANY(?) AND timestamp BETWEEN ? AND ?
+                ORDER BY symbol, timestamp
+                """;
+        int[] positions = SymbolDictionary.positions(symbols);
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            // A fetch size only streams rows when autocommit is off
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setArray(1, conn.createArrayOf("varchar", symbols.toArray()));
+                stmt.setTimestamp(2, start);
+                stmt.setTimestamp(3, end);
+                stmt.setFetchSize(50_000);
+                ResultSet rs = stmt.executeQuery();
+
+                PriceHistoryCache.Builder builder = null;
+                String currentSymbol = null;
+                while (rs.next()) {
+                    String symbol = rs.getString("symbol");
+                    if (!symbol.equals(currentSymbol)) {
+                        if (builder != null) {
+                            histories[SymbolDictionary.position(positions, currentSymbol)] = builder.build();
+                        }
+                        currentSymbol = symbol;
+                        builder = new PriceHistoryCache.Builder();
+                    }
+                    builder.add(rs);
+                }
+                if (builder != null) {
+                    histories[SymbolDictionary.position(positions, currentSymbol)] = builder.build();
+                }
+            }
+            conn.commit();
+        }
+        for (int i = 0; i < histories.length; i++) {
+            if (histories[i] == null) {
+                histories[i] = new PriceHistoryCache.Builder().build();
+            }
+        }
+        return histories;
+    }
+}
@@ -0,0 +1,246 @@
+package managers;
+
+// Streaming implementations of the common technical indicators. Each keeps O(period) state at most, so any number of
+// them can share one pass over a price series.
+public final class Indicators {
+    private Indicators() {
+    }
+
+    // Mean of the last period closes
+    public static final class SimpleMovingAverage implements Indicator {
+        private final int period;
+        private final double[] window;
+        private final RollingStatistics.CompensatedSum sum = new RollingStatistics.CompensatedSum();
+        private int count;
+
+        public SimpleMovingAverage(int period) {
+            this.period = period;
+            this.window = new double[period];
+        }
+
+        @Override
+        public String[] outputs() {
+            return new String[]{"sma_" + period};
+        }
+
+        @Override
+        public void update(double open, double high, double low, double close, long volume, double[] out,
+                           int offset) {
+            int slot = count % period;
+            if (count >= period) {
+                sum.add(-window[slot]);
+            }
+            window[slot] = close;
+            sum.add(close);
+            count++;
+            out[offset] = count >= period ? sum.value() / period : Double.NaN;
+        }
+    }
+
+    // Exponential moving average with alpha = 2 / (period + 1), seeded with the mean of the first period values
+    public static final class ExponentialMovingAverage implements Indicator {
+        private final int period;
+        private final double alpha;
+        private double value;
+        private double seedSum;
+        private int count;
+
+        public ExponentialMovingAverage(int period) {
+            this.period = period;
+            this.alpha = 2.0 / (period + 1);
+        }
+
+        @Override
+        public String[] outputs() {
+            return new String[]{"ema_" + period};
+        }
+
+        @Override
+        public void update(double open, double high, double low, double close, long volume, double[] out,
+                           int offset) {
+            out[offset] = next(close);
+        }
+
+        // Feed one value; returns the average, NaN until period values were seen
+        double next(double x) {
+            count++;
+            if (count < period) {
+                seedSum += x;
+                return Double.NaN;
+            }
+            if (count == period) {
+                value = (seedSum + x) / period;
+            } else {
+                value += alpha * (x - value);
+            }
+            return value;
+        }
+    }
+
+    // Wilder's relative strength index: 100 - 100 / (1 + average gain / average loss) over period changes
+    public static final class RelativeStrengthIndex implements Indicator {
+        private final int period;
+        private double previousClose = Double.NaN;
+        private double averageGain;
+        private double averageLoss;
+        private int changes;
+
+        public RelativeStrengthIndex(int period) {
+            this.period = period;
+        }
+
+        @Override
+        public String[] outputs() {
+            return new String[]{"rsi_" + period};
+        }
+
+        @Override
+        public void update(double open, double high, double low, double close, long volume, double[] out,
+                           int offset) {
+            if (Double.isNaN(previousClose)) {
+                previousClose = close;
+                out[offset] = Double.NaN;
+                return;
+            }
+            double change = close - previousClose;
+            previousClose = close;
+            double gain = Math.max(change, 0);
+            double loss = Math.max(-change, 0);
+            changes++;
+            if (changes <= period) {
+                // The first averages are plain means of the first period changes
+                averageGain += gain / period;
+                averageLoss += loss / period;
+                if (changes < period) {
+                    out[offset] = Double.NaN;
+                    return;
+                }
+            } else {
+                averageGain = (averageGain * (period - 1) + gain) / period;
+                averageLoss = (averageLoss * (period - 1) + loss) / period;
+            }
+            out[offset] = averageLoss == 0 ? 100 : 100 - 100 / (1 + averageGain / averageLoss);
+        }
+    }
+
+    // MACD line (fast EMA - slow EMA), its signal EMA, and their difference
+    public static final class Macd implements Indicator {
+        private final int fastPeriod;
+        private final int slowPeriod;
+        private final int signalPeriod;
+        private final ExponentialMovingAverage fast;
+        private final ExponentialMovingAverage slow;
+        private final ExponentialMovingAverage signal;
+
+        public Macd(int fastPeriod, int slowPeriod, int signalPeriod) {
+            this.fastPeriod = fastPeriod;
+            this.slowPeriod = slowPeriod;
+            this.signalPeriod = signalPeriod;
+            fast = new ExponentialMovingAverage(fastPeriod);
+            slow = new ExponentialMovingAverage(slowPeriod);
+            signal = new ExponentialMovingAverage(signalPeriod);
+        }
+
+        @Override
+        public String[] outputs() {
+            return new String[]{"macd_" + fastPeriod + "_" + slowPeriod, "macd_signal_" + signalPeriod,
+                    "macd_histogram"};
+        }
+
+        @Override
+        public void update(double open, double high, double low, double close, long volume, double[] out,
+                           int offset) {
+            double macd = fast.next(close) - slow.next(close);
+            // The signal line starts once the MACD line exists
+            double signalValue = Double.isNaN(macd) ? Double.NaN : signal.next(macd);
+            out[offset] = macd;
+            out[offset + 1] = signalValue;
+            out[offset + 2] = macd - signalValue;
+        }
+    }
+
+    // Middle band = SMA of the last period closes, upper / lower = middle +- width population standard deviations
+    public static final class BollingerBands implements Indicator {
+        private final int period;
+        private final double width;
+        private final double[] window;
+        private final RollingStatistics.CompensatedSum sum = new RollingStatistics.CompensatedSum();
+        private final RollingStatistics.CompensatedSum sumSquares = new RollingStatistics.CompensatedSum();
+        private double shift = Double.NaN;
+        private int count;
+
+        public BollingerBands(int period, double width) {
+            this.period = period;
+            this.width = width;
+            this.window = new double[period];
+        }
+
+        @Override
+        public String[] outputs() {
+            return new String[]{"bollinger_lower_" + period, "bollinger_middle_" + period,
+                    "bollinger_upper_" + period};
+        }
+
+        @Override
+        public void update(double open, double high, double low, double close, long volume, double[] out,
+                           int offset) {
+            // Summed around the first close so the variance does not cancel out for high prices
+            if (Double.isNaN(shift)) {
+                shift = close;
+            }
+            double d = close - shift;
+            int slot = count % period;
+            if (count >= period) {
+                double old = window[slot];
+                sum.add(-old);
+                sumSquares.add(-old * old);
+            }
+            window[slot] = d;
+            sum.add(d);
+            sumSquares.add(d * d);
+            count++;
+            if (count < period) {
+                out[offset] = out[offset + 1] = out[offset + 2] = Double.NaN;
+                return;
+            }
+            double mean = sum.value() / period;
+            double deviation = Math.sqrt(Math.max(0, sumSquares.value() / period - mean * mean));
+            out[offset] = shift + mean - width * deviation;
+            out[offset + 1] = shift + mean;
+            out[offset + 2] = shift + mean + width * deviation;
+        }
+    }
+
+    // Wilder's average true range, where true range = max(high, previous close) - min(low, previous close)
+    public static final class AverageTrueRange implements Indicator {
+        private final int period;
+        private double previousClose = Double.NaN;
+        private double average;
+        private int count;
+
+        public AverageTrueRange(int period) {
+            this.period = period;
+        }
+
+        @Override
+        public String[] outputs() {
+            return new String[]{"atr_" + period};
+        }
+
+        @Override
+        public void update(double open, double high, double low, double close, long volume, double[] out,
+                           int offset) {
+            double trueRange = Double.isNaN(previousClose) ? high - low
+                    : Math.max(high, previousClose) - Math.min(low, previousClose);
+            previousClose = close;
+            count++;
+            if (count <= period) {
+                average += trueRange / period;
+                out[offset] = count < period ? Double.NaN : average;
+            } else {
+                average = (average * (period - 1) + trueRange) / period;
+                out[offset] = average;
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package managers;
+
+// Ordinary least squares trend line through the whole series, with x = 1 .. n.
+public class LinearRegressionModel implements PredictionModel {
+    private double slope;
+    private double intercept;
+    private int n;
+
+    @Override
+    public int window() {
+        return 0;
+    }
+
+    @Override
+    public void fit(double[] series) {
+        n = series.length;
+        double[] line = new double[2];
+        NumericKernels.linearTrend(series, line);
+        slope = line[0];
+        intercept = line[1];
+    }
+
+    @Override
+    public void forecast(int horizon, double[] out) {
+        for (int i = 1; i <= horizon; i++) {
+            int futureX = n + i;
+            out[i - 1] = slope * futureX + intercept;
+        }
+    }
+}
@@ -0,0 +1,408 @@
+package managers;
+
+import java.math.*;
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// This class marks holdings to market after new prices are ingested. An inverted index from symbol to holders finds
+// the portfolios and stock lists with a position in one of the changed stocks, so only those are valued: their
+// holdings are priced at the closes of the ingested date, and PortfolioValue / StockListValue rows are written with
+// batched upserts. The first run for a date also carries every other holder's latest value forward to it, so each
+// holder has one row per market day. The index is kept between runs and rebuilt when the HoldingsVersion counter of
+// its holdings table, read in the run's snapshot, has moved, so trades made by other processes or directly in SQL
+// are never missed. Cash is read at write time, so deposits and withdrawals do not invalidate it.
+//
+// Usage: MarkToMarket <date YYYY-MM-DD> [symbol ...]   (no symbols: every held stock)
+public class MarkToMarket {
+    private static final int BATCH_SIZE = 5000;
+
+    // Cached holdings and the HoldingsVersion they were read at
+    private record CachedIndex(long version, HolderIndex index) {
+    }
+
+    // Keyed by holdings table, as named in HoldingsVersion
+    private static final Map<String, CachedIndex> indexes = new ConcurrentHashMap<>();
+    // Latest date whose untouched holders were carried forward
+    private static LocalDate carriedDate;
+
+    // Outcome of a run; carried counts the untouched holders whose previous value was copied to date
+    public record Result(LocalDate date, int portfolios, int stockLists, int carried, double seconds) {
+        public double portfoliosPerSecond() {
+            return seconds == 0 ? 0 : (portfolios + stockLists) / seconds;
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.out.println("Usage: MarkToMarket <date YYYY-MM-DD> [symbol ...]");
+            return;
+        }
+        try {
+            List<String> symbols = Arrays.asList(args).subList(1, args.length);
+            report(run(symbols.isEmpty() ? null : symbols, LocalDate.parse(args[0])));
+        } catch (SQLException e) {
+            System.err.println("Mark to market failed: " + e.getMessage());
+        } finally {
+            DatabaseConnection.shutdown();
+        }
+    }
+
+    // Run after bars of symbols were written for dates up to date; failures are reported, not thrown, so they
+    // never undo the ingestion itself
+    public static void afterIngest(Collection<String> symbols, LocalDate date) {
+        try {
+            report(run(symbols, date));
+        } catch (SQLException e) {
+            System.err.println("Mark to market failed: " + e.getMessage());
+        }
+    }
+
+    private static void report(Result result) {
+        if (result == null) {
+            return;
+        }
+        System.out.printf("Marked %d portfolios and %d stock lists to market on %s in %.3fs (%,.0f portfolios/sec)%n",
+                result.portfolios(), result.stockLists(), result.date(), result.seconds(),
+                result.portfoliosPerSecond());
+        if (result.carried() > 0) {
+            System.out.printf("Carried %d unchanged holders forward to %s%n", result.carried(), result.date());
+        }
+    }
+
+    // Value every portfolio and stock list holding one of symbols (every holder if null) at the closes of date.
+    // Returns null without writing anything if values were already recorded for a later date: those were taken with
+    // the holdings of their time, which the current holdings cannot reproduce.
+    public static Result run(Collection<String> symbols, LocalDate date) throws SQLException {
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            // Holdings versions, cash and prices (and the holdings, if an index is reloaded) are read from one snapshot
+            // and the values written atomically
+            conn.setAutoCommit(false);
+            conn.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            try {
+                if (hasLaterValues(conn, date)) {
+                    System.out.println("Values after " + date + " are already recorded. Nothing was marked.");
+                    conn.rollback();
+                    return null;
+                }
+                HolderIndex[] indexes = holderIndexes(conn);
+                HolderIndex portfolios = indexes[0];
+                HolderIndex stockLists = indexes[1];
+                int[] touchedPortfolios = portfolios.holdersOf(symbols);
+                int[] touchedLists = stockLists.holdersOf(symbols);
+
+                long[] prices = loadPrices(conn, date, portfolios, touchedPortfolios, stockLists, touchedLists);
+                writeValues(conn, date, portfolios, touchedPortfolios, prices, """
+                        INSERT INTO PortfolioValue AS pv (portfolio_id, date, cash, market_value)
+                        SELECT v.holder_id, ?, p.cash_balance, v.market_value
+                        FROM UNNEST(?::integer[], ?::numeric[]) AS v(holder_id, market_value)
+                        JOIN Portfolio p ON p.portfolio_id = v.holder_id
+                        ON CONFLICT (portfolio_id, date) DO UPDATE
+                        SET cash = EXCLUDED.cash, market_value = EXCLUDED.market_value
+                        """);
+                writeValues(conn, date, stockLists, touchedLists, prices, """
+                        INSERT INTO StockListValue AS lv (list_id, date, market_value)
+                        SELECT v.holder_id, ?, v.market_value
+                        FROM UNNEST(?::integer[], ?::numeric[]) AS v(holder_id, market_value)
+                        JOIN StockList sl ON sl.list_id = v.holder_id
+                        ON CONFLICT (list_id, date) DO UPDATE
+                        SET market_value = EXCLUDED.market_value
+                        """);
+                boolean carry = !date.equals(carriedDate(null));
+                int carried = carry ? carryForward(conn, date) : 0;
+                conn.commit();
+                if (carry) {
+                    carriedDate(date);
+                }
+                return new Result(date, touchedPortfolios.length, touchedLists.length, carried,
+                        (System.nanoTime() - start) / 1e9);
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                // The connection goes back to the pool with its default session settings
+                conn.setAutoCommit(true);
+                conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+            }
+        }
+    }
+
+    // The portfolio and stock list indexes as of conn's snapshot: the cached ones if their holdings table has not
+    // changed since they were read, otherwise reloaded. Databases without HoldingsVersion reload them every run.
+    private static HolderIndex[] holderIndexes(Connection conn) throws SQLException {
+        Map<String, Long> versions = holdingsVersions(conn);
+        return new HolderIndex[]{
+                holderIndex(conn, "portfolioholding", versions, """
+                        SELECT portfolio_id AS holder_id, symbol, shares
+                        FROM PortfolioHolding
+                        ORDER BY portfolio_id
+                        """),
+                holderIndex(conn, "stocklistholding", versions, """
+                        SELECT list_id AS holder_id, symbol, shares
+                        FROM StockListHolding
+                        ORDER BY list_id
+                        """)
+        };
+    }
+
+    private static HolderIndex holderIndex(Connection conn, String holdings, Map<String, Long> versions, String sql)
+            throws SQLException {
+        Long version = versions.get(holdings);
+        CachedIndex cached = indexes.get(holdings);
+        if (cached != null && version != null && cached.version() == version) {
+            return cached.index();
+        }
+        HolderIndex index = HolderIndex.load(conn, sql);
+        if (version != null) {
+            // A concurrent run may already have cached a newer version
+            indexes.merge(holdings, new CachedIndex(version, index),
+                    (current, loaded) -> current.version() > loaded.version() ? current : loaded);
+        }
+        return index;
+    }
+
+    private static Map<String, Long> holdingsVersions(Connection conn) throws SQLException {
+        Map<String, Long> versions = new HashMap<>();
+        try (Statement stmt = conn.createStatement()) {
+            ResultSet exists = stmt.executeQuery("SELECT to_regclass('holdingsversion') IS NOT NULL");
+            if (!exists.next() || !exists.getBoolean(1)) {
+                return versions;
+            }
+            ResultSet rs = stmt.executeQuery("SELECT holdings, version FROM HoldingsVersion");
+            while (rs.next()) {
+                versions.put(rs.getString("holdings"), rs.getLong("version"));
+            }
+        }
+        return versions;
+    }
+
+    // Get the last carried date, or set it if date is not null
+    private static synchronized LocalDate carriedDate(LocalDate date) {
+        if (date != null) {
+            carriedDate = date;
+        }
+        return carriedDate;
+    }
+
+    // Copy the latest earlier value of every holder without a row on date to date, with the portfolio's current cash.
+    // None of its stocks has a newer bar, or it would have been touched, so its market value is unchanged. Holders
+    // without any earlier value are left to the nightly revaluation. Returns the number of rows written.
+    private static int carryForward(Connection conn, LocalDate date) throws SQLException {
+        String portfolioSql = """
+                INSERT INTO PortfolioValue (portfolio_id, date, cash, market_value)
+                SELECT p.portfolio_id, ?, p.cash_balance, last.market_value
+                FROM Portfolio p
+                CROSS JOIN LATERAL (
+                    SELECT pv.market_value
+                    FROM PortfolioValue pv
+                    WHERE pv.portfolio_id = p.portfolio_id AND pv.date < ?
+                    ORDER BY pv.date DESC
+                    LIMIT 1
+                ) last
+                ON CONFLICT (portfolio_id, date) DO NOTHING
+                """;
+        String stockListSql = """
+                INSERT INTO StockListValue (list_id, date, market_value)
+                SELECT sl.list_id, ?, last.market_value
+                FROM StockList sl
+                CROSS JOIN LATERAL (
+                    SELECT lv.market_value
+                    FROM StockListValue lv
+                    WHERE lv.list_id = sl.list_id AND lv.date < ?
+                    ORDER BY lv.date DESC
+                    LIMIT 1
+                ) last
+                ON CONFLICT (list_id, date) DO NOTHING
+                """;
+        int rows = 0;
+        for (String sql : List.of(portfolioSql, stockListSql)) {
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setDate(1, java.sql.Date.valueOf(date));
+                stmt.setDate(2, java.sql.Date.valueOf(date));
+                rows += stmt.executeUpdate();
+            }
+        }
+        return rows;
+    }
+
+    private static boolean hasLaterValues(Connection conn, LocalDate date) throws SQLException {
+        String sql = """
+                SELECT EXISTS (SELECT 1 FROM PortfolioValue WHERE date > ?)
+                    OR EXISTS (SELECT 1 FROM StockListValue WHERE date > ?)
+                """;
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setDate(1, java.sql.Date.valueOf(date));
+            stmt.setDate(2, java.sql.Date.valueOf(date));
+            ResultSet rs = stmt.executeQuery();
+            return rs.next() && rs.getBoolean(1);
+        }
+    }
+
+    // Close in cents on or before date of every stock held by a touched holder, indexed by SymbolDictionary id
+    // (0 for stocks without one)
+    private static long[] loadPrices(Connection conn, LocalDate date, HolderIndex portfolios, int[] touchedPortfolios,
+                                     HolderIndex stockLists, int[] touchedLists) throws SQLException {
+        Set<String> held = new HashSet<>();
+        portfolios.collectSymbols(touchedPortfolios, held);
+        stockLists.collectSymbols(touchedLists, held);
+        long[] prices = new long[SymbolDictionary.size()];
+        if (held.isEmpty()) {
+            return prices;
+        }
+        String sql = """
+                SELECT s.symbol, px.close
+                FROM UNNEST(?::varchar[]) AS s(symbol)
+                CROSS JOIN LATERAL (
+                    SELECT sh.close
+                    FROM StockHistory sh
+                    WHERE sh.symbol = s.symbol AND sh.timestamp <= ?
+                    ORDER BY sh.timestamp DESC
+                    LIMIT 1
+                ) px
+                """;
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setArray(1, conn.createArrayOf("varchar", held.toArray()));
+            stmt.setDate(2, java.sql.Date.valueOf(date));
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                prices[SymbolDictionary.id(rs.getString("symbol"))] =
+                        rs.getBigDecimal("close").movePointRight(2).longValueExact();
+            }
+        }
+        return prices;
+    }
+
+    // Upsert the values of the touched holders in batches of BATCH_SIZE rows
+    private static void writeValues(Connection conn, LocalDate date, HolderIndex index, int[] touched, long[] prices,
+                                    String sql) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (int from = 0; from < touched.length; from += BATCH_SIZE) {
+                int n = Math.min(BATCH_SIZE, touched.length - from);
+                Integer[] ids = new Integer[n];
+                BigDecimal[] marketValues = new BigDecimal[n];
+                for (int k = 0; k < n; k++) {
+                    int h = touched[from + k];
+                    ids[k] = index.holderIds[h];
+                    marketValues[k] = BigDecimal.valueOf(index.marketValueCents(h, prices), 2);
+                }
+                stmt.setDate(1, java.sql.Date.valueOf(date));
+                stmt.setArray(2, conn.createArrayOf("integer", ids));
+                stmt.setArray(3, conn.createArrayOf("numeric", marketValues));
+                stmt.executeUpdate();
+            }
+        }
+    }
+
+    // Holdings of every portfolio or stock list, as holder h owning shares[k] of symbolIds[k] for k in
+    // [start[h], start[h + 1]), and for each symbol id the holders with a position in it
+    static final class HolderIndex {
+        final int[] holderIds;
+        final int[] start;
+        final int[] symbolIds;
+        final int[] shares;
+        final int[][] holdersBySymbol;
+
+        HolderIndex(int[] holderIds, int[] start, int[] symbolIds, int[] shares) {
+            this.holderIds = holderIds;
+            this.start = start;
+            this.symbolIds = symbolIds;
+            this.shares = shares;
+
+            // Counting pass, then fill: holders of each symbol come out in holder order
+            int[] counts = new int[SymbolDictionary.size()];
+            for (int symbolId : symbolIds) {
+                counts[symbolId]++;
+            }
+            holdersBySymbol = new int[counts.length][];
+            for (int s = 0; s < counts.length; s++) {
+                holdersBySymbol[s] = new int[counts[s]];
+                counts[s] = 0;
+            }
+            for (int h = 0; h < holderIds.length; h++) {
+                for (int k = start[h]; k < start[h + 1]; k++) {
+                    holdersBySymbol[symbolIds[k]][counts[symbolIds[k]]++] = h;
+                }
+            }
+        }
+
+        // Rows must be ordered by holder_id
+        static HolderIndex load(Connection conn, String sql) throws SQLException {
+            int[] holderIds = new int[64], start = new int[65], symbolIds = new int[256], shares = new int[256];
+            int holders = 0, holdings = 0;
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setFetchSize(50_000);
+                ResultSet rs = stmt.executeQuery();
+                while (rs.next()) {
+                    int holderId = rs.getInt("holder_id");
+                    if (holders == 0 || holderIds[holders - 1] != holderId) {
+                        if (holders == holderIds.length) {
+                            holderIds = Arrays.copyOf(holderIds, holders * 2);
+                            start = Arrays.copyOf(start, holders * 2 + 1);
+                        }
+                        holderIds[holders] = holderId;
+                        start[holders] = holdings;
+                        holders++;
+                    }
+                    if (holdings == symbolIds.length) {
+                        symbolIds = Arrays.copyOf(symbolIds, holdings * 2);
+                        shares = Arrays.copyOf(shares, holdings * 2);
+                    }
+                    symbolIds[holdings] = SymbolDictionary.intern(rs.getString("symbol"));
+                    shares[holdings] = rs.getInt("shares");
+                    holdings++;
+                }
+            }
+            start[holders] = holdings;
+            return new HolderIndex(Arrays.copyOf(holderIds, holders), Arrays.copyOf(start, holders + 1),
+                    Arrays.copyOf(symbolIds, holdings), Arrays.copyOf(shares, holdings));
+        }
+
+        // Holders with a position in any of symbols (every holder if null), in holder order
+        int[] holdersOf(Collection<String> symbols) {
+            if (symbols == null) {
+                int[] all = new int[holderIds.length];
+                Arrays.setAll(all, h -> h);
+                return all;
+            }
+            boolean[] touched = new boolean[holderIds.length];
+            int count = 0;
+            for (String symbol : symbols) {
+                int id = SymbolDictionary.id(symbol);
+                if (id < 0 || id >= holdersBySymbol.length) {
+                    continue;
+                }
+                for (int h : holdersBySymbol[id]) {
+                    if (!touched[h]) {
+                        touched[h] = true;
+                        count++;
+                    }
+                }
+            }
+            int[] result = new int[count];
+            for (int h = 0, k = 0; h < touched.length; h++) {
+                if (touched[h]) {
+                    result[k++] = h;
+                }
+            }
+            return result;
+        }
+
+        void collectSymbols(int[] holders, Set<String> out) {
+            for (int h : holders) {
+                for (int k = start[h]; k < start[h + 1]; k++) {
+                    out.add(SymbolDictionary.symbol(symbolIds[k]));
+                }
+            }
+        }
+
+        long marketValueCents(int h, long[] prices) {
+            long value = 0;
+            for (int k = start[h]; k < start[h + 1]; k++) {
+                value += shares[k] * (symbolIds[k] < prices.length ? prices[symbolIds[k]] : 0);
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package managers;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+
+// This class maintains precomputed daily returns (DailyReturn) and an S&P 500-wide market return series
+// (MarketReturn) built from the constituents.csv symbols, and computes betas against that market.
+// Once the tables are built, beta for any set of holdings is an aligned dot product in memory
+// instead of a window-function scan over StockHistory.
+public class MarketReturns {
+    private static final String CONSTITUENTS_FILE = "constituents.csv";
+
+    // Market series currently held in memory, loaded on first use
+    private static volatile MarketSeries market;
+
+    // Number of running sums kept per symbol by accumulateBetaSums
+    static final int BETA_SUMS = 5;
+
+    // Betas of a set of symbols against the equal-weighted and the cap-weighted market, NaN where undefined.
+    // The cap weight of a symbol is its previous day's traded value (close x volume), as a stand-in for
+    // market capitalization, which StockHistory does not carry.
+    public record Betas(double[] equalWeighted, double[] capWeighted) {
+    }
+
+    // Market returns ordered by date
+    record MarketSeries(int[] epochDays, double[] equalWeighted, double[] capWeighted) {
+    }
+
+    // Daily returns of one symbol ordered by date
+    record ReturnSeries(int[] epochDays, double[] returns) {
+    }
+
+    // Rebuild both tables from scratch. Usage: MarketReturns [constituents.csv]
+    public static void main(String[] args) {
+        try {
+            long start = System.nanoTime();
+            rebuild(readConstituents(Paths.get(args.length > 0 ? args[0] : CONSTITUENTS_FILE)));
+            System.out.printf("Rebuilt daily and market returns in %.2fs%n", (System.nanoTime() - start) / 1e9);
+        } catch (IOException | SQLException e) {
+            System.err.println("Rebuilding market returns failed: " + e.getMessage());
+        } finally {
+            DatabaseConnection.shutdown();
+        }
+    }
+
+    // Recompute every daily return and the market series of the given constituents
+    public static void rebuild(List<String> constituents) throws SQLException {
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("TRUNCATE DailyReturn, MarketReturn");
+            }
+            insertDailyReturns(conn, null);
+            insertMarketReturns(conn, constituents, null);
+            conn.commit();
+        }
+        market = null;
+        StatisticsCache.clear();
+    }
+
+    // Recompute returns on or after the given date, e.g. after new bars were added to StockHistory.
+    // Does nothing until the tables have been built with rebuild: rows for recent days alone would make betas use
+    // the tables instead of falling back to the dynamic computation, and earlier windows would have no returns.
+    public static void refresh(LocalDate from) {
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            try (Statement stmt = conn.createStatement()) {
+                ResultSet rs = stmt.executeQuery("SELECT EXISTS (SELECT 1 FROM MarketReturn)");
+                if (!rs.next() || !rs.getBoolean(1)) {
+                    return;
+                }
+            }
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM DailyReturn WHERE timestamp >= ?")) {
+                stmt.setDate(1, java.sql.Date.valueOf(from));
+                stmt.executeUpdate();
+            }
+            try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM MarketReturn WHERE timestamp >= ?")) {
+                stmt.setDate(1, java.sql.Date.valueOf(from));
+                stmt.executeUpdate();
+            }
+            insertDailyReturns(conn, from);
+            insertMarketReturns(conn, readConstituents(Paths.get(CONSTITUENTS_FILE)), from);
+            conn.commit();
+        } catch (IOException | SQLException e) {
+            System.err.println("Error refreshing market returns: " + e.getMessage());
+        }
+        market = null;
+    }
+
+    // Insert returns for rows on or after from (all rows if from is null)
+    private static void insertDailyReturns(Connection conn, LocalDate from) throws SQLException {
+        // The previous close of each symbol's first refreshed day lies before from, however long ago it traded,
+        // so the last bar before from seeds the window of each symbol
+        String sql = """
+                WITH recent AS (
+                    SELECT symbol, timestamp, close, volume
+                    FROM StockHistory
+                    WHERE timestamp >= ?
+                )
+                INSERT INTO DailyReturn (symbol, timestamp, daily_return, weight)
+                SELECT symbol, timestamp, (close - prev_close) / prev_close, prev_close * prev_volume
+                FROM (
+                    SELECT symbol, timestamp, close,
+                           LAG(close) OVER w AS prev_close,
+                           LAG(volume) OVER w AS prev_volume
+                    FROM (
+                        SELECT symbol, timestamp, close, volume FROM recent
+                        UNION ALL
+                        SELECT previous.*
+                        FROM (SELECT DISTINCT symbol FROM recent) s
+                        CROSS JOIN LATERAL (
+                            SELECT h.symbol, h.timestamp, h.close, h.volume
+                            FROM StockHistory h
+                            WHERE h.symbol = s.symbol AND h.timestamp < ?
+                            ORDER BY h.timestamp DESC
+                            LIMIT 1
+                        ) previous
+                    ) h
+                    WINDOW w AS (PARTITION BY symbol ORDER BY timestamp)
+                ) r
+                WHERE prev_close > 0 AND close IS NOT NULL AND timestamp >= ?
+                """;
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            java.sql.Date fromDate = java.sql.Date.valueOf(from == null ? LocalDate.of(1900, 1, 1) : from);
+            stmt.setDate(1, fromDate);
+            stmt.setDate(2, fromDate);
+            stmt.setDate(3, fromDate);
+            stmt.executeUpdate();
+        }
+    }
+
+    private static void insertMarketReturns(Connection conn, List<String> constituents, LocalDate from)
+            throws SQLException {
+        String sql = """
+                INSERT INTO MarketReturn (timestamp, equal_weighted, cap_weighted, constituents)
+                SELECT timestamp,
+                       AVG(daily_return),
+                       COALESCE(SUM(daily_return * weight) / NULLIF(SUM(weight), 0), AVG(daily_return)),
+                       COUNT(*)
+                FROM DailyReturn
+                WHERE symbol = ANY(?) AND timestamp >= ?
+                GROUP BY timestamp
+                """;
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setArray(1, conn.createArrayOf("varchar", constituents.toArray()));
+            stmt.setDate(2, java.sql.Date.valueOf(from == null ? LocalDate.of(1900, 1, 1) : from));
+            stmt.executeUpdate();
+        }
+    }
+
+    // Beta of each symbol against the market over [start, end]; NaN if the symbol and the market share fewer than 2 days.
+    // Returns null if the market series has not been built.
+    public static Betas betas(List<String> symbols, Timestamp start, Timestamp end) throws SQLException {
+        MarketSeries series = getMarket();
+        if (series.epochDays().length == 0) {
+            return null;
+        }
+        int firstDay = PriceHistoryCache.firstEpochDay(start);
+        int lastDay = PriceHistoryCache.lastEpochDay(end);
+        ReturnSeries[] returns = loadReturns(symbols, firstDay, lastDay);
+
+        double[] equalWeighted = new double[symbols.size()];
+        double[] capWeighted = new double[symbols.size()];
+        for (int i = 0; i < symbols.size(); i++) {
+            ReturnSeries symbolReturns = returns[i];
+            equalWeighted[i] = symbolReturns == null ? Double.NaN
+                    : beta(symbolReturns, series.epochDays(), series.equalWeighted());
+            capWeighted[i] = symbolReturns == null ? Double.NaN
+                    : beta(symbolReturns, series.epochDays(), series.capWeighted());
+        }
+        return new Betas(equalWeighted, capWeighted);
+    }
+
+    // Covariance of stock and market returns over their common days divided by the market variance on those days
+    static double beta(ReturnSeries stock, int[] marketDays, double[] marketReturns) {
+        double[] sums = new double[BETA_SUMS];
+        accumulateBetaSums(stock, marketDays, marketReturns, sums);
+        return betaFromSums(sums);
+    }
+
+    // Add {n, sum r, sum m, sum r*m, sum m*m} over the days on which the stock and the market both have a return
+    static void accumulateBetaSums(ReturnSeries stock, int[] marketDays, double[] marketReturns, double[] sums) {
+        int[] days = stock.epochDays();
+        double[] r = stock.returns();
+
+        // Merge join on date: both sides are sorted
+        double sumR = 0, sumM = 0, sumRM = 0, sumMM = 0;
+        int n = 0;
+        int m = Arrays.binarySearch(marketDays, days.length == 0 ? 0 : days[0]);
+        // Usually the stock traded on every market day of its range, so both sides line up index for index.
+        // Matching ends are not enough, as a gap in the stock can offset a day the market lacks, so compare every day.
+        if (m >= 0 && m + days.length <= marketDays.length
+                && Arrays.equals(days, 0, days.length, marketDays, m, m + days.length)) {
+            NumericKernels.crossSums(r, 0, marketReturns, m, days.length, sums);
+            return;
+        }
+        m = m < 0 ? -m - 1 : m;
+        for (int k = 0; k < days.length && m < marketDays.length; k++) {
+            while (m < marketDays.length && marketDays[m] < days[k]) {
+                m++;
+            }
+            if (m < marketDays.length && marketDays[m] == days[k]) {
+                double x = r[k], y = marketReturns[m];
+                sumR += x;
+                sumM += y;
+                sumRM += x * y;
+                sumMM += y * y;
+                n++;
+            }
+        }
+        sums[0] += n;
+        sums[1] += sumR;
+        sums[2] += sumM;
+        sums[3] += sumRM;
+        sums[4] += sumMM;
+    }
+
+    // Beta from the sums of accumulateBetaSums; NaN if there are fewer than 2 common days
+    static double betaFromSums(double[] sums) {
+        double n = sums[0];
+        if (n < 2) {
+            return Double.NaN;
+        }
+        double covariance = sums[3] / n - (sums[1] / n) * (sums[2] / n);
+        double variance = sums[4] / n - (sums[2] / n) * (sums[2] / n);
+        return variance == 0 ? Double.NaN : covariance / variance;
+    }
+
+    static MarketSeries getMarket() throws SQLException {
+        MarketSeries current = market;
+        if (current == null) {
+            current = loadMarket();
+            market = current;
+        }
+        return current;
+    }
+
+    private static MarketSeries loadMarket() throws SQLException {
+        String sql = "SELECT timestamp, equal_weighted, cap_weighted FROM MarketReturn ORDER BY timestamp";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setFetchSize(10_000);
+            ResultSet rs = stmt.executeQuery();
+            int[] days = new int[8192];
+            double[] equal = new double[8192];
+            double[] cap = new double[8192];
+            int size = 0;
+            while (rs.next()) {
+                if (size == days.length) {
+                    days = Arrays.copyOf(days, size * 2);
+                    equal = Arrays.copyOf(equal, size * 2);
+                    cap = Arrays.copyOf(cap, size * 2);
+                }
+                days[size] = (int) rs.getDate("timestamp").toLocalDate().toEpochDay();
+                equal[size] = rs.getDouble("equal_weighted");
+                cap[size] = rs.getDouble("cap_weighted");
+                size++;
+            }
+            return new MarketSeries(Arrays.copyOf(days, size), Arrays.copyOf(equal, size), Arrays.copyOf(cap, size));
+        }
+    }
+
+    // Daily returns of the symbols within [firstDay, lastDay], from the history cache if enabled or DailyReturn otherwise.
+    // returns[i] belongs to symbols[i] and is null if it has no returns at all.
+    static ReturnSeries[] loadReturns(List<String> symbols, int firstDay, int lastDay) throws SQLException {
+        ReturnSeries[] returns = new ReturnSeries[symbols.size()];
+        if (PriceHistoryCache.isEnabled()) {
+            for (int s = 0; s < symbols.size(); s++) {
+                PriceHistoryCache.SymbolHistory history = PriceHistoryCache.get(symbols.get(s));
+                // Start one row early so the first day in the window has a previous close
+                int from = Math.max(1, history.lowerBound(firstDay));
+                int to = history.upperBound(lastDay);
+                int n = Math.max(0, to - from);
+                int[] days = new int[n];
+                double[] values = new double[n];
+                int size = 0;
+                for (int i = from; i < to; i++) {
+                    double previous = history.close(i - 1);
+                    if (previous > 0) {
+                        days[size] = history.epochDay(i);
+                        values[size] = (history.close(i) - previous) / previous;
+                        size++;
+                    }
+                }
+                returns[s] = new ReturnSeries(Arrays.copyOf(days, size), Arrays.copyOf(values, size));
+            }
+            return returns;
+        }
+
+        String sql = """
+                SELECT symbol, timestamp, daily_return
+                FROM DailyReturn
+                WHERE symbol = ANY(?) AND timestamp BETWEEN ? AND ?
+                ORDER BY symbol, timestamp
+                """;
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setArray(1, conn.createArrayOf("varchar", symbols.toArray()));
+            stmt.setDate(2, java.sql.Date.valueOf(LocalDate.ofEpochDay(firstDay)));
+            stmt.setDate(3, java.sql.Date.valueOf(LocalDate.ofEpochDay(lastDay)));
+            ResultSet rs = stmt.executeQuery();
+
+            int[] positions = SymbolDictionary.positions(symbols);
+            String currentSymbol = null;
+            int[] days = new int[1024];
+            double[] values = new double[1024];
+            int size = 0;
+            while (rs.next()) {
+                String symbol = rs.getString("symbol");
+                if (!symbol.equals(currentSymbol)) {
+                    if (currentSymbol != null) {
+                        returns[SymbolDictionary.position(positions, currentSymbol)] =
+                                new ReturnSeries(Arrays.copyOf(days, size), Arrays.copyOf(values, size));
+                    }
+                    currentSymbol = symbol;
+                    size = 0;
+                }
+                if (size == days.length) {
+                    days = Arrays.copyOf(days, size * 2);
+                    values = Arrays.copyOf(values, size * 2);
+                }
+                days[size] = (int) rs.getDate("timestamp").toLocalDate().toEpochDay();
+                values[size] = rs.getDouble("daily_return");
+                size++;
+            }
+            if (currentSymbol != null) {
+                returns[SymbolDictionary.position(positions, currentSymbol)] =
+                        new ReturnSeries(Arrays.copyOf(days, size), Arrays.copyOf(values, size));
+            }
+        }
+        return returns;
+    }
+
+    // Symbols listed in constituents.csv (first column, after the header)
+    public static List<String> readConstituents(Path file) throws IOException {
+        List<String> symbols = new ArrayList<>();
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        for (String line : lines.subList(1, lines.size())) {
+            int comma = line.indexOf(',');
+            if (comma > 0) {
+                symbols.add(line.substring(0, comma).trim());
+            }
+        }
+        return symbols;
+    }
+}
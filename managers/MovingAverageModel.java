@@ -0,0 +1,34 @@
+package managers;
+
+import java.util.*;
+
+// Flat forecast at the average of the last windowSize closes.
+public class MovingAverageModel implements PredictionModel {
+    private static final int DEFAULT_WINDOW_SIZE = 10; // 10-day moving average
+
+    private final int windowSize;
+    private double currentAvg;
+
+    public MovingAverageModel() {
+        this(DEFAULT_WINDOW_SIZE);
+    }
+
+    public MovingAverageModel(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    @Override
+    public int window() {
+        return windowSize;
+    }
+
+    @Override
+    public void fit(double[] series) {
+        currentAvg = NumericKernels.sum(series, series.length - windowSize, series.length) / windowSize;
+    }
+
+    @Override
+    public void forecast(int horizon, double[] out) {
+        Arrays.fill(out, 0, horizon, currentAvg);
+    }
+}
@@ -0,0 +1,269 @@
+package managers;
+
+import java.nio.*;
+
+// This class holds the inner loops of the statistics and prediction code: sums, dot products, NaN-masked pair sums
+// and least squares trend fits over double[] and PriceMatrix rows.
+// Each loop keeps several independent accumulators so consecutive iterations do not wait on one another's additions,
+// which lets the CPU overlap them and lets the JIT pack them into vector instructions where it can.
+// With the jdk.incubator.vector module (java --add-modules jdk.incubator.vector) the same loops run on the Vector API
+// versions in VectorKernels instead; -Dkernels.scalar=true keeps the scalar loops below.
+// Results can differ from a single running sum in the last bits, as the additions happen in a different order.
+public final class NumericKernels {
+    static final boolean VECTOR = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+            && !Boolean.getBoolean("kernels.scalar");
+
+    private NumericKernels() {
+    }
+
+    public static double sum(double[] x, int from, int to) {
+        return VECTOR ? VectorKernels.sum(x, from, to) : scalarSum(x, from, to);
+    }
+
+    static double scalarSum(double[] x, int from, int to) {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int t = from;
+        for (; t + 3 < to; t += 4) {
+            s0 += x[t];
+            s1 += x[t + 1];
+            s2 += x[t + 2];
+            s3 += x[t + 3];
+        }
+        for (; t < to; t++) {
+            s0 += x[t];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    public static double sum(DoubleBuffer x) {
+        return VECTOR ? VectorKernels.sum(x) : scalarSum(x);
+    }
+
+    static double scalarSum(DoubleBuffer x) {
+        int n = x.limit();
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int t = 0;
+        for (; t + 3 < n; t += 4) {
+            s0 += x.get(t);
+            s1 += x.get(t + 1);
+            s2 += x.get(t + 2);
+            s3 += x.get(t + 3);
+        }
+        for (; t < n; t++) {
+            s0 += x.get(t);
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    public static double mean(double[] x) {
+        return x.length == 0 ? Double.NaN : sum(x, 0, x.length) / x.length;
+    }
+
+    // Sample variance (n - 1 denominator), two-pass; 0 with fewer than 2 values
+    public static double variance(double[] x) {
+        int n = x.length;
+        if (n < 2) {
+            return 0;
+        }
+        double mean = mean(x);
+        if (VECTOR) {
+            return VectorKernels.variance(x, mean);
+        }
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int t = 0;
+        for (; t + 3 < n; t += 4) {
+            double d0 = x[t] - mean, d1 = x[t + 1] - mean, d2 = x[t + 2] - mean, d3 = x[t + 3] - mean;
+            s0 += d0 * d0;
+            s1 += d1 * d1;
+            s2 += d2 * d2;
+            s3 += d3 * d3;
+        }
+        for (; t < n; t++) {
+            double d = x[t] - mean;
+            s0 += d * d;
+        }
+        return ((s0 + s1) + (s2 + s3)) / (n - 1);
+    }
+
+    public static double dot(double[] x, double[] y, int n) {
+        return VECTOR ? VectorKernels.dot(x, y, n) : scalarDot(x, y, n);
+    }
+
+    static double scalarDot(double[] x, double[] y, int n) {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int t = 0;
+        for (; t + 3 < n; t += 4) {
+            s0 += x[t] * y[t];
+            s1 += x[t + 1] * y[t + 1];
+            s2 += x[t + 2] * y[t + 2];
+            s3 += x[t + 3] * y[t + 3];
+        }
+        for (; t < n; t++) {
+            s0 += x[t] * y[t];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    public static double dot(DoubleBuffer x, DoubleBuffer y) {
+        return VECTOR ? VectorKernels.dot(x, y) : scalarDot(x, y);
+    }
+
+    static double scalarDot(DoubleBuffer x, DoubleBuffer y) {
+        int n = x.limit();
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int t = 0;
+        for (; t + 3 < n; t += 4) {
+            s0 += x.get(t) * y.get(t);
+            s1 += x.get(t + 1) * y.get(t + 1);
+            s2 += x.get(t + 2) * y.get(t + 2);
+            s3 += x.get(t + 3) * y.get(t + 3);
+        }
+        for (; t < n; t++) {
+            s0 += x.get(t) * y.get(t);
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    // x . y0 .. x . y3 in one pass, so a row of the covariance matrix reads x a quarter as often
+    public static void dot4(DoubleBuffer x, DoubleBuffer y0, DoubleBuffer y1, DoubleBuffer y2, DoubleBuffer y3,
+                            double[] out) {
+        int n = x.limit();
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        for (int t = 0; t < n; t++) {
+            double xt = x.get(t);
+            s0 += xt * y0.get(t);
+            s1 += xt * y1.get(t);
+            s2 += xt * y2.get(t);
+            s3 += xt * y3.get(t);
+        }
+        out[0] = s0;
+        out[1] = s1;
+        out[2] = s2;
+        out[3] = s3;
+    }
+
+    // Over the days on which both x and y have a value (not NaN), write {count, sum of (x - shiftX),
+    // sum of (y - shiftY), sum of their product} into out
+    public static void pairSums(DoubleBuffer x, DoubleBuffer y, double shiftX, double shiftY, double[] out) {
+        if (VECTOR) {
+            VectorKernels.pairSums(x, y, shiftX, shiftY, out);
+        } else {
+            scalarPairSums(x, y, shiftX, shiftY, out);
+        }
+    }
+
+    static void scalarPairSums(DoubleBuffer x, DoubleBuffer y, double shiftX, double shiftY, double[] out) {
+        int n = x.limit();
+        long c0 = 0, c1 = 0;
+        double sx0 = 0, sx1 = 0, sy0 = 0, sy1 = 0, sxy0 = 0, sxy1 = 0;
+        int t = 0;
+        for (; t + 1 < n; t += 2) {
+            double x0 = x.get(t), y0 = y.get(t), x1 = x.get(t + 1), y1 = y.get(t + 1);
+            // NaN compares unequal to itself, so this is "both present" without a branch per operand
+            if (x0 == x0 && y0 == y0) {
+                double dx = x0 - shiftX, dy = y0 - shiftY;
+                c0++;
+                sx0 += dx;
+                sy0 += dy;
+                sxy0 += dx * dy;
+            }
+            if (x1 == x1 && y1 == y1) {
+                double dx = x1 - shiftX, dy = y1 - shiftY;
+                c1++;
+                sx1 += dx;
+                sy1 += dy;
+                sxy1 += dx * dy;
+            }
+        }
+        if (t < n) {
+            double x0 = x.get(t), y0 = y.get(t);
+            if (x0 == x0 && y0 == y0) {
+                double dx = x0 - shiftX, dy = y0 - shiftY;
+                c0++;
+                sx0 += dx;
+                sy0 += dy;
+                sxy0 += dx * dy;
+            }
+        }
+        out[0] = c0 + c1;
+        out[1] = sx0 + sx1;
+        out[2] = sy0 + sy1;
+        out[3] = sxy0 + sxy1;
+    }
+
+    // Add {n, sum r, sum m, sum r*m, sum m*m} over n aligned days of r (from rFrom) and m (from mFrom), in the layout of
+    // MarketReturns.accumulateBetaSums
+    public static void crossSums(double[] r, int rFrom, double[] m, int mFrom, int n, double[] sums) {
+        if (VECTOR) {
+            VectorKernels.crossSums(r, rFrom, m, mFrom, n, sums);
+        } else {
+            scalarCrossSums(r, rFrom, m, mFrom, n, sums);
+        }
+    }
+
+    static void scalarCrossSums(double[] r, int rFrom, double[] m, int mFrom, int n, double[] sums) {
+        double sr0 = 0, sr1 = 0, sm0 = 0, sm1 = 0, srm0 = 0, srm1 = 0, smm0 = 0, smm1 = 0;
+        int k = 0;
+        for (; k + 1 < n; k += 2) {
+            double r0 = r[rFrom + k], m0 = m[mFrom + k], r1 = r[rFrom + k + 1], m1 = m[mFrom + k + 1];
+            sr0 += r0;
+            sr1 += r1;
+            sm0 += m0;
+            sm1 += m1;
+            srm0 += r0 * m0;
+            srm1 += r1 * m1;
+            smm0 += m0 * m0;
+            smm1 += m1 * m1;
+        }
+        if (k < n) {
+            double r0 = r[rFrom + k], m0 = m[mFrom + k];
+            sr0 += r0;
+            sm0 += m0;
+            srm0 += r0 * m0;
+            smm0 += m0 * m0;
+        }
+        sums[0] += n;
+        sums[1] += sr0 + sr1;
+        sums[2] += sm0 + sm1;
+        sums[3] += srm0 + srm1;
+        sums[4] += smm0 + smm1;
+    }
+
+    // Ordinary least squares line through y against x = 1 .. n; writes {slope, intercept} into out.
+    // Sum x and sum x^2 have closed forms, so only sum y and sum x*y are accumulated.
+    public static void linearTrend(double[] y, double[] out) {
+        int n = y.length;
+        double sumX = n * (n + 1.0) / 2;
+        double sumX2 = n * (n + 1.0) * (2.0 * n + 1) / 6;
+        if (VECTOR) {
+            VectorKernels.trendSums(y, out);
+        } else {
+            scalarTrendSums(y, out);
+        }
+        double sumY = out[0], sumXY = out[1];
+        double slope = (n * sumXY - sumX * sumY) / (n * sumX2 - sumX * sumX);
+        out[0] = slope;
+        out[1] = (sumY - slope * sumX) / n;
+    }
+
+    // Sums of y and of x*y, with x = 1 .. n, into out
+    static void scalarTrendSums(double[] y, double[] out) {
+        int n = y.length;
+        double sy0 = 0, sy1 = 0, sxy0 = 0, sxy1 = 0;
+        // x is kept as a double, as converting the index on every iteration costs more than the additions
+        double x = 1;
+        int i = 0;
+        for (; i + 1 < n; i += 2, x += 2) {
+            sy0 += y[i];
+            sy1 += y[i + 1];
+            sxy0 += x * y[i];
+            sxy1 += (x + 1) * y[i + 1];
+        }
+        if (i < n) {
+            sy0 += y[i];
+            sxy0 += x * y[i];
+        }
+        out[0] = sy0 + sy1;
+        out[1] = sxy0 + sxy1;
+    }
+}
@@ -0,0 +1,443 @@
+package managers;
+
+import java.math.*;
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+import java.util.stream.*;
+
+// This class finds mean-variance allocations of a portfolio's holdings: minimum variance, maximum Sharpe ratio and
+// minimum variance for a target return, long-only with an optional cap on each weight, plus a sweep of the efficient
+// frontier. Expected returns and the covariance matrix are estimated once, in memory, from the daily returns of the
+// holdings' closes aligned on the trading calendar, and annualized.
+//
+// Every allocation solves: minimize 1/2 w'Cw - lambda * mu'w over {sum w = 1, 0 <= w <= cap} by accelerated projected
+// gradient. lambda = 0 is the minimum-variance portfolio and larger lambdas walk up the frontier, so a target return is
+// reached by bisection on lambda and the maximum Sharpe ratio by a golden-section search along it.
+//
+// Usage: PortfolioOptimizer <portfolioId> <start YYYY-MM-DD> <end YYYY-MM-DD> [--cap 0.25] [--target 0.12]
+//        [--risk-free 0.02] [--points 20]
+public class PortfolioOptimizer {
+    private static final double TRADING_DAYS_PER_YEAR = 252;
+    private static final int MAX_ITERATIONS = 20_000;
+    private static final double WEIGHT_TOLERANCE = 1e-10;
+    private static final double RETURN_TOLERANCE = 1e-7;
+    private static final int BISECTION_STEPS = 60;
+    private static final int GOLDEN_SECTION_STEPS = 50;
+
+    // Annualized expected returns and covariance of symbols, and their closes on the last day of the window
+    public record Inputs(List<String> symbols, double[] expectedReturns, double[][] covariance, double[] lastCloses) {
+    }
+
+    // A set of weights (in the order of the symbols) with its annualized return, volatility and Sharpe ratio
+    public record Allocation(String label, double[] weights, double expectedReturn, double volatility,
+                             double sharpe) {
+    }
+
+    // Whole shares of each symbol that implement an allocation with a given amount
+    public record Order(String symbol, double weight, double price, int targetShares, int currentShares) {
+        public int change() {
+            return targetShares - currentShares;
+        }
+    }
+
+    private final Inputs inputs;
+    private final double cap;
+    private final double riskFree;
+    private final double step;
+
+    public PortfolioOptimizer(Inputs inputs, double cap, double riskFree) {
+        int n = inputs.symbols().size();
+        if (n == 0 || cap * n < 1 - 1e-12) {
+            throw new IllegalArgumentException("A weight cap of " + cap + " cannot be met by " + n + " holdings");
+        }
+        this.inputs = inputs;
+        this.cap = Math.min(cap, 1);
+        this.riskFree = riskFree;
+        // The gradient of 1/2 w'Cw is Lipschitz with the largest eigenvalue of C
+        this.step = 1 / Math.max(largestEigenvalue(inputs.covariance()), 1e-300);
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.out.println("Usage: PortfolioOptimizer <portfolioId> <start YYYY-MM-DD> <end YYYY-MM-DD>"
+                    + " [--cap 0.25] [--target 0.12] [--risk-free 0.02] [--points 20]");
+            return;
+        }
+        double cap = 1, riskFree = 0, target = Double.NaN;
+        int points = 20;
+        for (int a = 3; a + 1 < args.length; a += 2) {
+            switch (args[a]) {
+                case "--cap" -> cap = Double.parseDouble(args[a + 1]);
+                case "--target" -> target = Double.parseDouble(args[a + 1]);
+                case "--risk-free" -> riskFree = Double.parseDouble(args[a + 1]);
+                case "--points" -> points = Integer.parseInt(args[a + 1]);
+                default -> {
+                    System.out.println("Unknown option: " + args[a]);
+                    return;
+                }
+            }
+        }
+        try {
+            int portfolioId = Integer.parseInt(args[0]);
+            List<String> symbols = StatisticsManager.getHoldingSymbols(portfolioId, true);
+            if (symbols.isEmpty()) {
+                System.out.println("Portfolio is empty. Nothing to optimize.");
+                return;
+            }
+            long started = System.nanoTime();
+            Inputs inputs = estimate(symbols, Timestamp.valueOf(LocalDate.parse(args[1]).atStartOfDay()),
+                    Timestamp.valueOf(LocalDate.parse(args[2]).atTime(LocalTime.MAX)));
+            PortfolioOptimizer optimizer = new PortfolioOptimizer(inputs, cap, riskFree);
+
+            Allocation minimumVariance = optimizer.minimumVariance();
+            Allocation maximumSharpe = optimizer.maximumSharpe();
+            Allocation targeted = Double.isNaN(target) ? null : optimizer.forTargetReturn(target);
+            List<Allocation> frontier = optimizer.frontier(points);
+            System.out.printf("Optimized %d holdings in %.2fs%n", symbols.size(), (System.nanoTime() - started) / 1e9);
+
+            printAllocations(symbols, Stream.of(minimumVariance, maximumSharpe, targeted)
+                    .filter(Objects::nonNull).toList());
+            if (!Double.isNaN(target) && targeted == null) {
+                System.out.printf("A return of %.2f%% cannot be reached with these holdings and cap.%n", target * 100);
+            }
+            System.out.println("\nEfficient frontier:");
+            System.out.println("Return\t\tVolatility\tSharpe");
+            for (Allocation point : frontier) {
+                System.out.printf("%.2f%%\t\t%.2f%%\t\t%.3f%n", point.expectedReturn() * 100, point.volatility() * 100,
+                        point.sharpe());
+            }
+
+            Allocation chosen = targeted != null ? targeted : maximumSharpe;
+            printOrders(portfolioId, chosen, optimizer.orders(portfolioId, chosen));
+        } catch (SQLException | IllegalArgumentException e) {
+            System.err.println("Optimization failed: " + e.getMessage());
+        } finally {
+            DatabaseConnection.shutdown();
+        }
+    }
+
+    private static void printAllocations(List<String> symbols, List<Allocation> allocations) {
+        System.out.print("\nAllocation\t\tReturn\tVolatility\tSharpe");
+        for (String symbol : symbols) {
+            System.out.print("\t" + symbol);
+        }
+        System.out.println();
+        for (Allocation allocation : allocations) {
+            System.out.printf("%-20s\t%.2f%%\t%.2f%%\t\t%.3f", allocation.label(), allocation.expectedReturn() * 100,
+                    allocation.volatility() * 100, allocation.sharpe());
+            for (double weight : allocation.weights()) {
+                System.out.printf("\t%.1f%%", weight * 100);
+            }
+            System.out.println();
+        }
+    }
+
+    private static void printOrders(int portfolioId, Allocation allocation, List<Order> orders) throws SQLException {
+        System.out.println("\nShares for the " + allocation.label().toLowerCase() + " allocation of portfolio "
+                + portfolioId + ":");
+        System.out.println("Symbol\tWeight\tPrice\t\tTarget\tCurrent\tChange");
+        for (Order order : orders) {
+            System.out.printf("%s\t%.1f%%\t$%.2f\t\t%d\t%d\t%+d%n", order.symbol(), order.weight() * 100,
+                    order.price(), order.targetShares(), order.currentShares(), order.change());
+        }
+    }
+
+    // Estimate annualized mean returns and covariance from the daily returns of symbols over [start, end]
+    public static Inputs estimate(List<String> symbols, Timestamp start, Timestamp end) throws SQLException {
+        try (PriceMatrix raw = PriceMatrix.load(symbols, start, end);
+             PriceMatrix closes = TradingCalendar.get().align(raw, TradingCalendar.FillPolicy.FORWARD_FILL, null);
+             PriceMatrix returns = closes.returns()) {
+            List<String> missing = TradingCalendar.missingSymbols(closes);
+            if (!missing.isEmpty()) {
+                throw new IllegalArgumentException("No price history in this date range for " + missing);
+            }
+            if (returns.days() < 2) {
+                throw new IllegalArgumentException("Not enough price history in this date range");
+            }
+            int n = symbols.size();
+            double[] expectedReturns = new double[n];
+            double[] lastCloses = new double[n];
+            for (int i = 0; i < n; i++) {
+                expectedReturns[i] = NumericKernels.sum(returns.row(i)) / returns.days() * TRADING_DAYS_PER_YEAR;
+                lastCloses[i] = closes.get(i, closes.days() - 1);
+            }
+            double[][] covariance = CovarianceCalculator.computeInMemory(returns);
+            for (double[] row : covariance) {
+                for (int j = 0; j < n; j++) {
+                    row[j] *= TRADING_DAYS_PER_YEAR;
+                }
+            }
+            return new Inputs(symbols, expectedReturns, covariance, lastCloses);
+        }
+    }
+
+    public Allocation minimumVariance() {
+        return allocation("Minimum variance", solve(0, null));
+    }
+
+    // Highest Sharpe ratio on the frontier; it is unimodal along the frontier, so a golden-section search over
+    // log(lambda) finds it
+    public Allocation maximumSharpe() {
+        double[] minimum = solve(0, null);
+        double lambdaHigh = lambdaFor(maximumReturn(), minimum);
+        if (Double.isNaN(lambdaHigh)) {
+            lambdaHigh = 1e12;
+        }
+        double lo = Math.log(lambdaHigh) - 30, hi = Math.log(lambdaHigh);
+        double ratio = (Math.sqrt(5) - 1) / 2;
+        double a = hi - ratio * (hi - lo), b = lo + ratio * (hi - lo);
+        double[] wa = solve(Math.exp(a), minimum), wb = solve(Math.exp(b), wa);
+        double sa = sharpe(wa), sb = sharpe(wb);
+        for (int k = 0; k < GOLDEN_SECTION_STEPS; k++) {
+            if (sa < sb) {
+                lo = a;
+                a = b;
+                wa = wb;
+                sa = sb;
+                b = lo + ratio * (hi - lo);
+                wb = solve(Math.exp(b), wa);
+                sb = sharpe(wb);
+            } else {
+                hi = b;
+                b = a;
+                wb = wa;
+                sb = sa;
+                a = hi - ratio * (hi - lo);
+                wa = solve(Math.exp(a), wb);
+                sa = sharpe(wa);
+            }
+        }
+        // The search stays strictly inside its interval, so compare against both ends of the frontier
+        double[] best = sa >= sb ? wa : wb;
+        double[] top = solve(lambdaHigh, best);
+        for (double[] candidate : new double[][]{minimum, top}) {
+            if (sharpe(candidate) > sharpe(best)) {
+                best = candidate;
+            }
+        }
+        return allocation("Maximum Sharpe", best);
+    }
+
+    // Minimum-variance allocation with an expected return of at least target; the minimum-variance portfolio if it
+    // already earns more, null if no allocation reaches target
+    public Allocation forTargetReturn(double target) {
+        double[] minimum = solve(0, null);
+        if (expectedReturn(minimum) >= target) {
+            return allocation(String.format("Target %.2f%%", target * 100), minimum);
+        }
+        double lambda = lambdaFor(target, minimum);
+        if (Double.isNaN(lambda)) {
+            return null;
+        }
+        return allocation(String.format("Target %.2f%%", target * 100), solve(lambda, minimum));
+    }
+
+    // Points evenly spaced in return from the minimum-variance portfolio to the highest attainable return, solved
+    // in parallel
+    public List<Allocation> frontier(int points) {
+        double low = expectedReturn(solve(0, null));
+        double high = maximumReturn();
+        return IntStream.range(0, points).parallel()
+                .mapToObj(k -> {
+                    double target = points == 1 ? low : low + (high - low) * k / (points - 1);
+                    return forTargetReturn(target);
+                })
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
+    // Whole shares that put the portfolio's current value (cash plus holdings at their last closes) into allocation.
+    // Target shares are rounded down, so the trades never need more cash than the portfolio has.
+    public List<Order> orders(int portfolioId, Allocation allocation) throws SQLException {
+        List<String> symbols = inputs.symbols();
+        int[] current = new int[symbols.size()];
+        int[] positions = SymbolDictionary.positions(symbols);
+        double value = 0;
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            PreparedStatement stmt = conn.prepareStatement("SELECT cash_balance FROM Portfolio WHERE portfolio_id = ?");
+            stmt.setInt(1, portfolioId);
+            ResultSet rs = stmt.executeQuery();
+            if (rs.next()) {
+                BigDecimal cash = rs.getBigDecimal("cash_balance");
+                value += cash.doubleValue();
+            }
+            stmt = conn.prepareStatement("SELECT symbol, shares FROM PortfolioHolding WHERE portfolio_id = ?");
+            stmt.setInt(1, portfolioId);
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                int i = SymbolDictionary.position(positions, rs.getString("symbol"));
+                if (i >= 0) {
+                    current[i] = rs.getInt("shares");
+                    value += current[i] * inputs.lastCloses()[i];
+                }
+            }
+        }
+        List<Order> orders = new ArrayList<>();
+        for (int i = 0; i < symbols.size(); i++) {
+            double price = inputs.lastCloses()[i];
+            double weight = allocation.weights()[i];
+            int target = price > 0 ? (int) Math.floor(weight * value / price) : 0;
+            orders.add(new Order(symbols.get(i), weight, price, target, current[i]));
+        }
+        return orders;
+    }
+
+    // Minimize 1/2 w'Cw - lambda * mu'w over the capped simplex, starting from start (equal weights if null).
+    // FISTA: a gradient step from an extrapolated point, projected back onto the constraints.
+    double[] solve(double lambda, double[] start) {
+        double[][] covariance = inputs.covariance();
+        double[] mu = inputs.expectedReturns();
+        int n = mu.length;
+        double[] x = start != null ? start.clone() : project(new double[n]);
+        double[] y = x.clone();
+        double[] next = new double[n];
+        double[] gradientStep = new double[n];
+        double t = 1;
+        for (int k = 0; k < MAX_ITERATIONS; k++) {
+            for (int i = 0; i < n; i++) {
+                double gradient = NumericKernels.dot(covariance[i], y, n) - lambda * mu[i];
+                gradientStep[i] = y[i] - step * gradient;
+            }
+            projectInto(gradientStep, next);
+            double tNext = (1 + Math.sqrt(1 + 4 * t * t)) / 2;
+            double momentum = (t - 1) / tNext;
+            double change = 0;
+            for (int i = 0; i < n; i++) {
+                change = Math.max(change, Math.abs(next[i] - x[i]));
+                y[i] = next[i] + momentum * (next[i] - x[i]);
+                x[i] = next[i];
+            }
+            t = tNext;
+            if (change < WEIGHT_TOLERANCE) {
+                break;
+            }
+        }
+        return x;
+    }
+
+    // Smallest lambda whose solution returns at least target, NaN if none does
+    private double lambdaFor(double target, double[] minimum) {
+        double lo = 0, hi = 1;
+        double[] w = solve(hi, minimum);
+        while (expectedReturn(w) < target - RETURN_TOLERANCE) {
+            lo = hi;
+            hi *= 2;
+            if (hi > 1e12) {
+                return Double.NaN;
+            }
+            w = solve(hi, w);
+        }
+        for (int k = 0; k < BISECTION_STEPS && hi - lo > 1e-12 * hi; k++) {
+            double mid = (lo + hi) / 2;
+            double[] wm = solve(mid, w);
+            if (expectedReturn(wm) < target - RETURN_TOLERANCE) {
+                lo = mid;
+            } else {
+                hi = mid;
+                w = wm;
+            }
+        }
+        return hi;
+    }
+
+    // Highest attainable return: fill the best-returning symbols up to the cap
+    private double maximumReturn() {
+        double[] mu = inputs.expectedReturns();
+        Integer[] order = new Integer[mu.length];
+        Arrays.setAll(order, i -> i);
+        Arrays.sort(order, (a, b) -> Double.compare(mu[b], mu[a]));
+        double remaining = 1, result = 0;
+        for (int i : order) {
+            double w = Math.min(cap, remaining);
+            result += w * mu[i];
+            remaining -= w;
+            if (remaining <= 0) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    // Euclidean projection onto {sum w = 1, 0 <= w <= cap}: w_i = clip(v_i - tau, 0, cap), with tau found by
+    // bisection since the sum decreases in tau
+    private double[] project(double[] v) {
+        double[] out = new double[v.length];
+        projectInto(v, out);
+        return out;
+    }
+
+    private void projectInto(double[] v, double[] out) {
+        double lo = Double.POSITIVE_INFINITY, hi = Double.NEGATIVE_INFINITY;
+        for (double x : v) {
+            lo = Math.min(lo, x);
+            hi = Math.max(hi, x);
+        }
+        lo -= cap;
+        for (int k = 0; k < 100 && hi - lo > 1e-15 * Math.max(1, Math.abs(hi)); k++) {
+            double tau = (lo + hi) / 2;
+            double sum = 0;
+            for (double x : v) {
+                sum += Math.min(cap, Math.max(0, x - tau));
+            }
+            if (sum > 1) {
+                lo = tau;
+            } else {
+                hi = tau;
+            }
+        }
+        double tau = (lo + hi) / 2;
+        for (int i = 0; i < v.length; i++) {
+            out[i] = Math.min(cap, Math.max(0, v[i] - tau));
+        }
+    }
+
+    private Allocation allocation(String label, double[] weights) {
+        return new Allocation(label, weights, expectedReturn(weights), volatility(weights), sharpe(weights));
+    }
+
+    private double expectedReturn(double[] w) {
+        return NumericKernels.dot(inputs.expectedReturns(), w, w.length);
+    }
+
+    private double volatility(double[] w) {
+        double variance = 0;
+        for (int i = 0; i < w.length; i++) {
+            variance += w[i] * NumericKernels.dot(inputs.covariance()[i], w, w.length);
+        }
+        return Math.sqrt(Math.max(0, variance));
+    }
+
+    private double sharpe(double[] w) {
+        double volatility = volatility(w);
+        return volatility == 0 ? Double.NaN : (expectedReturn(w) - riskFree) / volatility;
+    }
+
+    // Power iteration; the covariance matrix is symmetric positive semi-definite
+    private static double largestEigenvalue(double[][] matrix) {
+        int n = matrix.length;
+        double[] v = new double[n];
+        Arrays.fill(v, 1 / Math.sqrt(n));
+        double eigenvalue = 0;
+        for (int k = 0; k < 200; k++) {
+            double[] next = new double[n];
+            for (int i = 0; i < n; i++) {
+                next[i] = NumericKernels.dot(matrix[i], v, n);
+            }
+            double norm = Math.sqrt(NumericKernels.dot(next, next, n));
+            if (norm == 0) {
+                return 0;
+            }
+            for (int i = 0; i < n; i++) {
+                v[i] = next[i] / norm;
+            }
+            if (Math.abs(norm - eigenvalue) < 1e-12 * norm) {
+                eigenvalue = norm;
+                break;
+            }
+            eigenvalue = norm;
+        }
+        // Power iteration approaches from below; a little headroom keeps the step size safe
+        return eigenvalue * 1.01;
+    }
+}
@@ -0,0 +1,102 @@
+package managers;
+
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+
+// This class reads and maintains PortfolioValue, the value of each portfolio at the close of each market day.
+// Triggers keep the table current as trades and cash movements happen (see create_database.sql) and MarkToMarket
+// values the holders of new bars; the nightly job revalues every portfolio in one set-based statement, which also
+// fills days on which nothing happened and repairs days loaded outside this application.
+//
+// Usage: PortfolioValuation [date YYYY-MM-DD, default: the date of the latest bar]
+public class PortfolioValuation {
+    // Value of a portfolio at the close of one day
+    public record Value(LocalDate date, double cash, double marketValue) {
+        public double total() {
+            return cash + marketValue;
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length > 1) {
+            System.out.println("Usage: PortfolioValuation [date YYYY-MM-DD]");
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            int rows = revalueAll(args.length == 1 ? LocalDate.parse(args[0]) : null);
+            System.out.printf("Revalued %d portfolios in %.2fs%n", rows, (System.nanoTime() - start) / 1e9);
+        } catch (SQLException e) {
+            System.err.println("Revaluation failed: " + e.getMessage());
+        } finally {
+            DatabaseConnection.shutdown();
+        }
+    }
+
+    // Value every portfolio at the closes of date (the latest bar if null); returns the number of rows written
+    public static int revalueAll(LocalDate date) throws SQLException {
+        String sql = """
+                SELECT revalue_portfolios(COALESCE(?::date, (SELECT MAX(timestamp) FROM LatestQuote)))
+                """;
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setDate(1, date == null ? null : java.sql.Date.valueOf(date));
+            ResultSet rs = stmt.executeQuery();
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    // Recorded values of a portfolio over [start, end], oldest first
+    public static List<Value> getValues(int portfolioId, LocalDate start, LocalDate end) throws SQLException {
+        String sql = """
+                SELECT date, cash, market_value
+                FROM PortfolioValue
+                WHERE portfolio_id = ? AND date BETWEEN ? AND ?
+                ORDER BY date
+                """;
+        List<Value> values = new ArrayList<>();
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, portfolioId);
+            stmt.setDate(2, java.sql.Date.valueOf(start));
+            stmt.setDate(3, java.sql.Date.valueOf(end));
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                values.add(new Value(rs.getDate("date").toLocalDate(), rs.getDouble("cash"),
+                        rs.getDouble("market_value")));
+            }
+        }
+        return values;
+    }
+
+    // Print the daily values of a portfolio over [start, end] with the return and maximum drawdown of the window
+    public static void displayValueHistory(int portfolioId, LocalDate start, LocalDate end) {
+        try {
+            List<Value> values = getValues(portfolioId, start, end);
+            if (values.isEmpty()) {
+                System.out.println("No recorded values in this date range.");
+                return;
+            }
+            System.out.println("\nDate\t\tCash\t\tMarket Value\tTotal Value");
+            double peak = 0, maxDrawdown = 0;
+            for (Value value : values) {
+                System.out.printf("%s\t$%.2f\t$%.2f\t$%.2f%n", value.date(), value.cash(), value.marketValue(),
+                        value.total());
+                peak = Math.max(peak, value.total());
+                if (peak > 0) {
+                    maxDrawdown = Math.max(maxDrawdown, (peak - value.total()) / peak);
+                }
+            }
+            double first = values.get(0).total();
+            double last = values.get(values.size() - 1).total();
+            // Cash deposited or withdrawn during the window counts as a gain or loss here
+            if (first > 0) {
+                System.out.printf("%nChange over the period: %.2f%%%n", (last / first - 1) * 100);
+            }
+            System.out.printf("Maximum drawdown: %.2f%%%n", maxDrawdown * 100);
+        } catch (SQLException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+}
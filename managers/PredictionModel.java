@@ -0,0 +1,28 @@
+package managers;
+
+// A price prediction model over a series of daily closes (oldest first).
+public interface PredictionModel {
+    // Number of most recent closes the model needs, or 0 if it uses the whole series
+    int window();
+
+    // Fit the model to the series
+    void fit(double[] series);
+
+    // Write the next horizon predicted closes into out[0 .. horizon - 1]
+    void forecast(int horizon, double[] out);
+
+    // Model for the prediction menu choice (1 = linear regression, 2 = moving average, 3 = exponential smoothing);
+    // null for any other choice
+    static PredictionModel forType(int modelType) {
+        switch (modelType) {
+            case 1:
+                return new LinearRegressionModel();
+            case 2:
+                return new MovingAverageModel();
+            case 3:
+                return new ExponentialSmoothingModel();
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package managers;
+
+import java.io.*;
+import java.nio.file.*;
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+
+// This class is an optional in-process columnar cache of StockHistory.
+// Each symbol's history is held in contiguous primitive arrays ordered by date, so lookups and range slices
+// are served from memory instead of the database. Enable it with -Dstockhistory.cache=true; Main then warms it at
+// startup with loadAll(), from the file given by -Dstockhistory.snapshot (see PriceHistorySnapshot) if there is one.
+public class PriceHistoryCache {
+    private static final boolean ENABLED = Boolean.getBoolean("stockhistory.cache");
+
+    // Indexed by SymbolDictionary id
+    private static final SymbolTable<SymbolHistory> histories = new SymbolTable<>();
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    // Get the cached history of a symbol, loading it on first use; null if the cache is disabled
+    public static SymbolHistory get(String symbol) throws SQLException {
+        return ENABLED ? get(SymbolDictionary.intern(symbol)) : null;
+    }
+
+    // Same, by SymbolDictionary id
+    public static SymbolHistory get(int symbolId) throws SQLException {
+        if (!ENABLED) {
+            return null;
+        }
+        SymbolHistory history = histories.get(symbolId);
+        if (history == null) {
+            history = histories.putIfAbsent(symbolId, loadSymbol(SymbolDictionary.symbol(symbolId)));
+        }
+        return history;
+    }
+
+    // Load the whole of StockHistory in one ordered scan, or from -Dstockhistory.snapshot when that file exists
+    public static void loadAll() throws SQLException {
+        if (!ENABLED) {
+            return;
+        }
+        String snapshot = System.getProperty("stockhistory.snapshot");
+        if (snapshot != null && Files.isReadable(Paths.get(snapshot))) {
+            try {
+                loadSnapshot(Paths.get(snapshot));
+                return;
+            } catch (IOException e) {
+                System.err.println("Could not load snapshot, reading StockHistory instead: " + e.getMessage());
+            }
+        }
+        String sql = """
+                SELECT symbol, timestamp, open, high, low, close, volume
+                FROM StockHistory
+                ORDER BY symbol, timestamp
+                """;
+
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            // A fetch size only streams rows when autocommit is off
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setFetchSize(50_000);
+                ResultSet rs = stmt.executeQuery();
+
+                Builder builder = null;
+                String currentSymbol = null;
+                while (rs.next()) {
+                    String symbol = rs.getString("symbol");
+                    if (!symbol.equals(currentSymbol)) {
+                        if (builder != null) {
+                            histories.put(currentSymbol, builder.build());
+                        }
+                        currentSymbol = symbol;
+                        builder = new Builder();
+                    }
+                    builder.add(rs);
+                }
+                if (builder != null) {
+                    histories.put(currentSymbol, builder.build());
+                }
+            }
+            conn.commit();
+        }
+    }
+
+    // Warm the cache from a PriceHistorySnapshot, then append the rows written after it was taken in one query.
+    // Changes to days already in the snapshot are not seen, so the snapshot should be re-exported after back-fills.
+    public static void loadSnapshot(Path file) throws IOException, SQLException {
+        if (!ENABLED) {
+            return;
+        }
+        PriceHistorySnapshot snapshot = PriceHistorySnapshot.open(file);
+        List<String> symbols = snapshot.symbols();
+        if (symbols.isEmpty()) {
+            throw new IOException(file + " is empty");
+        }
+        SymbolHistory[] loaded = new SymbolHistory[symbols.size()];
+        java.util.stream.IntStream.range(0, loaded.length).parallel()
+                .forEach(i -> loaded[i] = snapshot.history(symbols.get(i)));
+        for (int i = 0; i < loaded.length; i++) {
+            histories.put(symbols.get(i), loaded[i]);
+        }
+
+        String sql = """
+                SELECT symbol, timestamp, open, high, low, close, volume
+                FROM StockHistory
+                WHERE timestamp > ?
+                ORDER BY symbol, timestamp
+                """;
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setDate(1, java.sql.Date.valueOf(LocalDate.ofEpochDay(snapshot.lastDay())));
+            ResultSet rs = stmt.executeQuery();
+
+            Builder builder = null;
+            String currentSymbol = null;
+            while (rs.next()) {
+                String symbol = rs.getString("symbol");
+                if (!symbol.equals(currentSymbol)) {
+                    appendLoaded(snapshot, currentSymbol, builder);
+                    currentSymbol = symbol;
+                    builder = new Builder();
+                }
+                builder.add(rs);
+            }
+            appendLoaded(snapshot, currentSymbol, builder);
+        }
+    }
+
+    // Symbols missing from the snapshot are left to load in full on first use
+    private static void appendLoaded(PriceHistorySnapshot snapshot, String symbol, Builder builder) {
+        if (symbol != null && snapshot.contains(symbol)) {
+            histories.put(symbol, histories.get(symbol).append(builder.build()));
+        }
+    }
+
+    // Bring a symbol up to date after a write to StockHistory on the given date.
+    // Rows after the last cached day are appended; a change to an already cached day reloads the symbol.
+    public static void refresh(String symbol, LocalDate changedDate) {
+        if (!ENABLED) {
+            return;
+        }
+        SymbolHistory cached = histories.get(symbol);
+        try {
+            if (cached == null) {
+                return; // Will be loaded on first use
+            }
+            if (cached.size() > 0 && changedDate.toEpochDay() <= cached.lastEpochDay()) {
+                histories.put(symbol, loadSymbol(symbol));
+            } else {
+                histories.put(symbol, cached.append(loadRowsAfter(symbol, cached)));
+            }
+        } catch (SQLException e) {
+            // Drop the entry rather than serve stale prices
+            histories.remove(symbol);
+            System.err.println(e.getMessage());
+        }
+    }
+
+    // Forget a symbol, e.g. after it was removed
+    public static void invalidate(String symbol) {
+        histories.remove(symbol);
+    }
+
+    private static SymbolHistory loadSymbol(String symbol) throws SQLException {
+        String sql = """
+                SELECT timestamp, open, high, low, close, volume
+                FROM StockHistory
+                WHERE symbol = ?
+                ORDER BY timestamp
+                """;
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, symbol);
+            ResultSet rs = stmt.executeQuery();
+            Builder builder = new Builder();
+            while (rs.next()) {
+                builder.add(rs);
+            }
+            return builder.build();
+        }
+    }
+
+    private static SymbolHistory loadRowsAfter(String symbol, SymbolHistory cached) throws SQLException {
+        String sql = """
+                SELECT timestamp, open, high, low, close, volume
+                FROM StockHistory
+                WHERE symbol = ? AND timestamp > ?
+                ORDER BY timestamp
+                """;
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, symbol);
+            stmt.setDate(2, cached.size() == 0 ? java.sql.Date.valueOf(LocalDate.of(1900, 1, 1))
+                    : java.sql.Date.valueOf(LocalDate.ofEpochDay(cached.lastEpochDay())));
+            ResultSet rs = stmt.executeQuery();
+            Builder builder = new Builder();
+            while (rs.next()) {
+                builder.add(rs);
+            }
+            return builder.build();
+        }
+    }
+
+    // First epoch day included by "timestamp >= start" against a DATE column
+    public static int firstEpochDay(Timestamp start) {
+        LocalDateTime dateTime = start.toLocalDateTime();
+        LocalDate day = dateTime.toLocalDate();
+        return (int) (dateTime.toLocalTime().equals(LocalTime.MIDNIGHT) ? day.toEpochDay() : day.toEpochDay() + 1);
+    }
+
+    // Last epoch day included by "timestamp <= end" against a DATE column
+    public static int lastEpochDay(Timestamp end) {
+        return (int) end.toLocalDateTime().toLocalDate().toEpochDay();
+    }
+
+    // Immutable columnar history of one symbol, ordered by date
+    public static final class SymbolHistory {
+        private final int[] epochDays;
+        private final double[] open;
+        private final double[] high;
+        private final double[] low;
+        private final double[] close;
+        private final long[] volume;
+        private final int size;
+
+        private SymbolHistory(int[] epochDays, double[] open, double[] high, double[] low, double[] close,
+                              long[] volume, int size) {
+            this.epochDays = epochDays;
+            this.open = open;
+            this.high = high;
+            this.low = low;
+            this.close = close;
+            this.volume = volume;
+            this.size = size;
+        }
+
+        // Wrap existing columns (all of the same length, ordered by date)
+        static SymbolHistory of(int[] epochDays, double[] open, double[] high, double[] low, double[] close,
+                                long[] volume) {
+            return new SymbolHistory(epochDays, open, high, low, close, volume, epochDays.length);
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int epochDay(int i) {
+            return epochDays[i];
+        }
+
+        public LocalDate date(int i) {
+            return LocalDate.ofEpochDay(epochDays[i]);
+        }
+
+        public double open(int i) {
+            return open[i];
+        }
+
+        public double high(int i) {
+            return high[i];
+        }
+
+        public double low(int i) {
+            return low[i];
+        }
+
+        public double close(int i) {
+            return close[i];
+        }
+
+        public long volume(int i) {
+            return volume[i];
+        }
+
+        public int lastEpochDay() {
+            return epochDays[size - 1];
+        }
+
+        // Index of the first row on or after the given day (size() if none)
+        public int lowerBound(int epochDay) {
+            int lo = 0, hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (epochDays[mid] < epochDay) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        // Index just past the last row on or before the given day
+        public int upperBound(int epochDay) {
+            int lo = 0, hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (epochDays[mid] <= epochDay) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        // Index of the row on the given day, or -1
+        public int indexOf(int epochDay) {
+            int i = lowerBound(epochDay);
+            return i < size && epochDays[i] == epochDay ? i : -1;
+        }
+
+        // Copy of the closes in [fromIndex, toIndex)
+        public double[] closes(int fromIndex, int toIndex) {
+            return Arrays.copyOfRange(close, fromIndex, toIndex);
+        }
+
+        // Copy of the epoch days in [fromIndex, toIndex)
+        public int[] epochDays(int fromIndex, int toIndex) {
+            return Arrays.copyOfRange(epochDays, fromIndex, toIndex);
+        }
+
+        private SymbolHistory append(SymbolHistory tail) {
+            if (tail.size == 0) {
+                return this;
+            }
+            int newSize = size + tail.size;
+            int[] days = Arrays.copyOf(epochDays, newSize);
+            double[] o = Arrays.copyOf(open, newSize);
+            double[] h = Arrays.copyOf(high, newSize);
+            double[] l = Arrays.copyOf(low, newSize);
+            double[] c = Arrays.copyOf(close, newSize);
+            long[] v = Arrays.copyOf(volume, newSize);
+            System.arraycopy(tail.epochDays, 0, days, size, tail.size);
+            System.arraycopy(tail.open, 0, o, size, tail.size);
+            System.arraycopy(tail.high, 0, h, size, tail.size);
+            System.arraycopy(tail.low, 0, l, size, tail.size);
+            System.arraycopy(tail.close, 0, c, size, tail.size);
+            System.arraycopy(tail.volume, 0, v, size, tail.size);
+            return new SymbolHistory(days, o, h, l, c, v, newSize);
+        }
+    }
+
+    // Growable primitive buffers used while reading rows
+    static final class Builder {
+        private int[] epochDays = new int[256];
+        private double[] open = new double[256];
+        private double[] high = new double[256];
+        private double[] low = new double[256];
+        private double[] close = new double[256];
+        private long[] volume = new long[256];
+        private int size = 0;
+
+        void add(ResultSet rs) throws SQLException {
+            if (size == epochDays.length) {
+                int capacity = size * 2;
+                epochDays = Arrays.copyOf(epochDays, capacity);
+                open = Arrays.copyOf(open, capacity);
+                high = Arrays.copyOf(high, capacity);
+                low = Arrays.copyOf(low, capacity);
+                close = Arrays.copyOf(close, capacity);
+                volume = Arrays.copyOf(volume, capacity);
+            }
+            epochDays[size] = (int) rs.getDate("timestamp").toLocalDate().toEpochDay();
+            open[size] = rs.getDouble("open");
+            high[size] = rs.getDouble("high");
+            low[size] = rs.getDouble("low");
+            close[size] = rs.getDouble("close");
+            volume[size] = rs.getLong("volume");
+            size++;
+        }
+
+        SymbolHistory build() {
+            return new SymbolHistory(Arrays.copyOf(epochDays, size), Arrays.copyOf(open, size),
+                    Arrays.copyOf(high, size), Arrays.copyOf(low, size), Arrays.copyOf(close, size),
+                    Arrays.copyOf(volume, size), size);
+        }
+    }
+}
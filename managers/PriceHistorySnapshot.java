@@ -0,0 +1,563 @@
+package managers;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+
+// This class reads and writes a compact binary snapshot of StockHistory, so in-memory price structures can be warmed
+// from a local file instead of pulling every row through JDBC.
+//
+// Layout (big-endian):
+//   header   MAGIC, VERSION
+//   blocks   one per symbol: rows, frameCount, then per frame (firstDay, lastDay, offset, rows), then the frames.
+//            A frame holds up to ROWS_PER_FRAME rows as separate sections: epoch days (first day, then deltas, as
+//            varints), volumes (varints), and Gorilla XOR bit streams of close, open, high and low.
+//   footer   symbol count, then per symbol: name, block offset and length, rows, first and last day
+//   trailer  footer offset, last day in the snapshot, MAGIC
+//
+// The reader memory-maps the file and decodes only the frames (and sections) a request touches.
+// Usage: PriceHistorySnapshot export <file> | info <file>
+public final class PriceHistorySnapshot {
+    private static final int MAGIC = 0x53504853; // "SPHS"
+    private static final int VERSION = 1;
+    private static final int ROWS_PER_FRAME = 256;
+    private static final int FRAME_INDEX_BYTES = 16;
+    private static final int SECTIONS = 6;
+    private static final int DAYS = 0, VOLUMES = 1, CLOSES = 2, OPENS = 3, HIGHS = 4, LOWS = 5;
+
+    private final Path file;
+    private final ByteBuffer buffer;
+    private final int lastDay;
+    // Footer entries indexed by SymbolDictionary id
+    private final SymbolTable<Entry> entries = new SymbolTable<>();
+    private final List<String> symbols = new ArrayList<>();
+
+    // Location and extent of one symbol's block
+    private record Entry(int offset, int length, int rows, int firstDay, int lastDay) {
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 2 || !(args[0].equals("export") || args[0].equals("info"))) {
+            System.out.println("Usage: PriceHistorySnapshot export <file> | info <file>");
+            return;
+        }
+        Path file = Paths.get(args[1]);
+        try {
+            long start = System.nanoTime();
+            if (args[0].equals("export")) {
+                int rows = export(file);
+                System.out.printf("Exported %,d rows to %s (%,d bytes) in %.2fs%n", rows, file, Files.size(file),
+                        (System.nanoTime() - start) / 1e9);
+            } else {
+                PriceHistorySnapshot snapshot = open(file);
+                long rows = 0;
+                for (String symbol : snapshot.symbols()) {
+                    rows += snapshot.rows(symbol);
+                }
+                System.out.printf("%s: %d symbols, %,d rows, %.1f bytes/row, data through %s%n", file,
+                        snapshot.symbols().size(), rows, (double) Files.size(file) / Math.max(1, rows),
+                        java.time.LocalDate.ofEpochDay(snapshot.lastDay()));
+            }
+        } catch (IOException | SQLException e) {
+            System.err.println("Snapshot failed: " + e.getMessage());
+        } finally {
+            DatabaseConnection.shutdown();
+        }
+    }
+
+    // Write the whole of StockHistory to a snapshot file in one ordered scan; returns the number of rows written
+    public static int export(Path file) throws SQLException, IOException {
+        String sql = """
+                SELECT symbol, timestamp, open, high, low, close, volume
+                FROM StockHistory
+                ORDER BY symbol, timestamp
+                """;
+        // Write beside the target and move it into place, so a failed export never leaves a truncated snapshot
+        Path partial = file.resolveSibling(file.getFileName() + ".partial");
+        int rows;
+        try (Connection conn = DatabaseConnection.getConnection();
+             Writer writer = new Writer(partial)) {
+            // A fetch size only streams rows when autocommit is off
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setFetchSize(50_000);
+                ResultSet rs = stmt.executeQuery();
+
+                PriceHistoryCache.Builder builder = null;
+                String currentSymbol = null;
+                while (rs.next()) {
+                    String symbol = rs.getString("symbol");
+                    if (!symbol.equals(currentSymbol)) {
+                        if (builder != null) {
+                            writer.add(currentSymbol, builder.build());
+                        }
+                        currentSymbol = symbol;
+                        builder = new PriceHistoryCache.Builder();
+                    }
+                    builder.add(rs);
+                }
+                if (builder != null) {
+                    writer.add(currentSymbol, builder.build());
+                }
+            }
+            conn.commit();
+            rows = writer.rows;
+        } catch (SQLException | IOException e) {
+            Files.deleteIfExists(partial);
+            throw e;
+        }
+        Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING);
+        return rows;
+    }
+
+    // Memory-map a snapshot and read its footer; blocks are decoded on demand
+    public static PriceHistorySnapshot open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to map (" + size + " bytes)");
+            }
+            // The mapping stays valid after the channel is closed
+            return new PriceHistorySnapshot(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    private PriceHistorySnapshot(Path file, ByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        int size = buffer.capacity();
+        if (size < 24 || buffer.getInt(0) != MAGIC || buffer.getInt(size - 4) != MAGIC) {
+            throw new IOException(file + " is not a price history snapshot");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException(file + " has unsupported snapshot version " + buffer.getInt(4));
+        }
+        lastDay = buffer.getInt(size - 8);
+
+        int position = (int) buffer.getLong(size - 16);
+        int count = buffer.getInt(position);
+        position += 4;
+        byte[] name = new byte[255];
+        for (int i = 0; i < count; i++) {
+            int length = buffer.get(position) & 0xFF;
+            buffer.get(position + 1, name, 0, length);
+            String symbol = new String(name, 0, length, StandardCharsets.US_ASCII);
+            position += 1 + length;
+            entries.put(symbol, new Entry((int) buffer.getLong(position), buffer.getInt(position + 8),
+                    buffer.getInt(position + 12), buffer.getInt(position + 16), buffer.getInt(position + 20)));
+            symbols.add(symbol);
+            position += 24;
+        }
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    // Symbols in the snapshot, in symbol order
+    public List<String> symbols() {
+        return Collections.unmodifiableList(symbols);
+    }
+
+    // Last epoch day of any row in the snapshot (Integer.MIN_VALUE if empty)
+    public int lastDay() {
+        return lastDay;
+    }
+
+    public boolean contains(String symbol) {
+        return entries.get(symbol) != null;
+    }
+
+    public int rows(String symbol) {
+        Entry entry = entries.get(symbol);
+        return entry == null ? 0 : entry.rows();
+    }
+
+    // Decode every row of a symbol (null if it is not in the snapshot)
+    public PriceHistoryCache.SymbolHistory history(String symbol) {
+        Entry entry = entries.get(symbol);
+        if (entry == null) {
+            return null;
+        }
+        int n = entry.rows();
+        int[] days = new int[n];
+        double[] open = new double[n], high = new double[n], low = new double[n], close = new double[n];
+        long[] volume = new long[n];
+        int frames = buffer.getInt(entry.offset() + 4);
+        int row = 0;
+        for (int f = 0; f < frames; f++) {
+            int frame = frameStart(entry, f);
+            int rows = frameRows(entry, f);
+            decodeDays(frame, rows, days, row);
+            decodeVolumes(frame, rows, volume, row);
+            decodeDoubles(frame, CLOSES, rows, close, row);
+            decodeDoubles(frame, OPENS, rows, open, row);
+            decodeDoubles(frame, HIGHS, rows, high, row);
+            decodeDoubles(frame, LOWS, rows, low, row);
+            row += rows;
+        }
+        return PriceHistoryCache.SymbolHistory.of(days, open, high, low, close, volume);
+    }
+
+    // Closes of a symbol within [fromDay, toDay], decoding only the frames that overlap the range
+    public double[] closes(String symbol, int fromDay, int toDay) {
+        return (double[]) slice(symbol, fromDay, toDay, true);
+    }
+
+    // Epoch days of a symbol within [fromDay, toDay], matching closes(symbol, fromDay, toDay)
+    public int[] epochDays(String symbol, int fromDay, int toDay) {
+        return (int[]) slice(symbol, fromDay, toDay, false);
+    }
+
+    private Object slice(String symbol, int fromDay, int toDay, boolean closes) {
+        Entry entry = entries.get(symbol);
+        if (entry == null || fromDay > entry.lastDay() || toDay < entry.firstDay()) {
+            return closes ? new double[0] : new int[0];
+        }
+        int frames = buffer.getInt(entry.offset() + 4);
+
+        // First frame whose last day is on or after fromDay
+        int lo = 0, hi = frames;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (frameLastDay(entry, mid) < fromDay) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        int[] days = new int[ROWS_PER_FRAME];
+        double[] values = new double[ROWS_PER_FRAME];
+        int[] outDays = new int[0];
+        double[] outValues = new double[0];
+        int size = 0;
+        for (int f = lo; f < frames && frameFirstDay(entry, f) <= toDay; f++) {
+            int frame = frameStart(entry, f);
+            int rows = frameRows(entry, f);
+            decodeDays(frame, rows, days, 0);
+            if (closes) {
+                decodeDoubles(frame, CLOSES, rows, values, 0);
+            }
+            if (size + rows > outDays.length) {
+                outDays = Arrays.copyOf(outDays, Math.max(size + rows, outDays.length * 2));
+                outValues = closes ? Arrays.copyOf(outValues, outDays.length) : outValues;
+            }
+            for (int i = 0; i < rows; i++) {
+                if (days[i] >= fromDay && days[i] <= toDay) {
+                    outDays[size] = days[i];
+                    if (closes) {
+                        outValues[size] = values[i];
+                    }
+                    size++;
+                }
+            }
+        }
+        return closes ? Arrays.copyOf(outValues, size) : Arrays.copyOf(outDays, size);
+    }
+
+    private int frameIndex(Entry entry, int f) {
+        return entry.offset() + 8 + f * FRAME_INDEX_BYTES;
+    }
+
+    private int frameFirstDay(Entry entry, int f) {
+        return buffer.getInt(frameIndex(entry, f));
+    }
+
+    private int frameLastDay(Entry entry, int f) {
+        return buffer.getInt(frameIndex(entry, f) + 4);
+    }
+
+    private int frameStart(Entry entry, int f) {
+        return entry.offset() + buffer.getInt(frameIndex(entry, f) + 8);
+    }
+
+    private int frameRows(Entry entry, int f) {
+        return buffer.getInt(frameIndex(entry, f) + 12);
+    }
+
+    // Absolute position of a section of the frame starting at frame
+    private int sectionStart(int frame, int section) {
+        int position = frame + SECTIONS * 4;
+        for (int s = 0; s < section; s++) {
+            position += buffer.getInt(frame + s * 4);
+        }
+        return position;
+    }
+
+    private void decodeDays(int frame, int rows, int[] out, int at) {
+        int[] position = {sectionStart(frame, DAYS)};
+        int day = (int) zigZagDecode(readVarint(buffer, position));
+        out[at] = day;
+        for (int i = 1; i < rows; i++) {
+            day += (int) readVarint(buffer, position);
+            out[at + i] = day;
+        }
+    }
+
+    private void decodeVolumes(int frame, int rows, long[] out, int at) {
+        int[] position = {sectionStart(frame, VOLUMES)};
+        for (int i = 0; i < rows; i++) {
+            out[at + i] = zigZagDecode(readVarint(buffer, position));
+        }
+    }
+
+    // Gorilla XOR decoding, the inverse of Writer.encodeDoubles
+    private void decodeDoubles(int frame, int section, int rows, double[] out, int at) {
+        BitReader in = new BitReader(buffer, sectionStart(frame, section));
+        long previous = in.read(64);
+        out[at] = Double.longBitsToDouble(previous);
+        int leading = 0, trailing = 0;
+        for (int i = 1; i < rows; i++) {
+            if (in.read(1) != 0) {
+                if (in.read(1) != 0) {
+                    leading = (int) in.read(5);
+                    int significant = (int) in.read(6);
+                    if (significant == 0) {
+                        significant = 64;
+                    }
+                    trailing = 64 - leading - significant;
+                }
+                previous ^= in.read(64 - leading - trailing) << trailing;
+            }
+            out[at + i] = Double.longBitsToDouble(previous);
+        }
+    }
+
+    private static long readVarint(ByteBuffer buffer, int[] position) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get(position[0]++);
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static long zigZagDecode(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long zigZagEncode(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    // Streams symbol blocks to a file and appends the footer on close. Symbols must be added in symbol order.
+    public static final class Writer implements Closeable {
+        private final OutputStream out;
+        private final List<String> symbols = new ArrayList<>();
+        private final List<long[]> index = new ArrayList<>();
+        private long position = 0;
+        private int rows = 0;
+        private int lastDay = Integer.MIN_VALUE;
+
+        public Writer(Path file) throws IOException {
+            out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16);
+            DataOutputStream header = new DataOutputStream(out);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            position = 8;
+        }
+
+        public void add(String symbol, PriceHistoryCache.SymbolHistory history) throws IOException {
+            int n = history.size();
+            if (n == 0) {
+                return;
+            }
+            int frames = (n + ROWS_PER_FRAME - 1) / ROWS_PER_FRAME;
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            int[] frameOffsets = new int[frames];
+            int dataStart = 8 + frames * FRAME_INDEX_BYTES;
+            for (int f = 0; f < frames; f++) {
+                frameOffsets[f] = dataStart + data.size();
+                encodeFrame(history, f * ROWS_PER_FRAME, Math.min(n, (f + 1) * ROWS_PER_FRAME), data);
+            }
+
+            ByteBuffer block = ByteBuffer.allocate(dataStart);
+            block.putInt(n).putInt(frames);
+            for (int f = 0; f < frames; f++) {
+                int from = f * ROWS_PER_FRAME, to = Math.min(n, from + ROWS_PER_FRAME);
+                block.putInt(history.epochDay(from)).putInt(history.epochDay(to - 1)).putInt(frameOffsets[f])
+                        .putInt(to - from);
+            }
+            out.write(block.array());
+            data.writeTo(out);
+
+            int length = dataStart + data.size();
+            symbols.add(symbol);
+            index.add(new long[]{position, length, n, history.epochDay(0), history.lastEpochDay()});
+            position += length;
+            rows += n;
+            lastDay = Math.max(lastDay, history.lastEpochDay());
+        }
+
+        private static void encodeFrame(PriceHistoryCache.SymbolHistory history, int from, int to,
+                                        ByteArrayOutputStream data) throws IOException {
+            ByteArrayOutputStream[] sections = new ByteArrayOutputStream[SECTIONS];
+            for (int s = 0; s < SECTIONS; s++) {
+                sections[s] = new ByteArrayOutputStream();
+            }
+            writeVarint(sections[DAYS], zigZagEncode(history.epochDay(from)));
+            for (int i = from + 1; i < to; i++) {
+                writeVarint(sections[DAYS], history.epochDay(i) - history.epochDay(i - 1));
+            }
+            for (int i = from; i < to; i++) {
+                writeVarint(sections[VOLUMES], zigZagEncode(history.volume(i)));
+            }
+            double[] values = new double[to - from];
+            for (int column = CLOSES; column <= LOWS; column++) {
+                for (int i = from; i < to; i++) {
+                    values[i - from] = switch (column) {
+                        case CLOSES -> history.close(i);
+                        case OPENS -> history.open(i);
+                        case HIGHS -> history.high(i);
+                        default -> history.low(i);
+                    };
+                }
+                encodeDoubles(values, sections[column]);
+            }
+
+            DataOutputStream header = new DataOutputStream(data);
+            for (ByteArrayOutputStream section : sections) {
+                header.writeInt(section.size());
+            }
+            for (ByteArrayOutputStream section : sections) {
+                section.writeTo(data);
+            }
+        }
+
+        // Gorilla XOR encoding: a repeated value costs one bit, and a change only stores the bits that differ
+        // from the previous value, reusing the previous leading/trailing zero counts when they still fit
+        private static void encodeDoubles(double[] values, ByteArrayOutputStream section) {
+            BitWriter out = new BitWriter(section);
+            long previous = Double.doubleToRawLongBits(values[0]);
+            out.write(previous, 64);
+            int previousLeading = -1, previousTrailing = 0;
+            for (int i = 1; i < values.length; i++) {
+                long bits = Double.doubleToRawLongBits(values[i]);
+                long xor = bits ^ previous;
+                if (xor == 0) {
+                    out.write(0, 1);
+                } else {
+                    out.write(1, 1);
+                    int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+                    int trailing = Long.numberOfTrailingZeros(xor);
+                    if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+                        out.write(0, 1);
+                        out.write(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+                    } else {
+                        int significant = 64 - leading - trailing;
+                        out.write(1, 1);
+                        out.write(leading, 5);
+                        out.write(significant == 64 ? 0 : significant, 6);
+                        out.write(xor >>> trailing, significant);
+                        previousLeading = leading;
+                        previousTrailing = trailing;
+                    }
+                }
+                previous = bits;
+            }
+            out.flush();
+        }
+
+        private static void writeVarint(ByteArrayOutputStream out, long value) {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+
+        @Override
+        public void close() throws IOException {
+            DataOutputStream footer = new DataOutputStream(out);
+            long footerOffset = position;
+            footer.writeInt(symbols.size());
+            for (int i = 0; i < symbols.size(); i++) {
+                byte[] name = symbols.get(i).getBytes(StandardCharsets.US_ASCII);
+                long[] entry = index.get(i);
+                footer.writeByte(name.length);
+                footer.write(name);
+                footer.writeLong(entry[0]);
+                footer.writeInt((int) entry[1]);
+                footer.writeInt((int) entry[2]);
+                footer.writeInt((int) entry[3]);
+                footer.writeInt((int) entry[4]);
+            }
+            footer.writeLong(footerOffset);
+            footer.writeInt(lastDay);
+            footer.writeInt(MAGIC);
+            footer.close();
+        }
+    }
+
+    // Writes bit fields most significant bit first
+    private static final class BitWriter {
+        private final ByteArrayOutputStream out;
+        private int current = 0;
+        private int used = 0;
+
+        private BitWriter(ByteArrayOutputStream out) {
+            this.out = out;
+        }
+
+        // Write the low n bits of value (0 <= n <= 64)
+        private void write(long value, int n) {
+            while (n > 0) {
+                int take = Math.min(8 - used, n);
+                int chunk = (int) ((value >>> (n - take)) & ((1 << take) - 1));
+                current |= chunk << (8 - used - take);
+                used += take;
+                n -= take;
+                if (used == 8) {
+                    out.write(current);
+                    current = 0;
+                    used = 0;
+                }
+            }
+        }
+
+        private void flush() {
+            if (used > 0) {
+                out.write(current);
+                current = 0;
+                used = 0;
+            }
+        }
+    }
+
+    // Reads bit fields written by BitWriter, using absolute gets so readers can share the mapped buffer
+    private static final class BitReader {
+        private final ByteBuffer buffer;
+        private int position;
+        private int used = 0;
+
+        private BitReader(ByteBuffer buffer, int position) {
+            this.buffer = buffer;
+            this.position = position;
+        }
+
+        private long read(int n) {
+            long value = 0;
+            while (n > 0) {
+                int take = Math.min(8 - used, n);
+                int b = buffer.get(position) & 0xFF;
+                int chunk = (b >>> (8 - used - take)) & ((1 << take) - 1);
+                value = (value << take) | chunk;
+                used += take;
+                n -= take;
+                if (used == 8) {
+                    position++;
+                    used = 0;
+                }
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package managers;
+
+import java.lang.invoke.*;
+import java.lang.reflect.Field;
+import java.nio.*;
+import java.sql.*;
+import java.util.*;
+
+// This class holds the close prices of a set of stocks off the Java heap, symbol-major on a shared trading-day axis:
+// row i is symbols[i], column t is epochDays[t], and days on which a symbol has no close are NaN.
+// Only the axis and a few small objects live on the heap, so large windows do not add to GC pressure.
+// Rows are handed out as zero-copy DoubleBuffer views. close() frees the native memory at once and any later access
+// through the matrix fails, so use the matrix in a try-with-resources block and do not keep row views past it: they
+// would read freed memory.
+// (A confined Arena would make stale views fail safely, but java.lang.foreign is a preview API in JDK 21 and the
+// correlation tiles read rows from several threads; without sun.misc.Unsafe the memory is freed once collected.)
+public final class PriceMatrix implements AutoCloseable {
+    // Unsafe.invokeCleaner bound to the Unsafe instance, or null if this JDK does not have it
+    private static final MethodHandle FREE = findCleaner();
+
+    private final List<String> symbols;
+    private final int[] epochDays;
+    private final int days;
+    private ByteBuffer memory;
+    private DoubleBuffer values;
+
+    private PriceMatrix(List<String> symbols, int[] epochDays) {
+        long cells = (long) symbols.size() * epochDays.length;
+        if (cells > Integer.MAX_VALUE / Double.BYTES) {
+            throw new IllegalArgumentException("Matrix of " + symbols.size() + " x " + epochDays.length
+                    + " closes is too large");
+        }
+        this.symbols = List.copyOf(symbols);
+        this.epochDays = epochDays;
+        this.days = epochDays.length;
+        memory = ByteBuffer.allocateDirect((int) cells * Double.BYTES).order(ByteOrder.nativeOrder());
+        values = memory.asDoubleBuffer();
+        for (int p = 0; p < cells; p++) {
+            values.put(p, Double.NaN);
+        }
+    }
+
+    // An all-NaN matrix over the given axis
+    static PriceMatrix allocate(List<String> symbols, int[] epochDays) {
+        return new PriceMatrix(symbols, epochDays);
+    }
+
+    // Copy on-heap series (as returned by toArray()) into a matrix; the axis is 0 .. days - 1
+    public static PriceMatrix of(double[][] series) {
+        int days = series.length == 0 ? 0 : series[0].length;
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < series.length; i++) {
+            names.add(Integer.toString(i));
+        }
+        int[] axis = new int[days];
+        Arrays.setAll(axis, t -> t);
+        PriceMatrix matrix = new PriceMatrix(names, axis);
+        for (int i = 0; i < series.length; i++) {
+            matrix.values.put(i * days, series[i], 0, days);
+        }
+        return matrix;
+    }
+
+    // Load the closes of all symbols over [start, end], from the history cache when it is enabled
+    public static PriceMatrix load(List<String> symbols, Timestamp start, Timestamp end) throws SQLException {
+        return PriceHistoryCache.isEnabled() ? loadCached(symbols, start, end) : loadFromDatabase(symbols, start, end);
+    }
+
+    // The axis is read first so the matrix can be allocated once and filled in place without staging rows on the heap.
+    // Both queries run in one repeatable-read transaction so they see the same rows.
+    private static PriceMatrix loadFromDatabase(List<String> symbols, Timestamp start, Timestamp end)
+            throws SQLException {
+        String axisSql = """
+                SELECT DISTINCT timestamp
+                FROM StockHistory
+                WHERE symbol = ANY(?) AND timestamp BETWEEN ? AND ?
+                ORDER BY timestamp
+                """;
+        String closesSql = """
+                SELECT symbol, timestamp, close
+                FROM StockHistory
+                WHERE symbol = ANY(?) AND timestamp BETWEEN ? AND ?
+                ORDER BY timestamp
+                """;
+
+        // Row of each symbol, indexed by SymbolDictionary id
+        int[] rowOf = SymbolDictionary.positions(symbols);
+
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            // A fetch size only streams rows when autocommit is off
+            conn.setAutoCommit(false);
+            try {
+                Array symbolArray = conn.createArrayOf("varchar", symbols.toArray());
+                int[] axis = new int[256];
+                int days = 0;
+                try (PreparedStatement stmt = conn.prepareStatement(axisSql)) {
+                    stmt.setArray(1, symbolArray);
+                    stmt.setTimestamp(2, start);
+                    stmt.setTimestamp(3, end);
+                    ResultSet rs = stmt.executeQuery();
+                    while (rs.next()) {
+                        if (days == axis.length) {
+                            axis = Arrays.copyOf(axis, days * 2);
+                        }
+                        axis[days++] = (int) rs.getDate("timestamp").toLocalDate().toEpochDay();
+                    }
+                }
+
+                PriceMatrix matrix = new PriceMatrix(symbols, Arrays.copyOf(axis, days));
+                try (PreparedStatement stmt = conn.prepareStatement(closesSql)) {
+                    stmt.setArray(1, symbolArray);
+                    stmt.setTimestamp(2, start);
+                    stmt.setTimestamp(3, end);
+                    stmt.setFetchSize(10_000);
+                    ResultSet rs = stmt.executeQuery();
+
+                    // Rows arrive ordered by date, the same order as the axis
+                    int t = 0;
+                    while (rs.next()) {
+                        int day = (int) rs.getDate("timestamp").toLocalDate().toEpochDay();
+                        while (t < days && matrix.epochDays[t] < day) {
+                            t++;
+                        }
+                        int i = SymbolDictionary.position(rowOf, rs.getString("symbol"));
+                        if (i >= 0 && t < days && matrix.epochDays[t] == day) {
+                            matrix.set(i, t, rs.getDouble("close"));
+                        }
+                    }
+                }
+                return matrix;
+            } finally {
+                conn.rollback();
+                conn.setAutoCommit(true);
+                conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+            }
+        }
+    }
+
+    private static PriceMatrix loadCached(List<String> symbols, Timestamp start, Timestamp end)
+            throws SQLException {
+        int firstDay = PriceHistoryCache.firstEpochDay(start);
+        int lastDay = PriceHistoryCache.lastEpochDay(end);
+
+        PriceHistoryCache.SymbolHistory[] histories = new PriceHistoryCache.SymbolHistory[symbols.size()];
+        int[] from = new int[symbols.size()];
+        int[] to = new int[symbols.size()];
+        TreeSet<Integer> days = new TreeSet<>();
+        for (int i = 0; i < symbols.size(); i++) {
+            histories[i] = PriceHistoryCache.get(symbols.get(i));
+            from[i] = histories[i].lowerBound(firstDay);
+            to[i] = histories[i].upperBound(lastDay);
+            for (int k = from[i]; k < to[i]; k++) {
+                days.add(histories[i].epochDay(k));
+            }
+        }
+
+        PriceMatrix matrix = new PriceMatrix(symbols, days.stream().mapToInt(Integer::intValue).toArray());
+        for (int i = 0; i < symbols.size(); i++) {
+            // Both the axis and the history are sorted, so one merge pass places every close
+            int t = 0;
+            for (int k = from[i]; k < to[i]; k++) {
+                int day = histories[i].epochDay(k);
+                while (matrix.epochDays[t] < day) {
+                    t++;
+                }
+                matrix.set(i, t, histories[i].close(k));
+            }
+        }
+        return matrix;
+    }
+
+    public List<String> symbols() {
+        return symbols;
+    }
+
+    public int rows() {
+        return symbols.size();
+    }
+
+    public int days() {
+        return days;
+    }
+
+    public int epochDay(int t) {
+        return epochDays[t];
+    }
+
+    public double get(int i, int t) {
+        return buffer().get(i * days + t);
+    }
+
+    void set(int i, int t, double value) {
+        buffer().put(i * days + t, value);
+    }
+
+    // Zero-copy, read-only view of row i; position 0 is day 0
+    public DoubleBuffer row(int i) {
+        return buffer().slice(i * days, days).asReadOnlyBuffer();
+    }
+
+    // Writable view of row i, for kernels that fill a matrix in place
+    DoubleBuffer mutableRow(int i) {
+        return buffer().slice(i * days, days);
+    }
+
+    // Simple daily returns between consecutive days of the axis, NaN where either close is missing.
+    // The result is a new off-heap matrix over epochDays[1 ..]; the caller closes it.
+    public PriceMatrix returns() {
+        int[] axis = days == 0 ? new int[0] : Arrays.copyOfRange(epochDays, 1, days);
+        PriceMatrix returns = new PriceMatrix(symbols, axis);
+        for (int i = 0; i < rows(); i++) {
+            DoubleBuffer closes = row(i);
+            DoubleBuffer out = returns.mutableRow(i);
+            for (int t = 1; t < days; t++) {
+                double previous = closes.get(t - 1);
+                double current = closes.get(t);
+                // A NaN on either side makes the return NaN
+                out.put(t - 1, current / previous - 1);
+            }
+        }
+        return returns;
+    }
+
+    // On-heap copy of the matrix, one array per symbol
+    public double[][] toArray() {
+        double[][] series = new double[rows()][days];
+        for (int i = 0; i < rows(); i++) {
+            row(i).get(0, series[i]);
+        }
+        return series;
+    }
+
+    private DoubleBuffer buffer() {
+        DoubleBuffer current = values;
+        if (current == null) {
+            throw new IllegalStateException("PriceMatrix has been closed");
+        }
+        return current;
+    }
+
+    @Override
+    public void close() {
+        ByteBuffer current = memory;
+        memory = null;
+        values = null;
+        if (current != null && FREE != null) {
+            try {
+                FREE.invokeExact(current);
+            } catch (Throwable e) {
+                // Left to the collector
+            }
+        }
+    }
+
+    private static MethodHandle findCleaner() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(field.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package managers;
+
+import java.sql.*;
+import java.time.*;
+
+// This class mirrors the LatestQuote table in memory, so the current price of a stock is a single map lookup.
+// LatestQuote itself is kept up to date by a trigger on StockHistory; writes made through StockManager refresh the mirror.
+public class QuoteCache {
+    // Indexed by SymbolDictionary id
+    private static final SymbolTable<Quote> quotes = new SymbolTable<>();
+
+    // Most recent close of a stock
+    public record Quote(String symbol, LocalDate date, double close) {
+    }
+
+    // Get the latest quote of a symbol, reading LatestQuote on a miss; null if the stock has no history
+    public static Quote get(String symbol) throws SQLException {
+        Quote quote = quotes.get(symbol);
+        if (quote == null) {
+            quote = load(symbol);
+            if (quote != null) {
+                quotes.put(symbol, quote);
+            }
+        }
+        return quote;
+    }
+
+    // Load every latest quote in one query
+    public static void loadAll() throws SQLException {
+        String sql = "SELECT symbol, timestamp, close FROM LatestQuote";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                String symbol = rs.getString("symbol");
+                quotes.put(symbol, new Quote(symbol, rs.getDate("timestamp").toLocalDate(), rs.getDouble("close")));
+            }
+        }
+    }
+
+    // Re-read a symbol after its history was written
+    public static void refresh(String symbol) {
+        try {
+            Quote quote = load(symbol);
+            if (quote != null) {
+                quotes.put(symbol, quote);
+            } else {
+                quotes.remove(symbol);
+            }
+        } catch (SQLException e) {
+            quotes.remove(symbol);
+            System.err.println(e.getMessage());
+        }
+    }
+
+    // Forget a symbol, e.g. after it was removed
+    public static void invalidate(String symbol) {
+        quotes.remove(symbol);
+    }
+
+    private static Quote load(String symbol) throws SQLException {
+        String sql = "SELECT timestamp, close FROM LatestQuote WHERE symbol = ?";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, symbol);
+            ResultSet rs = stmt.executeQuery();
+            if (rs.next()) {
+                return new Quote(symbol, rs.getDate("timestamp").toLocalDate(), rs.getDouble("close"));
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,231 @@
+package managers;
+
+import java.io.*;
+import java.nio.file.*;
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+import java.util.stream.*;
+
+// This class computes rolling-window statistics for every holding of a portfolio or stock list: annualized volatility
+// of daily returns, COV of closes and beta against the market, for each day of the window, over several window lengths.
+// Closes are aligned on the trading calendar (forward-filled), and each window slides one day at a time by adding the
+// newest day to running sums and subtracting the oldest, so a whole series costs one pass whatever the window length.
+// The sums are compensated (Neumaier) so that years of additions and removals do not drift.
+//
+// Usage: RollingStatistics portfolio|list <id> <start YYYY-MM-DD> <end YYYY-MM-DD> [window ...] [--out file.csv]
+public class RollingStatistics {
+    private static final int[] DEFAULT_WINDOWS = {30, 60, 90};
+    private static final double TRADING_DAYS_PER_YEAR = 252;
+
+    // Rolling metrics of one symbol for one window length (in trading days); element t belongs to epochDays[t],
+    // the last day of its window. NaN where a metric is undefined.
+    public record Series(String symbol, int window, int[] epochDays, double[] volatility, double[] cov,
+                         double[] beta) {
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 4 || !(args[0].equals("portfolio") || args[0].equals("list"))) {
+            System.out.println("Usage: RollingStatistics portfolio|list <id> <start YYYY-MM-DD> <end YYYY-MM-DD>"
+                    + " [window ...] [--out file.csv]");
+            return;
+        }
+        List<Integer> windowList = new ArrayList<>();
+        Path out = null;
+        for (int a = 4; a < args.length; a++) {
+            if (args[a].equals("--out")) {
+                out = Paths.get(args[++a]);
+            } else {
+                windowList.add(Integer.parseInt(args[a]));
+            }
+        }
+        int[] windows = windowList.isEmpty() ? DEFAULT_WINDOWS
+                : windowList.stream().mapToInt(Integer::intValue).toArray();
+        try {
+            long start = System.nanoTime();
+            List<String> symbols = StatisticsManager.getHoldingSymbols(Integer.parseInt(args[1]),
+                    args[0].equals("portfolio"));
+            List<Series> series = compute(symbols, Timestamp.valueOf(LocalDate.parse(args[2]).atStartOfDay()),
+                    Timestamp.valueOf(LocalDate.parse(args[3]).atTime(LocalTime.MAX)), windows);
+            try (PrintWriter writer = out == null ? new PrintWriter(System.out)
+                    : new PrintWriter(Files.newBufferedWriter(out))) {
+                writeCsv(series, writer);
+            }
+            System.err.printf("Computed rolling statistics of %d holdings in %.2fs%n", symbols.size(),
+                    (System.nanoTime() - start) / 1e9);
+        } catch (IOException | SQLException e) {
+            System.err.println("Rolling statistics failed: " + e.getMessage());
+        } finally {
+            DatabaseConnection.shutdown();
+        }
+    }
+
+    public static void writeCsv(List<Series> series, PrintWriter writer) {
+        writer.println("symbol,window,date,volatility,cov,beta");
+        for (Series s : series) {
+            for (int t = 0; t < s.epochDays().length; t++) {
+                writer.printf("%s,%d,%s,%.6f,%.6f,%.6f%n", s.symbol(), s.window(), LocalDate.ofEpochDay(s.epochDays()[t]),
+                        s.volatility()[t], s.cov()[t], s.beta()[t]);
+            }
+        }
+        writer.flush();
+    }
+
+    // Rolling series of every symbol for every window over [start, end], ordered by symbol then window.
+    // Beta is against the S&P 500 equal-weighted market if MarketReturn is built, otherwise against the average of
+    // the symbols themselves. The series of a symbol without prices in the range are all NaN.
+    public static List<Series> compute(List<String> symbols, Timestamp start, Timestamp end, int... windows)
+            throws SQLException {
+        double[][] closes;
+        int[] epochDays;
+        try (PriceMatrix raw = PriceMatrix.load(symbols, start, end);
+             PriceMatrix aligned = TradingCalendar.get().align(raw, TradingCalendar.FillPolicy.FORWARD_FILL, null)) {
+            closes = aligned.toArray();
+            epochDays = new int[aligned.days()];
+            for (int t = 0; t < epochDays.length; t++) {
+                epochDays[t] = aligned.epochDay(t);
+            }
+        }
+        return compute(symbols, epochDays, closes, marketReturns(epochDays, closes), windows);
+    }
+
+    // Market return on each day of the axis (index 0 is unused), NaN where the market has none
+    private static double[] marketReturns(int[] epochDays, double[][] closes) throws SQLException {
+        double[] market = new double[epochDays.length];
+        MarketReturns.MarketSeries series = MarketReturns.getMarket();
+        if (series.epochDays().length > 0) {
+            for (int t = 1; t < epochDays.length; t++) {
+                int m = Arrays.binarySearch(series.epochDays(), epochDays[t]);
+                market[t] = m >= 0 ? series.equalWeighted()[m] : Double.NaN;
+            }
+            return market;
+        }
+        // Symbols without prices in the range have NaN rows and are left out of the average
+        int members = 0;
+        for (double[] c : closes) {
+            if (c.length > 0 && !Double.isNaN(c[0])) {
+                members++;
+            }
+        }
+        for (double[] c : closes) {
+            if (c.length > 0 && !Double.isNaN(c[0])) {
+                for (int t = 1; t < epochDays.length; t++) {
+                    market[t] += (c[t] / c[t - 1] - 1) / members;
+                }
+            }
+        }
+        return market;
+    }
+
+    static List<Series> compute(List<String> symbols, int[] epochDays, double[][] closes, double[] market,
+                                int[] windows) {
+        int tasks = symbols.size() * windows.length;
+        Series[] result = new Series[tasks];
+        IntStream.range(0, tasks).parallel().forEach(task -> {
+            int i = task / windows.length;
+            result[task] = roll(symbols.get(i), windows[task % windows.length], epochDays, closes[i], market);
+        });
+        return Arrays.asList(result);
+    }
+
+    // Slide a window of w days over one symbol. Day t's window holds closes t - w + 1 .. t and the returns on the same
+    // days, so the first full window ends on day w (day 0 has no return).
+    static Series roll(String symbol, int w, int[] epochDays, double[] closes, double[] market) {
+        int days = closes.length;
+        int outputs = Math.max(0, days - w);
+        int[] outDays = new int[outputs];
+        double[] volatility = new double[outputs];
+        double[] cov = new double[outputs];
+        double[] beta = new double[outputs];
+        if (outputs == 0) {
+            return new Series(symbol, w, outDays, volatility, cov, beta);
+        }
+
+        // Closes are summed around the first close so the variance does not cancel out for high prices
+        double shift = closes[0];
+        CompensatedSum sumClose = new CompensatedSum(), sumClose2 = new CompensatedSum();
+        CompensatedSum sumR = new CompensatedSum(), sumR2 = new CompensatedSum();
+        // Beta sums only over days on which the market has a return
+        CompensatedSum betaR = new CompensatedSum(), betaM = new CompensatedSum();
+        CompensatedSum betaRM = new CompensatedSum(), betaMM = new CompensatedSum();
+        int betaCount = 0;
+
+        for (int t = 1; t < days; t++) {
+            // Add day t
+            double d = closes[t] - shift;
+            double r = closes[t] / closes[t - 1] - 1;
+            sumClose.add(d);
+            sumClose2.add(d * d);
+            sumR.add(r);
+            sumR2.add(r * r);
+            if (!Double.isNaN(market[t])) {
+                double m = market[t];
+                betaR.add(r);
+                betaM.add(m);
+                betaRM.add(r * m);
+                betaMM.add(m * m);
+                betaCount++;
+            }
+
+            // Remove day t - w once the window is full
+            if (t > w) {
+                int old = t - w;
+                double oldD = closes[old] - shift;
+                double oldR = closes[old] / closes[old - 1] - 1;
+                sumClose.add(-oldD);
+                sumClose2.add(-oldD * oldD);
+                sumR.add(-oldR);
+                sumR2.add(-oldR * oldR);
+                if (!Double.isNaN(market[old])) {
+                    double m = market[old];
+                    betaR.add(-oldR);
+                    betaM.add(-m);
+                    betaRM.add(-oldR * m);
+                    betaMM.add(-m * m);
+                    betaCount--;
+                }
+            }
+
+            if (t >= w) {
+                int o = t - w;
+                outDays[o] = epochDays[t];
+                double returnVariance = sampleVariance(sumR.value(), sumR2.value(), w);
+                volatility[o] = Math.sqrt(returnVariance * TRADING_DAYS_PER_YEAR);
+                double mean = shift + sumClose.value() / w;
+                double closeVariance = sampleVariance(sumClose.value(), sumClose2.value(), w);
+                cov[o] = mean == 0 ? Double.NaN : Math.sqrt(closeVariance) / mean;
+                beta[o] = MarketReturns.betaFromSums(new double[]{betaCount, betaR.value(), betaM.value(),
+                        betaRM.value(), betaMM.value()});
+            }
+        }
+        return new Series(symbol, w, outDays, volatility, cov, beta);
+    }
+
+    // Sample variance (n - 1) from a sum and sum of squares; rounding can leave a tiny negative, which is clamped
+    private static double sampleVariance(double sum, double sumSquares, int n) {
+        if (n < 2) {
+            return Double.NaN;
+        }
+        return Math.max(0, (sumSquares - sum * sum / n) / (n - 1));
+    }
+
+    // Neumaier's variant of Kahan summation: the low-order bits lost by each addition are kept in a correction term
+    static final class CompensatedSum {
+        private double sum;
+        private double correction;
+
+        void add(double x) {
+            double t = sum + x;
+            if (Math.abs(sum) >= Math.abs(x)) {
+                correction += (sum - t) + x;
+            } else {
+                correction += (x - t) + sum;
+            }
+            sum = t;
+        }
+
+        double value() {
+            return sum + correction;
+        }
+    }
+}
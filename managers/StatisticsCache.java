@@ -0,0 +1,365 @@
+package managers;
+
+import java.nio.*;
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+import java.util.stream.*;
+
+// This class caches the statistics of a set of stocks over a date window, keyed by the sorted symbol set and the window.
+// Each entry holds sufficient statistics (counts and running sums) rather than finished results, so COV, beta and the
+// covariance matrix are all derived from the same entry, and a later request for the same symbols and start date but a
+// later end date only reads the new days and adds them to a copy of the cached sums.
+// Entries are evicted least recently used once their total size passes -Dstatistics.cache.maxWeight (in doubles).
+public class StatisticsCache {
+    private static final long MAX_WEIGHT = Long.getLong("statistics.cache.maxWeight", 4_000_000);
+    // Days read per query while accumulating, so long windows never hold the whole series in memory
+    private static final int SLICE_DAYS = 366;
+    // With -Dstatistics.fill=drop or forward, closes are aligned on the trading calendar before they are summed;
+    // by default each pair is taken over the days both have a close, like COVAR_POP on a join by date
+    private static final TradingCalendar.FillPolicy FILL =
+            TradingCalendar.FillPolicy.parse(System.getProperty("statistics.fill"));
+
+    // Access-ordered, so iteration starts at the least recently used entry
+    private static final LinkedHashMap<Key, WindowStatistics> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private static long weight = 0;
+
+    // Symbol ids are in the order of the sorted symbols, so equal symbol sets give equal keys
+    record Key(int[] symbolIds, int firstDay, int lastDay) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key other && firstDay == other.firstDay && lastDay == other.lastDay
+                    && Arrays.equals(symbolIds, other.symbolIds);
+        }
+
+        @Override
+        public int hashCode() {
+            return (Arrays.hashCode(symbolIds) * 31 + firstDay) * 31 + lastDay;
+        }
+
+        boolean contains(int symbolId) {
+            for (int id : symbolIds) {
+                if (id == symbolId) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    // Get the statistics of the symbols over [start, end], extending or computing them if not cached
+    public static WindowStatistics get(List<String> symbols, Timestamp start, Timestamp end) throws SQLException {
+        List<String> sorted = List.copyOf(new TreeSet<>(symbols));
+        Key key = new Key(SymbolDictionary.intern(sorted), PriceHistoryCache.firstEpochDay(start),
+                PriceHistoryCache.lastEpochDay(end));
+
+        WindowStatistics base;
+        synchronized (StatisticsCache.class) {
+            WindowStatistics cached = entries.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            base = findExtendable(key);
+        }
+
+        WindowStatistics statistics;
+        if (base != null) {
+            statistics = base.copy(key.lastDay());
+            statistics.accumulate(base.lastDay() + 1, key.lastDay());
+        } else {
+            statistics = new WindowStatistics(sorted, key.firstDay(), key.lastDay());
+            statistics.accumulate(key.firstDay(), key.lastDay());
+        }
+        put(key, statistics);
+        return statistics;
+    }
+
+    // Drop every entry whose window reaches the given date. A write to StockHistory on that day changes that day's
+    // closes and the market return every beta is measured against, whichever stock it was for.
+    public static synchronized void invalidate(LocalDate changedDate) {
+        long day = changedDate.toEpochDay();
+        Iterator<Map.Entry<Key, WindowStatistics>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, WindowStatistics> entry = it.next();
+            if (entry.getKey().lastDay() >= day) {
+                weight -= entry.getValue().weight();
+                it.remove();
+            }
+        }
+    }
+
+    // Drop every entry containing the symbol, e.g. after it was removed
+    public static synchronized void invalidate(String symbol) {
+        int symbolId = SymbolDictionary.id(symbol);
+        Iterator<Map.Entry<Key, WindowStatistics>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, WindowStatistics> entry = it.next();
+            if (entry.getKey().contains(symbolId)) {
+                weight -= entry.getValue().weight();
+                it.remove();
+            }
+        }
+    }
+
+    public static synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    // The cached window of the same symbols and start date with the latest end before the requested end
+    private static WindowStatistics findExtendable(Key key) {
+        WindowStatistics best = null;
+        for (Map.Entry<Key, WindowStatistics> entry : entries.entrySet()) {
+            Key candidate = entry.getKey();
+            if (candidate.firstDay() == key.firstDay() && candidate.lastDay() < key.lastDay()
+                    && Arrays.equals(candidate.symbolIds(), key.symbolIds())
+                    && (best == null || candidate.lastDay() > best.lastDay())) {
+                best = entry.getValue();
+            }
+        }
+        return best;
+    }
+
+    private static synchronized void put(Key key, WindowStatistics statistics) {
+        WindowStatistics previous = entries.put(key, statistics);
+        if (previous != null) {
+            weight -= previous.weight();
+        }
+        weight += statistics.weight();
+
+        // Evict least recently used entries, but always keep the one just added
+        Iterator<Map.Entry<Key, WindowStatistics>> it = entries.entrySet().iterator();
+        while (weight > MAX_WEIGHT && entries.size() > 1) {
+            Map.Entry<Key, WindowStatistics> eldest = it.next();
+            if (eldest.getKey().equals(key)) {
+                continue;
+            }
+            weight -= eldest.getValue().weight();
+            it.remove();
+        }
+    }
+
+    // Sufficient statistics of a set of stocks over [firstDay, lastDay]. Immutable once published by the cache.
+    public static final class WindowStatistics {
+        private final List<String> symbols;
+        private final int firstDay;
+        private final int lastDay;
+
+        // Per symbol over all of its closes: count, and sums of (close - shift) and its square.
+        // Sums are taken around the symbol's first close so the variance does not cancel out for high prices.
+        private final double[] shift;
+        private final long[] count;
+        private final double[] sum;
+        private final double[] sumSquares;
+
+        // Per pair i <= j (packed upper triangle) over the days both have a close:
+        // count, sum of (x_i - shift_i), sum of (x_j - shift_j), and sum of their product
+        private final long[] pairCount;
+        private final double[] pairSumX;
+        private final double[] pairSumY;
+        private final double[] pairSumXY;
+
+        // Per symbol, the last close accumulated (NaN before the first), carried across slices when filling gaps
+        private final double[] carry;
+
+        // Per symbol, MarketReturns beta sums against the equal- and cap-weighted market; null without a market series
+        private double[][] equalBetaSums;
+        private double[][] capBetaSums;
+
+        private WindowStatistics(List<String> symbols, int firstDay, int lastDay) {
+            int k = symbols.size();
+            int pairs = k * (k + 1) / 2;
+            this.symbols = symbols;
+            this.firstDay = firstDay;
+            this.lastDay = lastDay;
+            shift = new double[k];
+            Arrays.fill(shift, Double.NaN);
+            count = new long[k];
+            sum = new double[k];
+            sumSquares = new double[k];
+            pairCount = new long[pairs];
+            pairSumX = new double[pairs];
+            pairSumY = new double[pairs];
+            pairSumXY = new double[pairs];
+            carry = new double[k];
+            Arrays.fill(carry, Double.NaN);
+            equalBetaSums = new double[k][MarketReturns.BETA_SUMS];
+            capBetaSums = new double[k][MarketReturns.BETA_SUMS];
+        }
+
+        // Same sums, for a window that ends on newLastDay
+        private WindowStatistics copy(int newLastDay) {
+            WindowStatistics copy = new WindowStatistics(symbols, firstDay, newLastDay);
+            System.arraycopy(shift, 0, copy.shift, 0, shift.length);
+            System.arraycopy(count, 0, copy.count, 0, count.length);
+            System.arraycopy(sum, 0, copy.sum, 0, sum.length);
+            System.arraycopy(sumSquares, 0, copy.sumSquares, 0, sumSquares.length);
+            System.arraycopy(pairCount, 0, copy.pairCount, 0, pairCount.length);
+            System.arraycopy(pairSumX, 0, copy.pairSumX, 0, pairSumX.length);
+            System.arraycopy(pairSumY, 0, copy.pairSumY, 0, pairSumY.length);
+            System.arraycopy(pairSumXY, 0, copy.pairSumXY, 0, pairSumXY.length);
+            System.arraycopy(carry, 0, copy.carry, 0, carry.length);
+            if (equalBetaSums == null) {
+                copy.equalBetaSums = null;
+                copy.capBetaSums = null;
+            } else {
+                for (int i = 0; i < symbols.size(); i++) {
+                    copy.equalBetaSums[i] = equalBetaSums[i].clone();
+                    copy.capBetaSums[i] = capBetaSums[i].clone();
+                }
+            }
+            return copy;
+        }
+
+        // Add the closes and returns of the days in [fromDay, toDay], one slice at a time
+        private void accumulate(int fromDay, int toDay) throws SQLException {
+            for (int sliceStart = fromDay; sliceStart <= toDay; sliceStart += SLICE_DAYS) {
+                int sliceEnd = Math.min(toDay, sliceStart + SLICE_DAYS - 1);
+                Timestamp start = Timestamp.valueOf(LocalDate.ofEpochDay(sliceStart).atStartOfDay());
+                Timestamp end = Timestamp.valueOf(LocalDate.ofEpochDay(sliceEnd).atTime(LocalTime.MAX));
+                try (PriceMatrix closes = CovarianceCalculator.loadAlignedCloses(symbols, start, end)) {
+                    if (FILL == null) {
+                        accumulateCloses(closes);
+                    } else {
+                        try (PriceMatrix aligned = TradingCalendar.get().align(closes, FILL, carry)) {
+                            accumulateCloses(aligned);
+                        }
+                    }
+                }
+            }
+            accumulateReturns(fromDay, toDay);
+        }
+
+        private void accumulateCloses(PriceMatrix closes) {
+            int k = symbols.size();
+            int days = closes.days();
+            for (int i = 0; i < k; i++) {
+                DoubleBuffer row = closes.row(i);
+                for (int t = 0; t < days; t++) {
+                    double x = row.get(t);
+                    if (Double.isNaN(x)) {
+                        continue;
+                    }
+                    if (Double.isNaN(shift[i])) {
+                        shift[i] = x;
+                    }
+                    double d = x - shift[i];
+                    count[i]++;
+                    sum[i] += d;
+                    sumSquares[i] += d * d;
+                }
+            }
+
+            // Rows of the triangle are independent, so they are filled in parallel
+            IntStream.range(0, k).parallel().forEach(i -> {
+                DoubleBuffer x = closes.row(i);
+                double[] sums = new double[4];
+                for (int j = i; j < k; j++) {
+                    int p = pairIndex(i, j);
+                    NumericKernels.pairSums(x, closes.row(j), shift[i], shift[j], sums);
+                    pairCount[p] += (long) sums[0];
+                    pairSumX[p] += sums[1];
+                    pairSumY[p] += sums[2];
+                    pairSumXY[p] += sums[3];
+                }
+            });
+        }
+
+        private void accumulateReturns(int fromDay, int toDay) throws SQLException {
+            if (equalBetaSums == null) {
+                return;
+            }
+            MarketReturns.MarketSeries market = MarketReturns.getMarket();
+            if (market.epochDays().length == 0) {
+                equalBetaSums = null;
+                capBetaSums = null;
+                return;
+            }
+            MarketReturns.ReturnSeries[] returns = MarketReturns.loadReturns(symbols, fromDay, toDay);
+            for (int i = 0; i < symbols.size(); i++) {
+                MarketReturns.ReturnSeries series = returns[i];
+                if (series != null) {
+                    MarketReturns.accumulateBetaSums(series, market.epochDays(), market.equalWeighted(),
+                            equalBetaSums[i]);
+                    MarketReturns.accumulateBetaSums(series, market.epochDays(), market.capWeighted(),
+                            capBetaSums[i]);
+                }
+            }
+        }
+
+        // Position of pair (i, j), i <= j, in the packed upper triangle: row i follows rows 0..i-1 of k - r pairs each
+        private int pairIndex(int i, int j) {
+            int k = symbols.size();
+            return i * k - i * (i - 1) / 2 + (j - i);
+        }
+
+        public List<String> symbols() {
+            return symbols;
+        }
+
+        public int lastDay() {
+            return lastDay;
+        }
+
+        public long count(int i) {
+            return count[i];
+        }
+
+        public double mean(int i) {
+            return shift[i] + sum[i] / count[i];
+        }
+
+        // Sample standard deviation, like STDDEV; 0 with fewer than 2 closes
+        public double standardDeviation(int i) {
+            long n = count[i];
+            if (n < 2) {
+                return 0;
+            }
+            double variance = (sumSquares[i] - sum[i] * sum[i] / n) / (n - 1);
+            return Math.sqrt(Math.max(0, variance));
+        }
+
+        // Population covariance over the days on which both have a close, like COVAR_POP; 0 if they never overlap
+        public double covariance(int i, int j) {
+            int p = i <= j ? pairIndex(i, j) : pairIndex(j, i);
+            long n = pairCount[p];
+            if (n == 0) {
+                return 0;
+            }
+            return pairSumXY[p] / n - (pairSumX[p] / n) * (pairSumY[p] / n);
+        }
+
+        public double[][] covarianceMatrix() {
+            int k = symbols.size();
+            double[][] matrix = new double[k][k];
+            for (int i = 0; i < k; i++) {
+                for (int j = i; j < k; j++) {
+                    matrix[i][j] = covariance(i, j);
+                    matrix[j][i] = matrix[i][j];
+                }
+            }
+            return matrix;
+        }
+
+        // Betas against the S&P 500 market series, or null if it has not been built
+        public MarketReturns.Betas betas() {
+            if (equalBetaSums == null) {
+                return null;
+            }
+            int k = symbols.size();
+            double[] equalWeighted = new double[k];
+            double[] capWeighted = new double[k];
+            for (int i = 0; i < k; i++) {
+                equalWeighted[i] = MarketReturns.betaFromSums(equalBetaSums[i]);
+                capWeighted[i] = MarketReturns.betaFromSums(capBetaSums[i]);
+            }
+            return new MarketReturns.Betas(equalWeighted, capWeighted);
+        }
+
+        // Approximate size in doubles, for eviction
+        private long weight() {
+            int k = symbols.size();
+            return 4L * k + 4L * pairCount.length + 2L * k * MarketReturns.BETA_SUMS;
+        }
+    }
+}
@@ -18,6 +18,7 @@ public class StatisticsManager {
                      1 to View Statistics
                      2 to View Historical Prices
                      3 to Predict Future Prices
+                     4 to Predict Future Prices of All Holdings
                      0 to Back""");
             if (!scanner.hasNextInt()) {
                 System.out.println("Invalid option. Please try again.");
@@ -223,6 +224,49 @@ public class StatisticsManager {
                     }
                     break;
 
+                case 4:
+                    try {
+                        int portfolioId = getPortfolioId(userId, name);
+                        if (portfolioId == -1) {
+                            System.out.println("Portfolio not found.");
+                            break;
+                        }
+
+                        System.out.print("Enter number of future days to predict: ");
+                        int futureDays = scanner.nextInt();
+                        scanner.nextLine();
+
+                        // Check if futureDays is a positive integer
+                        if (futureDays <= 0) {
+                            System.out.println("Invalid number of days. Please enter a positive integer.");
+                            break;
+                        }
+
+                        System.out.println("Select prediction model:");
+                        System.out.println("1. Linear Regression");
+                        System.out.println("2. Moving Average");
+                        System.out.println("3. Exponential Smoothing");
+                        int modelType = scanner.nextInt();
+                        scanner.nextLine();
+                        if (PredictionModel.forType(modelType) == null) {
+                            System.out.println("Invalid model type. Using linear regression.");
+                            modelType = 1;
+                        }
+
+                        BatchForecaster.ForecastTable table =
+                                BatchForecaster.forecastPortfolio(portfolioId, modelType, futureDays);
+                        if (table == null) {
+                            System.out.println("No stocks found in portfolio.");
+                            break;
+                        }
+                        System.out.println("\nPredicted future close prices for all holdings of " + name + ":");
+                        table.print();
+
+                    } catch (SQLException e) {
+                        System.out.println("Error during batch prediction: " + e.getMessage());
+                    }
+                    break;
+
                 case 0:
                     System.out.println("Going Back.");
                     active = false;
@@ -235,120 +279,113 @@ public class StatisticsManager {
         }
     }
 
-    public static void predictStockPrice(String stockSymbol, int futureDays, int modelType) {
-        try (Connection conn = DatabaseConnection.getConnection()) {
-            // Query that combines both historical and new stock data
-            String sql = """
-                    SELECT timestamp, close
-                    FROM StockHistory
-                    WHERE symbol = ?
-                    ORDER BY timestamp
-                    """;
+    // Fewer closes than this are not enough for a reliable prediction
+    private static final int MIN_PREDICTION_HISTORY = 10;
 
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            stmt.setString(1, stockSymbol);
-            ResultSet rs = stmt.executeQuery();
-
-            List<Double> prices = new ArrayList<>();
-            List<Timestamp> dates = new ArrayList<>();
+    // Most recent closes of a stock (oldest first) and the date of the last one
+    record CloseSeries(double[] closes, LocalDate lastDate) {
+    }
 
-            while (rs.next()) {
-                prices.add(rs.getDouble("close"));
-                dates.add(rs.getTimestamp("timestamp"));
+    public static void predictStockPrice(String stockSymbol, int futureDays, int modelType) {
+        try {
+            PredictionModel model = PredictionModel.forType(modelType);
+            boolean validModel = model != null;
+            if (!validModel) {
+                model = new LinearRegressionModel();
             }
 
-            if (prices.size() < 10) {
+            // Windowed models only need the tail of the series
+            int limit = model.window() == 0 ? 0 : Math.max(model.window(), MIN_PREDICTION_HISTORY);
+            CloseSeries series = loadCloseSeries(stockSymbol, limit);
+
+            if (series.closes().length < MIN_PREDICTION_HISTORY) {
                 System.out.println("Not enough data to perform reliable prediction.");
                 return;
             }
 
-            // Get the most recent date
-            Timestamp lastDate = dates.get(dates.size() - 1);
-            LocalDate baseDate = lastDate.toLocalDateTime().toLocalDate();
-
             System.out.println("\nPredicted future close prices for " + stockSymbol + ":");
             System.out.println("Date\t\tPredicted Price");
             System.out.println("-------------------------");
-
-            switch (modelType) {
-                case 1: // Simple Linear Regression
-                    predictLinearRegression(prices, baseDate, futureDays);
-                    break;
-
-                case 2: // Moving Average
-                    predictMovingAverage(prices, baseDate, futureDays);
-                    break;
-
-                case 3: // Exponential Smoothing
-                    predictExponentialSmoothing(prices, baseDate, futureDays);
-                    break;
-
-                default:
-                    System.out.println("Invalid model type. Using linear regression.");
-                    predictLinearRegression(prices, baseDate, futureDays);
-                    break;
+            if (!validModel) {
+                System.out.println("Invalid model type. Using linear regression.");
             }
 
+            double[] forecast = new double[futureDays];
+            model.fit(series.closes());
+            model.forecast(futureDays, forecast);
+            printForecast(series.lastDate(), forecast);
+
         } catch (SQLException e) {
             System.out.println("Error retrieving stock history for prediction: " + e.getMessage());
         }
     }
 
-    private static void predictLinearRegression(List<Double> prices, LocalDate baseDate, int futureDays) {
-        int n = prices.size();
-        double sumX = 0, sumY = 0, sumXY = 0, sumX2 = 0;
-
-        for (int i = 0; i < n; i++) {
-            double x = i + 1;
-            double y = prices.get(i);
-            sumX += x;
-            sumY += y;
-            sumXY += x * y;
-            sumX2 += x * x;
+    // Load the last limit closes of a stock (all of them if limit is 0), oldest first
+    static CloseSeries loadCloseSeries(String stockSymbol, int limit) throws SQLException {
+        // Use the in-memory history when it is enabled, otherwise read the database
+        PriceHistoryCache.SymbolHistory history = PriceHistoryCache.get(stockSymbol);
+        if (history != null) {
+            int from = limit == 0 ? 0 : Math.max(0, history.size() - limit);
+            LocalDate lastDate = history.size() > 0 ? history.date(history.size() - 1) : null;
+            return new CloseSeries(history.closes(from, history.size()), lastDate);
         }
 
-        double slope = (n * sumXY - sumX * sumY) / (n * sumX2 - sumX * sumX);
-        double intercept = (sumY - slope * sumX) / n;
-
-        for (int i = 1; i <= futureDays; i++) {
-            int futureX = n + i;
-            double predictedPrice = slope * futureX + intercept;
-            LocalDate futureDate = baseDate.plusDays(i);
-            System.out.printf("%s\t$%.2f\n", futureDate, predictedPrice);
-        }
-    }
-
-    private static void predictMovingAverage(List<Double> prices, LocalDate baseDate, int futureDays) {
-        int windowSize = 10; // 10-day moving average
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            if (limit > 0) {
+                // Newest first, so the buffer is filled from the back
+                String sql = """
+                        SELECT timestamp, close
+                        FROM StockHistory
+                        WHERE symbol = ?
+                        ORDER BY timestamp DESC
+                        LIMIT ?
+                        """;
+                PreparedStatement stmt = conn.prepareStatement(sql);
+                stmt.setString(1, stockSymbol);
+                stmt.setInt(2, limit);
+                ResultSet rs = stmt.executeQuery();
+
+                double[] closes = new double[limit];
+                int i = limit;
+                LocalDate lastDate = null;
+                while (rs.next()) {
+                    if (lastDate == null) {
+                        lastDate = rs.getDate("timestamp").toLocalDate();
+                    }
+                    closes[--i] = rs.getDouble("close");
+                }
+                return new CloseSeries(Arrays.copyOfRange(closes, i, limit), lastDate);
+            }
 
-        // Calculate initial moving average
-        List<Double> predictions = new ArrayList<>();
-        double sum = 0;
-        for (int i = prices.size() - windowSize; i < prices.size(); i++) {
-            sum += prices.get(i);
-        }
-        double currentAvg = sum / windowSize;
+            String sql = """
+                    SELECT timestamp, close
+                    FROM StockHistory
+                    WHERE symbol = ?
+                    ORDER BY timestamp
+                    """;
+            PreparedStatement stmt = conn.prepareStatement(sql);
+            stmt.setString(1, stockSymbol);
+            stmt.setFetchSize(10_000);
+            ResultSet rs = stmt.executeQuery();
 
-        // Generate predictions
-        for (int i = 1; i <= futureDays; i++) {
-            predictions.add(currentAvg);
-            LocalDate futureDate = baseDate.plusDays(i);
-            System.out.printf("%s\t$%.2f\n", futureDate, currentAvg);
+            double[] closes = new double[1024];
+            int size = 0;
+            java.sql.Date lastDate = null;
+            while (rs.next()) {
+                if (size == closes.length) {
+                    closes = Arrays.copyOf(closes, size * 2);
+                }
+                closes[size++] = rs.getDouble("close");
+                lastDate = rs.getDate("timestamp");
+            }
+            return new CloseSeries(Arrays.copyOf(closes, size), lastDate == null ? null : lastDate.toLocalDate());
         }
     }
 
-    private static void predictExponentialSmoothing(List<Double> prices, LocalDate baseDate, int futureDays) {
-        double alpha = 0.3; // Smoothing factor
-
-        // Initialize with the last actual value
-        double lastValue = prices.get(prices.size() - 1);
-
-        // Generate predictions
-        for (int i = 1; i <= futureDays; i++) {
-            double prediction = alpha * lastValue + (1 - alpha) * prices.get(prices.size() - 2);
-            lastValue = prediction; // Update the lastValue for the next iteration
+    private static void printForecast(LocalDate baseDate, double[] forecast) {
+        for (int i = 1; i <= forecast.length; i++) {
             LocalDate futureDate = baseDate.plusDays(i);
-            System.out.printf("%s\t$%.2f\n", futureDate, prediction);
+            System.out.printf("%s\t$%.2f\n", futureDate, forecast[i - 1]);
         }
     }
 
@@ -395,22 +432,19 @@ public class StatisticsManager {
             }
 
             // Check if the portfolio contains any stocks
-            String sqlCheck = "SELECT COUNT(*) AS count FROM PortfolioHolding WHERE portfolio_id = ?";
-            try (Connection conn = DatabaseConnection.getConnection();
-                 PreparedStatement stmtCheck = conn.prepareStatement(sqlCheck)) {
-                stmtCheck.setInt(1, portfolioId);
-                ResultSet rsCheck = stmtCheck.executeQuery();
-                if (rsCheck.next() && rsCheck.getInt("count") == 0) {
-                    System.out.println("Portfolio is empty. No statistics available.");
-                    return;
-                }
+            List<String> symbols = getHoldingSymbols(portfolioId, true);
+            if (symbols.isEmpty()) {
+                System.out.println("Portfolio is empty. No statistics available.");
+                return;
             }
 
             // Display statistics for the portfolio
             System.out.println("\nCalculating COV, Beta, and Covariance Matrix for portfolio: " + portfolioName);
-            displayCOVs(portfolioId, start, end, true);
-            displayBetas(portfolioId, start, end, true);
-            displayCovarianceMatrix(portfolioId, start, end, true);
+            // COV, beta and covariance all come from the cached sums of this symbol set and window
+            StatisticsCache.WindowStatistics statistics = StatisticsCache.get(symbols, start, end);
+            displayCOVs(statistics);
+            displayBetas(statistics, start, end);
+            displayCovarianceMatrix(statistics);
 
         } catch (SQLException e) {
             System.out.println("Error retrieving portfolio statistics: " + e.getMessage());
@@ -426,22 +460,19 @@ public class StatisticsManager {
             }
 
             // Check if the stock list contains any stocks
-            String sqlCheck = "SELECT COUNT(*) AS count FROM StockListHolding WHERE list_id = ?";
-            try (Connection conn = DatabaseConnection.getConnection();
-                 PreparedStatement stmtCheck = conn.prepareStatement(sqlCheck)) {
-                stmtCheck.setInt(1, listId);
-                ResultSet rsCheck = stmtCheck.executeQuery();
-                if (rsCheck.next() && rsCheck.getInt("count") == 0) {
-                    System.out.println("Stock list is empty. No statistics available.");
-                    return;
-                }
+            List<String> symbols = getHoldingSymbols(listId, false);
+            if (symbols.isEmpty()) {
+                System.out.println("Stock list is empty. No statistics available.");
+                return;
             }
 
             // Display statistics for the stock list
             System.out.println("\nCalculating COV, Beta, and Covariance Matrix for stock list: " + listName);
-            displayCOVs(listId, start, end, false);
-            displayBetas(listId, start, end, false);
-            displayCovarianceMatrix(listId, start, end, false);
+            // COV, beta and covariance all come from the cached sums of this symbol set and window
+            StatisticsCache.WindowStatistics statistics = StatisticsCache.get(symbols, start, end);
+            displayCOVs(statistics);
+            displayBetas(statistics, start, end);
+            displayCovarianceMatrix(statistics);
 
         } catch (SQLException e) {
             System.out.println("Error retrieving stock list statistics: " + e.getMessage());
@@ -479,166 +510,163 @@ public class StatisticsManager {
         return -1;
     }
 
-    private static void displayCOVs(int id, Timestamp start, Timestamp end, boolean isPortfolio)
-            throws SQLException {
+    // Symbols held by a portfolio or stock list, in symbol order
+    static List<String> getHoldingSymbols(int id, boolean isPortfolio) throws SQLException {
+        List<String> symbols = new ArrayList<>();
         try (Connection conn = DatabaseConnection.getConnection()) {
             String table = isPortfolio ? "PortfolioHolding" : "StockListHolding";
-            String sql = "SELECT h.symbol, AVG(s.close) AS mean, STDDEV(s.close) AS stddev " +
-                    "FROM " + table + " h " +
-                    "JOIN StockHistory s ON h.symbol = s.symbol " +
-                    "WHERE h." + (isPortfolio ? "portfolio_id" : "list_id") + " = ? AND s.timestamp BETWEEN ? AND ? " +
-                    "GROUP BY h.symbol";
-
+            String sql = "SELECT symbol FROM " + table + " WHERE "
+                    + (isPortfolio ? "portfolio_id" : "list_id") + " = ? ORDER BY symbol";
             PreparedStatement stmt = conn.prepareStatement(sql);
             stmt.setInt(1, id);
-            stmt.setTimestamp(2, start);
-            stmt.setTimestamp(3, end);
             ResultSet rs = stmt.executeQuery();
-
-            System.out.println("\nCoefficient of Variation (COV):");
             while (rs.next()) {
-                String symbol = rs.getString("symbol");
-                double mean = rs.getDouble("mean");
-                double stddev = rs.getDouble("stddev");
-                if (mean != 0) {
-                    double cov = stddev / mean;
-                    System.out.printf("Stock %s: COV = %.4f\n", symbol, cov);
-                } else {
-                    System.out.printf("Stock %s: COV = undefined (mean = 0)\n", symbol);
-                }
+                symbols.add(rs.getString("symbol"));
             }
         }
+        return symbols;
     }
 
-    private static void displayBetas(int id, Timestamp start, Timestamp end, boolean isPortfolio)
+    private static void displayCOVs(StatisticsCache.WindowStatistics statistics) {
+        List<String> symbols = statistics.symbols();
+        System.out.println("\nCoefficient of Variation (COV):");
+        for (int i = 0; i < symbols.size(); i++) {
+            if (statistics.count(i) == 0) {
+                continue;
+            }
+            double mean = statistics.mean(i);
+            double stddev = statistics.standardDeviation(i);
+            if (mean != 0) {
+                double cov = stddev / mean;
+                System.out.printf("Stock %s: COV = %.4f\n", symbols.get(i), cov);
+            } else {
+                System.out.printf("Stock %s: COV = undefined (mean = 0)\n", symbols.get(i));
+            }
+        }
+    }
+
+    private static void displayBetas(StatisticsCache.WindowStatistics statistics, Timestamp start, Timestamp end)
             throws SQLException {
-        try (Connection conn = DatabaseConnection.getConnection()) {
-            String table = isPortfolio ? "PortfolioHolding" : "StockListHolding";
+        // Betas against the precomputed S&P 500 market series; without it, fall back to the holdings-only average
+        MarketReturns.Betas betas = statistics.betas();
+        if (betas == null) {
+            displayDynamicBetas(statistics.symbols(), start, end);
+            return;
+        }
+        List<String> symbols = statistics.symbols();
+        double[] equalWeighted = betas.equalWeighted();
+        double[] capWeighted = betas.capWeighted();
+
+        System.out.println("\nBeta Values (vs. S&P 500 Equal-Weighted / Cap-Weighted Market):");
+        for (int i = 0; i < symbols.size(); i++) {
+            if (Double.isNaN(equalWeighted[i])) {
+                System.out.printf("Stock %s: Beta = undefined (not enough data)\n", symbols.get(i));
+            } else {
+                System.out.printf("Stock %s: Beta = %.4f / %.4f\n", symbols.get(i), equalWeighted[i], capWeighted[i]);
+            }
+        }
+    }
 
-            String sql = "WITH Returns AS (\n" +
-                    "    SELECT\n" +
-                    "        h.symbol,\n" +
-                    "        sh.timestamp,\n" +
-                    "        sh.close,\n" +
-                    "        LAG(sh.close) OVER (PARTITION BY h.symbol ORDER BY sh.timestamp) AS prev_close\n" +
-                    "    FROM " + table + " h\n" +
-                    "    JOIN StockHistory sh ON h.symbol = sh.symbol\n" +
-                    "    WHERE h." + (isPortfolio ? "portfolio_id" : "list_id") + " = ?\n" +
-                    "        AND sh.timestamp BETWEEN ? AND ?\n" +
-                    ")\n" +
-                    ", StockReturns AS (\n" +
-                    "    SELECT\n" +
-                    "        symbol,\n" +
-                    "        timestamp,\n" +
-                    "        (close - prev_close) / prev_close AS return\n" +
-                    "    FROM Returns\n" +
-                    "    WHERE prev_close IS NOT NULL\n" +
-                    ")\n" +
-                    ", MarketReturns AS (\n" +
-                    "    SELECT\n" +
-                    "        timestamp,\n" +
-                    "        AVG(return) AS market_return\n" +
-                    "    FROM StockReturns\n" +
-                    "    GROUP BY timestamp\n" +
-                    ")\n" +
-                    "SELECT\n" +
-                    "    s.symbol,\n" +
-                    "    COVAR_POP(s.return, m.market_return) / VAR_POP(m.market_return) AS beta\n" +
-                    "FROM StockReturns s\n" +
-                    "JOIN MarketReturns m ON s.timestamp = m.timestamp\n" +
-                    "GROUP BY s.symbol\n" +
-                    "ORDER BY s.symbol";
+    // Betas against the equal-weighted average return of the holdings themselves, for databases without a
+    // MarketReturn series. The closes are aligned on the trading calendar first, so every day's average is over the
+    // same holdings (gaps are forward-filled unless -Dstatistics.fill=drop).
+    private static void displayDynamicBetas(List<String> symbols, Timestamp start, Timestamp end)
+            throws SQLException {
+        TradingCalendar.FillPolicy policy = TradingCalendar.FillPolicy.parse(System.getProperty("statistics.fill"));
+        double[][] returns;
+        List<String> missing;
+        try (PriceMatrix closes = PriceMatrix.load(symbols, start, end);
+             PriceMatrix aligned = TradingCalendar.get().align(closes,
+                     policy == null ? TradingCalendar.FillPolicy.FORWARD_FILL : policy, null);
+             PriceMatrix alignedReturns = aligned.returns()) {
+            returns = alignedReturns.toArray();
+            missing = TradingCalendar.missingSymbols(aligned);
+        }
 
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            stmt.setInt(1, id);
-            stmt.setTimestamp(2, start);
-            stmt.setTimestamp(3, end);
-            ResultSet rs = stmt.executeQuery();
+        // Holdings without prices in the range are left out of the market average
+        int days = returns.length == 0 ? 0 : returns[0].length;
+        int members = returns.length - missing.size();
+        double[] market = new double[days];
+        for (int i = 0; i < returns.length; i++) {
+            if (!missing.contains(symbols.get(i))) {
+                for (int t = 0; t < days; t++) {
+                    market[t] += returns[i][t] / members;
+                }
+            }
+        }
 
-            System.out.println("\nBeta Values (vs. Dynamic Market Average):");
-            while (rs.next()) {
-                String symbol = rs.getString("symbol");
-                double beta = rs.getDouble("beta");
-                System.out.printf("Stock %s: Beta = %.4f\n", symbol, beta);
+        System.out.println("\nBeta Values (vs. Dynamic Market Average):");
+        double[] sums = new double[MarketReturns.BETA_SUMS];
+        for (int i = 0; i < symbols.size(); i++) {
+            Arrays.fill(sums, 0);
+            NumericKernels.crossSums(returns[i], 0, market, 0, days, sums);
+            double beta = MarketReturns.betaFromSums(sums);
+            if (missing.contains(symbols.get(i))) {
+                System.out.printf("Stock %s: Beta = undefined (no prices in this date range)\n", symbols.get(i));
+            } else if (Double.isNaN(beta)) {
+                System.out.printf("Stock %s: Beta = undefined (not enough data)\n", symbols.get(i));
+            } else {
+                System.out.printf("Stock %s: Beta = %.4f\n", symbols.get(i), beta);
             }
         }
     }
 
-    private static void displayCovarianceMatrix(int id, Timestamp start, Timestamp end,
-                                                boolean isPortfolio) throws SQLException {
-        try (Connection conn = DatabaseConnection.getConnection()) {
-            String table = isPortfolio ? "PortfolioHolding" : "StockListHolding";
-            String sqlStocks = "SELECT DISTINCT symbol FROM " + table + " WHERE "
-                    + (isPortfolio ? "portfolio_id" : "list_id") + " = ?";
-            PreparedStatement stmtStocks = conn.prepareStatement(sqlStocks);
-            stmtStocks.setInt(1, id);
-            ResultSet rsStocks = stmtStocks.executeQuery();
-
-            Map<Integer, String> symbolMap = new HashMap<>();
-            int index = 0;
-            while (rsStocks.next()) {
-                String symbol = rsStocks.getString("symbol");
-                symbolMap.put(index++, symbol);
-            }
+    private static void displayCovarianceMatrix(StatisticsCache.WindowStatistics statistics) {
+        List<String> symbols = statistics.symbols();
+        double[][] matrix = statistics.covarianceMatrix();
 
-            System.out.println("\nCovariance Matrix:");
-            System.out.print("\t\t");
-            for (int i = 0; i < symbolMap.size(); i++) {
-                System.out.print(symbolMap.get(i) + "\t");
-            }
-            System.out.println();
+        System.out.println("\nCovariance Matrix:");
+        System.out.print("\t\t");
+        for (String symbol : symbols) {
+            System.out.print(symbol + "\t");
+        }
+        System.out.println();
 
-            for (int i = 0; i < symbolMap.size(); i++) {
-                System.out.print(symbolMap.get(i) + "\t");
-                for (int j = 0; j < symbolMap.size(); j++) {
-                    String sqlCov = "SELECT COVAR_POP(s1.close, s2.close) AS cov " +
-                            "FROM StockHistory s1 " +
-                            "JOIN StockHistory s2 ON s1.timestamp = s2.timestamp " +
-                            "WHERE s1.symbol = ? AND s2.symbol = ? " +
-                            "AND s1.timestamp BETWEEN ? AND ?";
-
-                    PreparedStatement stmt = conn.prepareStatement(sqlCov);
-                    stmt.setString(1, symbolMap.get(i));
-                    stmt.setString(2, symbolMap.get(j));
-                    stmt.setTimestamp(3, start);
-                    stmt.setTimestamp(4, end);
-                    ResultSet rs = stmt.executeQuery();
-
-                    if (rs.next()) {
-                        double cov = rs.getDouble("cov");
-                        System.out.printf("%.4f\t", cov);
-                    } else {
-                        System.out.print("0.0000\t");
-                    }
-                }
-                System.out.println();
+        for (int i = 0; i < symbols.size(); i++) {
+            System.out.print(symbols.get(i) + "\t");
+            for (int j = 0; j < symbols.size(); j++) {
+                System.out.printf("%.4f\t", matrix[i][j]);
             }
+            System.out.println();
         }
     }
 
     public static void displayHistoricalPrices(String stockSymbol, Timestamp start, Timestamp end) {
-        try (Connection conn = DatabaseConnection.getConnection()) {
-            // Query that combines both historical and new stock data
-            String sql = """
-                    SELECT *
-                    FROM StockHistory
-                    WHERE symbol = ? AND timestamp BETWEEN ? AND ?
-                    """;
-
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            stmt.setString(1, stockSymbol);
-            stmt.setTimestamp(2, start);
-            stmt.setTimestamp(3, end);
-            ResultSet rs = stmt.executeQuery();
-
-            System.out.println("\nHistorical Data for " + stockSymbol + ":");
-            System.out.println("Date\t\t\tOpen\t\tHigh\t\tLow\t\tClose\t\tVolume");
-            System.out.println("----------------------------------------------------------------------------");
+        try {
+            // Use the in-memory history when it is enabled, otherwise read the database
+            PriceHistoryCache.SymbolHistory history = PriceHistoryCache.get(stockSymbol);
+            if (history != null) {
+                printHistoricalPricesHeader(stockSymbol);
+                int from = history.lowerBound(PriceHistoryCache.firstEpochDay(start));
+                int to = history.upperBound(PriceHistoryCache.lastEpochDay(end));
+                for (int i = from; i < to; i++) {
+                    System.out.println(java.sql.Date.valueOf(history.date(i)) + "\t\t" + (int) history.open(i) +
+                            "\t\t\t" + (int) history.high(i) + "\t\t\t" + (int) history.low(i) +
+                            "\t\t\t" + (int) history.close(i) + "\t\t\t" + history.volume(i));
+                }
+                return;
+            }
 
-            while (rs.next()) {
-                System.out.println(rs.getDate("timestamp") + "\t\t" + rs.getInt("open") +
-                        "\t\t\t" + rs.getInt("high") + "\t\t\t" + rs.getInt("low") +
-                        "\t\t\t" + rs.getInt("close") + "\t\t\t" + rs.getLong("volume"));
+            try (Connection conn = DatabaseConnection.getConnection()) {
+                // Query that combines both historical and new stock data
+                String sql = """
+                        SELECT *
+                        FROM StockHistory
+                        WHERE symbol = ? AND timestamp BETWEEN ? AND ?
+                        """;
+
+                PreparedStatement stmt = conn.prepareStatement(sql);
+                stmt.setString(1, stockSymbol);
+                stmt.setTimestamp(2, start);
+                stmt.setTimestamp(3, end);
+                ResultSet rs = stmt.executeQuery();
+
+                printHistoricalPricesHeader(stockSymbol);
+                while (rs.next()) {
+                    System.out.println(rs.getDate("timestamp") + "\t\t" + rs.getInt("open") +
+                            "\t\t\t" + rs.getInt("high") + "\t\t\t" + rs.getInt("low") +
+                            "\t\t\t" + rs.getInt("close") + "\t\t\t" + rs.getLong("volume"));
+                }
             }
 
         } catch (SQLException e) {
@@ -646,6 +674,12 @@ public class StatisticsManager {
         }
     }
 
+    private static void printHistoricalPricesHeader(String stockSymbol) {
+        System.out.println("\nHistorical Data for " + stockSymbol + ":");
+        System.out.println("Date\t\t\tOpen\t\tHigh\t\tLow\t\tClose\t\tVolume");
+        System.out.println("----------------------------------------------------------------------------");
+    }
+
     // Check date format
     public static boolean isValidDate(String date) {
         String regex = "\\d{4}-\\d{2}-\\d{2}";
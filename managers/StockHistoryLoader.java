@@ -0,0 +1,489 @@
+package managers;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// This class bulk loads StockHistory from CSV files laid out like SP500History.csv
+// (timestamp, open, high, low, close, volume, symbol). Files are memory-mapped and parsed in parallel chunks,
+// validated against the table's constraints, and streamed through COPY into a staging table that is then
+// upserted into StockHistory, so files do not need to be on the database host. At most two chunks per worker are
+// parsed or waiting to be streamed at a time, so memory stays bounded however large the files are.
+public class StockHistoryLoader {
+    private static final int CHUNK_SIZE = 16 * 1024 * 1024;
+    private static final long PROGRESS_INTERVAL_MS = 1000;
+    private static final long MAX_PRICE_CENTS = 10_000_000_000L; // DECIMAL(10, 2)
+    private static final int MAX_SYMBOL_LENGTH = 10;
+    private static final int MAX_REPORTED_ERRORS = 10;
+    private static final long NULL_VALUE = Long.MIN_VALUE;
+
+    // Outcome of a load
+    public record LoadResult(long rowsParsed, long rowsRejected, long rowsUpserted, Set<String> symbols,
+                             double seconds) {
+        public double rowsPerSecond() {
+            return seconds == 0 ? 0 : rowsParsed / seconds;
+        }
+    }
+
+    // Load one or more CSV files given on the command line
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.out.println("Usage: StockHistoryLoader <file.csv> [more.csv ...]");
+            return;
+        }
+        List<Path> files = new ArrayList<>();
+        for (String arg : args) {
+            files.add(Paths.get(arg));
+        }
+        try {
+            load(files);
+        } catch (IOException | SQLException e) {
+            System.err.println("Bulk load failed: " + e.getMessage());
+        } finally {
+            DatabaseConnection.shutdown();
+        }
+    }
+
+    // Parse, validate and upsert all rows of the given files in a single transaction
+    public static LoadResult load(List<Path> files) throws IOException, SQLException {
+        long startNanos = System.nanoTime();
+        int workers = Runtime.getRuntime().availableProcessors();
+        int maxInFlight = workers * 2;
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+
+        Set<String> symbols = new HashSet<>();
+        long parsed = 0, rejected = 0, upserted;
+        LocalDate earliestDate = null, latestDate = null;
+        List<String> errors = new ArrayList<>();
+
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("""
+                        CREATE TEMP TABLE StockHistoryStaging
+                        (LIKE StockHistory INCLUDING DEFAULTS EXCLUDING CONSTRAINTS, source_row BIGINT)
+                        ON COMMIT DROP
+                        """);
+            }
+
+            CopyManager copyManager = conn.unwrap(PGConnection.class).getCopyAPI();
+            CopyIn copyIn = copyManager.copyIn(
+                    "COPY StockHistoryStaging (timestamp, open, high, low, close, volume, symbol, source_row)"
+                            + " FROM STDIN WITH (FORMAT csv)");
+            try {
+                long lastReport = System.currentTimeMillis();
+                // Numbers the chunks of all files in input order, for the source_row of their rows
+                long chunkSequence = 0;
+                for (Path file : files) {
+                    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                        CompletionService<Chunk> completion = new ExecutorCompletionService<>(pool);
+                        List<long[]> ranges = splitIntoChunks(channel);
+                        long firstSequence = chunkSequence;
+                        chunkSequence += ranges.size();
+                        int submitted = 0;
+
+                        // Stream chunks to the server in whatever order they finish parsing, submitting the next
+                        // range only as one is streamed
+                        for (int i = 0; i < ranges.size(); i++) {
+                            for (; submitted < ranges.size() && submitted - i < maxInFlight; submitted++) {
+                                long[] range = ranges.get(submitted);
+                                long sequence = firstSequence + submitted;
+                                completion.submit(() -> parseChunk(channel, range[0], range[1], range[2] == 1,
+                                        sequence));
+                            }
+                            Chunk chunk = completion.take().get();
+                            copyIn.writeToCopy(chunk.copyBytes, 0, chunk.copyBytes.length);
+                            parsed += chunk.size;
+                            rejected += chunk.rejected;
+                            symbols.addAll(chunk.symbols);
+                            for (String error : chunk.errors) {
+                                if (errors.size() < MAX_REPORTED_ERRORS) {
+                                    errors.add(file.getFileName() + ": " + error);
+                                }
+                            }
+
+                            long now = System.currentTimeMillis();
+                            if (now - lastReport >= PROGRESS_INTERVAL_MS) {
+                                lastReport = now;
+                                double seconds = (System.nanoTime() - startNanos) / 1e9;
+                                System.out.printf("Streamed %,d rows (%,.0f rows/sec)%n", parsed, parsed / seconds);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while parsing " + file);
+                    } catch (ExecutionException e) {
+                        throw new IOException("Failed to parse " + file + ": " + e.getCause().getMessage(), e.getCause());
+                    }
+                }
+                copyIn.endCopy();
+            } finally {
+                if (copyIn.isActive()) {
+                    copyIn.cancelCopy();
+                }
+            }
+
+            // ON CONFLICT cannot touch a row twice, so repeated (symbol, timestamp) pairs in the input are collapsed
+            // to the one that came last in the input, as if the rows had been upserted one by one
+            String upsertSql = """
+                    INSERT INTO StockHistory (timestamp, open, high, low, close, volume, symbol)
+                    SELECT DISTINCT ON (symbol, timestamp) timestamp, open, high, low, close, volume, symbol
+                    FROM StockHistoryStaging
+                    ORDER BY symbol, timestamp, source_row DESC
+                    ON CONFLICT (symbol, timestamp) DO UPDATE
+                    SET open = EXCLUDED.open, high = EXCLUDED.high, low = EXCLUDED.low,
+                        close = EXCLUDED.close, volume = EXCLUDED.volume
+                    """;
+            try (Statement stmt = conn.createStatement()) {
+                // Give every loaded year its own partition, so new decades do not pile up in the default partition
+                ResultSet partitioned = stmt.executeQuery(
+                        "SELECT to_regproc('create_stock_history_partition') IS NOT NULL");
+                if (partitioned.next() && partitioned.getBoolean(1)) {
+                    stmt.execute("""
+                            SELECT create_stock_history_partition(year)
+                            FROM (SELECT DISTINCT EXTRACT(YEAR FROM timestamp)::INT AS year FROM StockHistoryStaging) y
+                            """);
+                }
+                upserted = stmt.executeUpdate(upsertSql);
+                ResultSet rs = stmt.executeQuery("SELECT MIN(timestamp), MAX(timestamp) FROM StockHistoryStaging");
+                if (rs.next() && rs.getDate(1) != null) {
+                    earliestDate = rs.getDate(1).toLocalDate();
+                    latestDate = rs.getDate(2).toLocalDate();
+                }
+            }
+            conn.commit();
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // Cached views of the touched symbols are now stale
+        for (String symbol : symbols) {
+            PriceHistoryCache.invalidate(symbol);
+            QuoteCache.invalidate(symbol);
+        }
+        if (earliestDate != null) {
+            MarketReturns.refresh(earliestDate);
+            StatisticsCache.invalidate(earliestDate);
+            TradingCalendar.invalidate();
+        }
+
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        LoadResult result = new LoadResult(parsed, rejected, upserted, symbols, seconds);
+        for (String error : errors) {
+            System.out.println("Rejected " + error);
+        }
+        System.out.printf("Loaded %,d rows for %d symbols in %.2fs (%,.0f rows/sec), %,d rows upserted, %,d rejected%n",
+                parsed, symbols.size(), seconds, result.rowsPerSecond(), upserted, rejected);
+        // Holdings of the loaded stocks are now valued at stale closes
+        if (latestDate != null) {
+            MarkToMarket.afterIngest(symbols, latestDate);
+        }
+        return result;
+    }
+
+    // Split a file into [start, end, isFirst] ranges that end on line boundaries
+    private static List<long[]> splitIntoChunks(FileChannel channel) throws IOException {
+        long size = channel.size();
+        List<long[]> ranges = new ArrayList<>();
+        long start = 0;
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        while (start < size) {
+            long end = Math.min(start + CHUNK_SIZE, size);
+            // Extend to just past the next newline
+            while (end < size) {
+                probe.clear();
+                int read = channel.read(probe, end);
+                int newline = -1;
+                for (int i = 0; i < read; i++) {
+                    if (probe.get(i) == '\n') {
+                        newline = i;
+                        break;
+                    }
+                }
+                if (newline >= 0) {
+                    end += newline + 1;
+                    break;
+                }
+                end += Math.max(read, 0);
+            }
+            ranges.add(new long[]{start, end, start == 0 ? 1 : 0});
+            start = end;
+        }
+        return ranges;
+    }
+
+    // Parse one range of the file into primitive columns and render the valid rows as COPY csv; sequence is the
+    // position of the range in the input
+    private static Chunk parseChunk(FileChannel channel, long start, long end, boolean first, long sequence)
+            throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        Chunk chunk = new Chunk();
+        long lineNumber = 0;
+        int pos = 0, limit = buffer.limit();
+        int[] fieldStart = new int[7];
+        int[] fieldEnd = new int[7];
+
+        while (pos < limit) {
+            int lineStart = pos;
+            while (pos < limit && buffer.get(pos) != '\n') {
+                pos++;
+            }
+            int lineEnd = pos > lineStart && buffer.get(pos - 1) == '\r' ? pos - 1 : pos;
+            pos++; // Skip the newline
+            lineNumber++;
+            if (lineEnd == lineStart) {
+                continue;
+            }
+            // Skip the header line
+            if (first && lineNumber == 1 && !isDigit(buffer.get(lineStart))) {
+                continue;
+            }
+
+            int fields = 0, f = lineStart;
+            for (int i = lineStart; i <= lineEnd && fields < 7; i++) {
+                if (i == lineEnd || buffer.get(i) == ',') {
+                    fieldStart[fields] = f;
+                    fieldEnd[fields] = i;
+                    fields++;
+                    f = i + 1;
+                }
+            }
+            String error = fields < 7 ? "expected 7 columns" : chunk.addRow(buffer, fieldStart, fieldEnd);
+            if (error != null) {
+                chunk.rejected++;
+                if (chunk.errors.size() < MAX_REPORTED_ERRORS) {
+                    chunk.errors.add("line at byte " + (start + lineStart) + ": " + error);
+                }
+            }
+        }
+        chunk.renderCopyBytes(sequence);
+        return chunk;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    // Parsed rows of one chunk, held column-wise in primitive arrays
+    private static final class Chunk {
+        private int[] epochDays = new int[4096];
+        private long[] open = new long[4096];
+        private long[] high = new long[4096];
+        private long[] low = new long[4096];
+        private long[] close = new long[4096];
+        private long[] volume = new long[4096];
+        private String[] symbolOf = new String[4096];
+        private int size = 0;
+        private long rejected = 0;
+        private final Set<String> symbols = new HashSet<>();
+        private final Map<String, String> interned = new HashMap<>();
+        private final List<String> errors = new ArrayList<>();
+        private byte[] copyBytes;
+
+        // Validate and append a row; returns an error message if the row violates StockHistory's constraints
+        private String addRow(ByteBuffer buffer, int[] fieldStart, int[] fieldEnd) {
+            int epochDay;
+            try {
+                epochDay = parseEpochDay(buffer, fieldStart[0], fieldEnd[0]);
+            } catch (RuntimeException e) {
+                return "invalid date";
+            }
+            long o = parseCents(buffer, fieldStart[1], fieldEnd[1]);
+            long h = parseCents(buffer, fieldStart[2], fieldEnd[2]);
+            long l = parseCents(buffer, fieldStart[3], fieldEnd[3]);
+            long c = parseCents(buffer, fieldStart[4], fieldEnd[4]);
+            long v = parseVolume(buffer, fieldStart[5], fieldEnd[5]);
+            if (!isValidPrice(o) || !isValidPrice(h) || !isValidPrice(l) || !isValidPrice(c)) {
+                return "price must be a non-negative DECIMAL(10, 2)";
+            }
+            if (v != NULL_VALUE && v < 0) {
+                return "volume must be non-negative";
+            }
+            String symbol = parseSymbol(buffer, fieldStart[6], fieldEnd[6]);
+            if (symbol.isEmpty() || symbol.length() > MAX_SYMBOL_LENGTH) {
+                return "symbol must be 1 to " + MAX_SYMBOL_LENGTH + " characters";
+            }
+
+            if (size == epochDays.length) {
+                grow();
+            }
+            epochDays[size] = epochDay;
+            open[size] = o;
+            high[size] = h;
+            low[size] = l;
+            close[size] = c;
+            volume[size] = v;
+            symbolOf[size] = symbol;
+            size++;
+            return null;
+        }
+
+        private void grow() {
+            int capacity = size * 2;
+            epochDays = Arrays.copyOf(epochDays, capacity);
+            open = Arrays.copyOf(open, capacity);
+            high = Arrays.copyOf(high, capacity);
+            low = Arrays.copyOf(low, capacity);
+            close = Arrays.copyOf(close, capacity);
+            volume = Arrays.copyOf(volume, capacity);
+            symbolOf = Arrays.copyOf(symbolOf, capacity);
+        }
+
+        private boolean isValidPrice(long cents) {
+            return cents == NULL_VALUE || (cents >= 0 && cents < MAX_PRICE_CENTS);
+        }
+
+        private String parseSymbol(ByteBuffer buffer, int from, int to) {
+            if (to - from >= 2 && buffer.get(from) == '"' && buffer.get(to - 1) == '"') {
+                from++;
+                to--;
+            }
+            byte[] bytes = new byte[to - from];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = buffer.get(from + i);
+            }
+            String symbol = new String(bytes, StandardCharsets.US_ASCII).trim();
+            String existing = interned.putIfAbsent(symbol, symbol);
+            if (existing != null) {
+                return existing;
+            }
+            symbols.add(symbol);
+            return symbol;
+        }
+
+        // Render the parsed rows in COPY csv format (empty field = NULL). The last column orders rows by their
+        // position in the input: the chunk's sequence number in the high 32 bits, the row within it in the low.
+        private void renderCopyBytes(long sequence) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(size * 48);
+            StringBuilder line = new StringBuilder(64);
+            for (int i = 0; i < size; i++) {
+                line.setLength(0);
+                line.append(LocalDate.ofEpochDay(epochDays[i])).append(',');
+                appendCents(line, open[i]).append(',');
+                appendCents(line, high[i]).append(',');
+                appendCents(line, low[i]).append(',');
+                appendCents(line, close[i]).append(',');
+                if (volume[i] != NULL_VALUE) {
+                    line.append(volume[i]);
+                }
+                line.append(',').append(symbolOf[i]).append(',').append(sequence << 32 | i).append('\n');
+                byte[] bytes = line.toString().getBytes(StandardCharsets.US_ASCII);
+                out.write(bytes, 0, bytes.length);
+            }
+            copyBytes = out.toByteArray();
+        }
+
+        private static StringBuilder appendCents(StringBuilder sb, long cents) {
+            if (cents == NULL_VALUE) {
+                return sb;
+            }
+            long fraction = cents % 100;
+            return sb.append(cents / 100).append('.').append(fraction < 10 ? "0" : "").append(fraction);
+        }
+    }
+
+    // Parse YYYY-MM-DD (anything after the date, such as a time, is ignored)
+    private static int parseEpochDay(ByteBuffer buffer, int from, int to) {
+        if (to - from < 10 || buffer.get(from + 4) != '-' || buffer.get(from + 7) != '-') {
+            throw new DateTimeException("invalid date");
+        }
+        int year = digits(buffer, from, 4);
+        int month = digits(buffer, from + 5, 2);
+        int day = digits(buffer, from + 8, 2);
+        return (int) LocalDate.of(year, month, day).toEpochDay();
+    }
+
+    private static int digits(ByteBuffer buffer, int from, int count) {
+        int value = 0;
+        for (int i = from; i < from + count; i++) {
+            byte b = buffer.get(i);
+            if (!isDigit(b)) {
+                throw new NumberFormatException();
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    // Parse a decimal price to cents, rounding half away from zero like NUMERIC; NULL_VALUE if empty
+    private static long parseCents(ByteBuffer buffer, int from, int to) {
+        if (from == to) {
+            return NULL_VALUE;
+        }
+        boolean negative = buffer.get(from) == '-';
+        int i = negative ? from + 1 : from;
+        long whole = 0;
+        while (i < to && isDigit(buffer.get(i))) {
+            whole = whole * 10 + (buffer.get(i) - '0');
+            if (whole > MAX_PRICE_CENTS) {
+                return Long.MAX_VALUE;
+            }
+            i++;
+        }
+        long fraction = 0;
+        int fractionDigits = 0;
+        boolean roundUp = false;
+        if (i < to && buffer.get(i) == '.') {
+            i++;
+            while (i < to && isDigit(buffer.get(i))) {
+                if (fractionDigits < 2) {
+                    fraction = fraction * 10 + (buffer.get(i) - '0');
+                } else if (fractionDigits == 2) {
+                    roundUp = buffer.get(i) >= '5';
+                }
+                fractionDigits++;
+                i++;
+            }
+        }
+        if (i != to) {
+            // Unusual notation such as an exponent
+            return parseCentsSlow(buffer, from, to);
+        }
+        if (fractionDigits == 1) {
+            fraction *= 10;
+        }
+        long cents = whole * 100 + fraction + (roundUp ? 1 : 0);
+        return negative ? -cents : cents;
+    }
+
+    private static long parseCentsSlow(ByteBuffer buffer, int from, int to) {
+        try {
+            double value = Double.parseDouble(asString(buffer, from, to));
+            return Math.abs(value) >= MAX_PRICE_CENTS / 100.0 ? Long.MAX_VALUE : Math.round(value * 100);
+        } catch (NumberFormatException e) {
+            return -1; // Rejected as an invalid price
+        }
+    }
+
+    // Parse an integer volume (a trailing ".0" is accepted); NULL_VALUE if empty
+    private static long parseVolume(ByteBuffer buffer, int from, int to) {
+        if (from == to) {
+            return NULL_VALUE;
+        }
+        try {
+            String text = asString(buffer, from, to);
+            int dot = text.indexOf('.');
+            return Long.parseLong(dot >= 0 ? text.substring(0, dot) : text);
+        } catch (NumberFormatException e) {
+            return -1; // Rejected as an invalid volume
+        }
+    }
+
+    private static String asString(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(from + i);
+        }
+        return new String(bytes, StandardCharsets.US_ASCII).trim();
+    }
+}
@@ -0,0 +1,317 @@
+package managers;
+
+import java.sql.*;
+import java.time.*;
+
+// This class converts an existing, unpartitioned StockHistory into the yearly range-partitioned layout of
+// create_database.sql while the application keeps running.
+//
+// 1. A temporary trigger records the key of every row written to StockHistory from now on.
+// 2. Each year is copied into its own table, indexed and attached to a new partitioned table, one transaction per year,
+//    so reads and writes continue against the old table and an interrupted run resumes with the next year.
+// 3. The cut-over blocks writes (not reads) for a moment: rows recorded by the trigger are re-copied,
+//    the tables are swapped by renaming, and the LatestQuote triggers are moved to the new table.
+//    The new indexes take the names create_database.sql and migrations/ give them, so later migrations find them.
+//
+// The old table is kept as StockHistory_unpartitioned, its indexes renamed with the same suffix, unless --drop-old
+// is given.
+// Usage: StockHistoryMigration [--drop-old]
+public class StockHistoryMigration {
+    private static final String NEW_TABLE = "stockhistory_partitioned";
+    private static final String OLD_TABLE = "stockhistory_unpartitioned";
+
+    public static void main(String[] args) {
+        boolean dropOld = args.length > 0 && args[0].equals("--drop-old");
+        try {
+            migrate(dropOld);
+        } catch (SQLException e) {
+            System.err.println("Migration failed: " + e.getMessage());
+        } finally {
+            DatabaseConnection.shutdown();
+        }
+    }
+
+    public static void migrate(boolean dropOld) throws SQLException {
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            if (isPartitioned(conn, "stockhistory")) {
+                System.out.println("StockHistory is already partitioned.");
+                return;
+            }
+
+            long start = System.nanoTime();
+            prepare(conn);
+
+            int[] years = yearRange(conn);
+            if (years != null) {
+                for (int year = years[0]; year <= years[1]; year++) {
+                    copyYear(conn, year);
+                }
+            }
+            addEmptyPartitions(conn, years == null ? LocalDate.now().getYear() : years[1] + 1);
+
+            long rows = cutOver(conn);
+            System.out.printf("StockHistory partitioned in %.1fs (%,d rows re-copied at cut-over)%n",
+                    (System.nanoTime() - start) / 1e9, rows);
+
+            if (dropOld) {
+                execute(conn, "DROP TABLE " + OLD_TABLE);
+                System.out.println("Dropped the unpartitioned table.");
+            } else {
+                System.out.println("The unpartitioned table was kept as StockHistory_unpartitioned; "
+                        + "drop it once the new table is verified.");
+            }
+        }
+    }
+
+    // Start recording writes and create the empty partitioned table (both idempotent, so a rerun resumes)
+    private static void prepare(Connection conn) throws SQLException {
+        conn.setAutoCommit(false);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("""
+                    CREATE TABLE IF NOT EXISTS StockHistoryMigrationLog (
+                        symbol VARCHAR(10),
+                        timestamp DATE,
+                        PRIMARY KEY (symbol, timestamp)
+                    )
+                    """);
+            stmt.execute("""
+                    CREATE OR REPLACE FUNCTION log_stock_history_migration()
+                    RETURNS TRIGGER AS $$
+                    BEGIN
+                        IF TG_OP <> 'INSERT' THEN
+                            INSERT INTO StockHistoryMigrationLog VALUES (OLD.symbol, OLD.timestamp)
+                            ON CONFLICT DO NOTHING;
+                        END IF;
+                        IF TG_OP <> 'DELETE' THEN
+                            INSERT INTO StockHistoryMigrationLog VALUES (NEW.symbol, NEW.timestamp)
+                            ON CONFLICT DO NOTHING;
+                        END IF;
+                        RETURN NULL;
+                    END;
+                    $$ LANGUAGE plpgsql
+                    """);
+            stmt.execute("DROP TRIGGER IF EXISTS trigger_log_stock_history_migration ON StockHistory");
+            stmt.execute("""
+                    CREATE TRIGGER trigger_log_stock_history_migration
+                    AFTER INSERT OR UPDATE OR DELETE ON StockHistory
+                    FOR EACH ROW
+                    EXECUTE FUNCTION log_stock_history_migration()
+                    """);
+
+            if (!tableExists(conn, NEW_TABLE)) {
+                stmt.execute("CREATE TABLE " + NEW_TABLE
+                        + " (LIKE StockHistory INCLUDING DEFAULTS INCLUDING CONSTRAINTS) PARTITION BY RANGE (timestamp)");
+                stmt.execute("ALTER TABLE " + NEW_TABLE + " ADD PRIMARY KEY (symbol, timestamp)");
+                stmt.execute("CREATE INDEX ON " + NEW_TABLE + " USING BRIN (timestamp)");
+                stmt.execute("CREATE INDEX ON " + NEW_TABLE + " (timestamp, symbol)");
+                // Added by migrations/add_stock_history_symbol_id.sql
+                if (columnExists(conn, NEW_TABLE, "symbol_id")) {
+                    stmt.execute("CREATE INDEX ON " + NEW_TABLE + " (symbol_id, timestamp)");
+                }
+            }
+        }
+        conn.commit();
+    }
+
+    // First and last year with data, or null if StockHistory is empty
+    private static int[] yearRange(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            ResultSet rs = stmt.executeQuery("SELECT MIN(timestamp), MAX(timestamp) FROM StockHistory");
+            int[] years = null;
+            if (rs.next() && rs.getDate(1) != null) {
+                years = new int[]{rs.getDate(1).toLocalDate().getYear(), rs.getDate(2).toLocalDate().getYear()};
+            }
+            conn.commit();
+            return years;
+        }
+    }
+
+    // Copy one year into a standalone table, index it, and attach it. Indexes that match the parent's are adopted
+    // by the attach, and the CHECK constraint lets it skip scanning the table to validate the bound.
+    private static void copyYear(Connection conn, int year) throws SQLException {
+        String partition = "stockhistory_y" + year;
+        if (tableExists(conn, partition)) {
+            return; // Attached by an earlier run
+        }
+        long start = System.nanoTime();
+        String from = "'" + LocalDate.of(year, 1, 1) + "'";
+        String to = "'" + LocalDate.of(year + 1, 1, 1) + "'";
+        long rows;
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE " + partition
+                    + " (LIKE " + NEW_TABLE + " INCLUDING DEFAULTS INCLUDING CONSTRAINTS)");
+            // Ordered by symbol, so each symbol's rows are contiguous on disk
+            rows = stmt.executeUpdate("INSERT INTO " + partition + " SELECT * FROM StockHistory"
+                    + " WHERE timestamp >= " + from + " AND timestamp < " + to + " ORDER BY symbol, timestamp");
+            stmt.execute("ALTER TABLE " + partition + " ADD PRIMARY KEY (symbol, timestamp)");
+            stmt.execute("CREATE INDEX ON " + partition + " USING BRIN (timestamp)");
+            stmt.execute("CREATE INDEX ON " + partition + " (timestamp, symbol)");
+            if (columnExists(conn, partition, "symbol_id")) {
+                stmt.execute("CREATE INDEX ON " + partition + " (symbol_id, timestamp)");
+            }
+            stmt.execute("ALTER TABLE " + partition + " ADD CONSTRAINT " + partition + "_bound"
+                    + " CHECK (timestamp >= " + from + " AND timestamp < " + to + ")");
+            stmt.execute("ALTER TABLE " + NEW_TABLE + " ATTACH PARTITION " + partition
+                    + " FOR VALUES FROM (" + from + ") TO (" + to + ")");
+            stmt.execute("ALTER TABLE " + partition + " DROP CONSTRAINT " + partition + "_bound");
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        }
+        System.out.printf("Copied %d: %,d rows in %.1fs%n", year, rows, (System.nanoTime() - start) / 1e9);
+    }
+
+    // Partitions for the years after the data through next year, plus the default partition
+    private static void addEmptyPartitions(Connection conn, int fromYear) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            for (int year = fromYear; year <= LocalDate.now().getYear() + 1; year++) {
+                stmt.execute(String.format("CREATE TABLE IF NOT EXISTS stockhistory_y%d PARTITION OF %s"
+                        + " FOR VALUES FROM ('%s') TO ('%s')", year, NEW_TABLE, LocalDate.of(year, 1, 1),
+                        LocalDate.of(year + 1, 1, 1)));
+            }
+            stmt.execute("CREATE TABLE IF NOT EXISTS stockhistory_default PARTITION OF " + NEW_TABLE + " DEFAULT");
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        }
+    }
+
+    // Block writes, re-copy the rows written since the copy started, and swap the tables. Returns rows re-copied.
+    private static long cutOver(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            // EXCLUSIVE still lets readers in; writers wait until the swap commits
+            stmt.execute("LOCK TABLE StockHistory IN EXCLUSIVE MODE");
+            stmt.executeUpdate("""
+                    DELETE FROM stockhistory_partitioned n
+                    USING StockHistoryMigrationLog l
+                    WHERE n.symbol = l.symbol AND n.timestamp = l.timestamp
+                    """);
+            long rows = stmt.executeUpdate("""
+                    INSERT INTO stockhistory_partitioned
+                    SELECT sh.*
+                    FROM StockHistory sh
+                    JOIN StockHistoryMigrationLog l ON sh.symbol = l.symbol AND sh.timestamp = l.timestamp
+                    """);
+
+            stmt.execute("DROP TRIGGER trigger_log_stock_history_migration ON StockHistory");
+            stmt.execute("ALTER TABLE StockHistory RENAME TO " + OLD_TABLE);
+            stmt.execute("ALTER TABLE " + NEW_TABLE + " RENAME TO StockHistory");
+            renameIndexes(conn, stmt);
+
+            // Triggers stay with the old table, so recreate them on the new one
+            stmt.execute("DROP TRIGGER IF EXISTS trigger_insert_latest_quote ON " + OLD_TABLE);
+            stmt.execute("DROP TRIGGER IF EXISTS trigger_update_latest_quote ON " + OLD_TABLE);
+            stmt.execute("""
+                    CREATE TRIGGER trigger_insert_latest_quote
+                    AFTER INSERT ON StockHistory
+                    REFERENCING NEW TABLE AS changed_rows
+                    FOR EACH STATEMENT
+                    EXECUTE FUNCTION update_latest_quote()
+                    """);
+            stmt.execute("""
+                    CREATE TRIGGER trigger_update_latest_quote
+                    AFTER UPDATE ON StockHistory
+                    REFERENCING NEW TABLE AS changed_rows
+                    FOR EACH STATEMENT
+                    EXECUTE FUNCTION update_latest_quote()
+                    """);
+            ResultSet rs = stmt.executeQuery("SELECT to_regproc('set_stock_history_symbol_id') IS NOT NULL");
+            if (rs.next() && rs.getBoolean(1)) {
+                stmt.execute("DROP TRIGGER IF EXISTS trigger_set_stock_history_symbol_id ON " + OLD_TABLE);
+                stmt.execute("""
+                        CREATE TRIGGER trigger_set_stock_history_symbol_id
+                        BEFORE INSERT OR UPDATE OF symbol ON StockHistory
+                        FOR EACH ROW
+                        EXECUTE FUNCTION set_stock_history_symbol_id()
+                        """);
+            }
+
+            stmt.execute("""
+                    CREATE OR REPLACE FUNCTION create_stock_history_partition(p_year INT)
+                    RETURNS VOID AS $$
+                    BEGIN
+                        EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF StockHistory FOR VALUES FROM (%L) TO (%L)',
+                                       'stockhistory_y' || p_year, make_date(p_year, 1, 1), make_date(p_year + 1, 1, 1));
+                    END;
+                    $$ LANGUAGE plpgsql
+                    """);
+            stmt.execute("DROP TABLE StockHistoryMigrationLog");
+            stmt.execute("DROP FUNCTION log_stock_history_migration()");
+            conn.commit();
+            return rows;
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        }
+    }
+
+    // Move the index names to the new table: the old table's indexes get the _unpartitioned suffix, and the new
+    // table's take the names of create_database.sql and migrations/add_stock_history_symbol_id.sql, which the
+    // migration creates IF NOT EXISTS by name
+    private static void renameIndexes(Connection conn, Statement stmt) throws SQLException {
+        stmt.execute("""
+                DO $$
+                DECLARE
+                    v_index TEXT;
+                BEGIN
+                    FOR v_index IN
+                        SELECT c.relname
+                        FROM pg_index i
+                        JOIN pg_class c ON c.oid = i.indexrelid
+                        WHERE i.indrelid = 'stockhistory_unpartitioned'::regclass
+                    LOOP
+                        EXECUTE format('ALTER INDEX %I RENAME TO %I', v_index, left(v_index, 49) || '_unpartitioned');
+                    END LOOP;
+                END;
+                $$
+                """);
+        stmt.execute("ALTER INDEX stockhistory_partitioned_pkey RENAME TO stockhistory_pkey");
+        stmt.execute("ALTER INDEX stockhistory_partitioned_timestamp_idx RENAME TO idx_stock_history_timestamp_brin");
+        stmt.execute("ALTER INDEX stockhistory_partitioned_timestamp_symbol_idx"
+                + " RENAME TO idx_stock_history_timestamp_symbol");
+        stmt.execute("ALTER INDEX IF EXISTS stockhistory_partitioned_symbol_id_timestamp_idx"
+                + " RENAME TO idx_stock_history_symbol_id_timestamp");
+        // Missing if the copy was started by a version of this class that did not create it
+        if (columnExists(conn, "stockhistory", "symbol_id")) {
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_stock_history_symbol_id_timestamp"
+                    + " ON StockHistory (symbol_id, timestamp)");
+        }
+    }
+
+    private static boolean columnExists(Connection conn, String table, String column) throws SQLException {
+        String sql = "SELECT EXISTS (SELECT 1 FROM pg_attribute WHERE attrelid = to_regclass(?) AND attname = ?"
+                + " AND NOT attisdropped)";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, table);
+            stmt.setString(2, column);
+            ResultSet rs = stmt.executeQuery();
+            return rs.next() && rs.getBoolean(1);
+        }
+    }
+
+    private static boolean isPartitioned(Connection conn, String table) throws SQLException {
+        String sql = "SELECT c.relkind = 'p' FROM pg_class c WHERE c.oid = to_regclass(?)";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, table);
+            ResultSet rs = stmt.executeQuery();
+            return rs.next() && rs.getBoolean(1);
+        }
+    }
+
+    private static boolean tableExists(Connection conn, String table) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT to_regclass(?) IS NOT NULL")) {
+            stmt.setString(1, table);
+            ResultSet rs = stmt.executeQuery();
+            return rs.next() && rs.getBoolean(1);
+        }
+    }
+
+    private static void execute(Connection conn, String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+        conn.commit();
+    }
+}
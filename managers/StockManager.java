@@ -18,7 +18,8 @@ public class StockManager {
                     3. View Specific Stock Information
                     4. Update Stock Information
                     5. View All Stocks
-                    6. Back to Main Menu
+                    6. Bulk Load Stock History from CSV Files
+                    7. Back to Main Menu
                     """);
             System.out.print("Choose an option: ");
             if (!scanner.hasNextInt()) {
@@ -85,6 +86,25 @@ public class StockManager {
                     }
                     break;
                 case 6:
+                    System.out.print("Enter the CSV file paths, separated by spaces: ");
+                    String[] paths = scanner.nextLine().trim().split("\\s+");
+                    List<java.nio.file.Path> files = new ArrayList<>();
+                    for (String path : paths) {
+                        if (!path.isEmpty()) {
+                            files.add(java.nio.file.Paths.get(path));
+                        }
+                    }
+                    if (files.isEmpty()) {
+                        System.out.println("No files given.");
+                        break;
+                    }
+                    try {
+                        StockHistoryLoader.load(files);
+                    } catch (java.io.IOException | SQLException e) {
+                        System.err.println("Bulk load failed: " + e.getMessage());
+                    }
+                    break;
+                case 7:
                     System.out.println("Exiting the stock management dashboard.");
                     return;
                 default:
@@ -178,6 +198,9 @@ public class StockManager {
 
             pstmt.setString(1, symbol);
             pstmt.executeUpdate();
+            PriceHistoryCache.invalidate(symbol);
+            QuoteCache.invalidate(symbol);
+            StatisticsCache.invalidate(symbol);
             System.out.println("Stock removed successfully!");
 
         } catch (SQLException e) {
@@ -279,6 +302,12 @@ public class StockManager {
             pstmt.setDouble(6, close);
             pstmt.setLong(7, volume);
             pstmt.executeUpdate();
+            PriceHistoryCache.refresh(symbol, java.time.LocalDate.parse(dateInput));
+            QuoteCache.refresh(symbol);
+            MarketReturns.refresh(java.time.LocalDate.parse(dateInput));
+            StatisticsCache.invalidate(java.time.LocalDate.parse(dateInput));
+            TradingCalendar.markTradingDay(java.time.LocalDate.parse(dateInput));
+            MarkToMarket.afterIngest(List.of(symbol), java.time.LocalDate.parse(dateInput));
             System.out.println("Stock added successfully!");
 
         } catch (SQLException e) {
@@ -412,6 +441,12 @@ public class StockManager {
             pstmt.setString(6, symbol);
             pstmt.setDate(7, java.sql.Date.valueOf(date));
             pstmt.executeUpdate();
+            PriceHistoryCache.refresh(symbol, java.time.LocalDate.parse(date));
+            QuoteCache.refresh(symbol);
+            MarketReturns.refresh(java.time.LocalDate.parse(date));
+            StatisticsCache.invalidate(java.time.LocalDate.parse(date));
+            TradingCalendar.markTradingDay(java.time.LocalDate.parse(date));
+            MarkToMarket.afterIngest(List.of(symbol), java.time.LocalDate.parse(date));
             System.out.println("Stock history updated successfully!");
 
         } catch (SQLException e) {
@@ -444,15 +479,10 @@ public class StockManager {
 
     // Get stock price for a specific symbol
     public double getStockPrice(String symbol) {
-        String sql = "SELECT close FROM StockHistory WHERE symbol = ? ORDER BY timestamp DESC LIMIT 1";
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-            pstmt.setString(1, symbol);
-            ResultSet rs = pstmt.executeQuery();
-
-            if (rs.next()) {
-                return rs.getDouble("close");
+        try {
+            QuoteCache.Quote quote = QuoteCache.get(symbol);
+            if (quote != null) {
+                return quote.close();
             } else {
                 System.out.println("Stock not found!");
             }
@@ -466,6 +496,25 @@ public class StockManager {
     // Get stock history for a specific symbol for a specific date
     public void getStockHistory(String symbol, String date) {
         List<Double> stockHistory = new ArrayList<>();
+        // Serve from memory when the history cache is enabled
+        if (PriceHistoryCache.isEnabled()) {
+            try {
+                PriceHistoryCache.SymbolHistory history = PriceHistoryCache.get(symbol);
+                int i = history.indexOf((int) java.time.LocalDate.parse(date).toEpochDay());
+                if (i >= 0) {
+                    stockHistory.add(history.open(i));
+                    stockHistory.add(history.high(i));
+                    stockHistory.add(history.low(i));
+                    stockHistory.add(history.close(i));
+                    stockHistory.add((double) history.volume(i));
+                }
+                printStockHistory(symbol, date, stockHistory);
+            } catch (SQLException e) {
+                System.err.println(e.getMessage());
+            }
+            return;
+        }
+
         String sql = "SELECT * FROM StockHistory WHERE symbol = ? AND timestamp = ?";
         try (Connection conn = DatabaseConnection.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
@@ -482,20 +531,24 @@ public class StockManager {
                 stockHistory.add((double) rs.getLong("volume"));
             }
 
-            if (stockHistory.isEmpty()) {
-                System.out.println("No stock history found for the given date.");
-            } else {
-                System.out.println("\nStock history for " + symbol + " on " + date + ":");
-                System.out.println("Open: " + stockHistory.get(0));
-                System.out.println("High: " + stockHistory.get(1));
-                System.out.println("Low: " + stockHistory.get(2));
-                System.out.println("Close: " + stockHistory.get(3));
-                System.out.println("Volume: " + stockHistory.get(4));
-            }
+            printStockHistory(symbol, date, stockHistory);
 
         } catch (SQLException e) {
             System.err.println(e.getMessage());
         }
     }
-}
 
+    // Print the open, high, low, close and volume of a stock on a date
+    private void printStockHistory(String symbol, String date, List<Double> stockHistory) {
+        if (stockHistory.isEmpty()) {
+            System.out.println("No stock history found for the given date.");
+        } else {
+            System.out.println("\nStock history for " + symbol + " on " + date + ":");
+            System.out.println("Open: " + stockHistory.get(0));
+            System.out.println("High: " + stockHistory.get(1));
+            System.out.println("Low: " + stockHistory.get(2));
+            System.out.println("Close: " + stockHistory.get(3));
+            System.out.println("Volume: " + stockHistory.get(4));
+        }
+    }
+}
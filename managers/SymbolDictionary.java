@@ -0,0 +1,110 @@
+package managers;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// This class interns ticker symbols to dense int ids (0, 1, 2, ...), so in-memory structures can be plain arrays
+// indexed by id instead of maps keyed by strings. Every symbol in Stock is assigned an id on first use, in the order of
+// Stock.symbol_id; symbols seen later (new stocks, or history of stocks not in Stock) get the next free id.
+// Ids are only meaningful within this process.
+public class SymbolDictionary {
+    private static final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private static volatile String[] symbols = new String[0];
+    private static volatile boolean loaded = false;
+
+    // Id of a symbol, assigning the next free one if it has none yet
+    public static int intern(String symbol) {
+        Integer id = ids.get(symbol);
+        if (id != null) {
+            return id;
+        }
+        ensureLoaded();
+        synchronized (SymbolDictionary.class) {
+            id = ids.get(symbol);
+            return id != null ? id : assign(symbol);
+        }
+    }
+
+    // Id of a symbol, or -1 if it was never interned
+    public static int id(String symbol) {
+        ensureLoaded();
+        Integer id = ids.get(symbol);
+        return id == null ? -1 : id;
+    }
+
+    public static String symbol(int id) {
+        return symbols[id];
+    }
+
+    // Number of ids assigned so far; every id is below this
+    public static int size() {
+        return ids.size();
+    }
+
+    public static int[] intern(List<String> symbols) {
+        int[] result = new int[symbols.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = intern(symbols.get(i));
+        }
+        return result;
+    }
+
+    // Position of each symbol in the list, indexed by id (-1 for ids not in the list)
+    public static int[] positions(List<String> symbols) {
+        int[] symbolIds = intern(symbols);
+        int[] positions = new int[size()];
+        Arrays.fill(positions, -1);
+        for (int i = 0; i < symbolIds.length; i++) {
+            positions[symbolIds[i]] = i;
+        }
+        return positions;
+    }
+
+    // Position of a symbol in a positions() table, or -1
+    public static int position(int[] positions, String symbol) {
+        int id = id(symbol);
+        return id >= 0 && id < positions.length ? positions[id] : -1;
+    }
+
+    // Assign ids to every stock in Stock in one query
+    private static void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        synchronized (SymbolDictionary.class) {
+            if (loaded) {
+                return;
+            }
+            String sql = "SELECT symbol FROM Stock ORDER BY symbol_id";
+            try (Connection conn = DatabaseConnection.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(sql)) {
+                ResultSet rs = stmt.executeQuery();
+                while (rs.next()) {
+                    String symbol = rs.getString("symbol");
+                    if (!ids.containsKey(symbol)) {
+                        assign(symbol);
+                    }
+                }
+            } catch (SQLException | RuntimeException e) {
+                // Symbols are still interned on demand, only without the up-front dense block
+                System.err.println(e.getMessage());
+            }
+            loaded = true;
+        }
+    }
+
+    // Caller holds the class lock
+    private static int assign(String symbol) {
+        int id = ids.size();
+        String[] current = symbols;
+        if (id == current.length) {
+            current = Arrays.copyOf(current, Math.max(16, id * 2));
+        }
+        current[id] = symbol;
+        // Publish the name before the id, so symbol(id) works for anyone who can see the id
+        symbols = current;
+        ids.put(symbol, id);
+        return id;
+    }
+}
@@ -0,0 +1,60 @@
+package managers;
+
+import java.util.concurrent.atomic.*;
+
+// A thread-safe array of values indexed by SymbolDictionary id, growing as new symbols are interned.
+// Reads are a plain array access without locking; writes are rare (cache loads) and take the table's lock,
+// so a write can never be lost to a concurrent resize.
+final class SymbolTable<T> {
+    private volatile AtomicReferenceArray<T> values = new AtomicReferenceArray<>(0);
+
+    T get(int id) {
+        AtomicReferenceArray<T> current = values;
+        return id < current.length() ? current.get(id) : null;
+    }
+
+    T get(String symbol) {
+        int id = SymbolDictionary.id(symbol);
+        return id < 0 ? null : get(id);
+    }
+
+    synchronized void put(int id, T value) {
+        ensureCapacity(id + 1).set(id, value);
+    }
+
+    void put(String symbol, T value) {
+        put(SymbolDictionary.intern(symbol), value);
+    }
+
+    // Set the value unless one is already present; returns the value now in the table
+    synchronized T putIfAbsent(int id, T value) {
+        AtomicReferenceArray<T> current = ensureCapacity(id + 1);
+        T existing = current.get(id);
+        if (existing != null) {
+            return existing;
+        }
+        current.set(id, value);
+        return value;
+    }
+
+    synchronized void remove(String symbol) {
+        int id = SymbolDictionary.id(symbol);
+        if (id >= 0 && id < values.length()) {
+            values.set(id, null);
+        }
+    }
+
+    private AtomicReferenceArray<T> ensureCapacity(int capacity) {
+        AtomicReferenceArray<T> current = values;
+        if (capacity > current.length()) {
+            int length = Math.max(capacity, Math.max(SymbolDictionary.size(), current.length() * 2));
+            AtomicReferenceArray<T> grown = new AtomicReferenceArray<>(length);
+            for (int i = 0; i < current.length(); i++) {
+                grown.set(i, current.get(i));
+            }
+            values = grown;
+            current = grown;
+        }
+        return current;
+    }
+}
@@ -0,0 +1,334 @@
+package managers;
+
+import java.math.*;
+import java.sql.*;
+import java.util.*;
+
+// This class executes buys and sells of portfolio holdings through the execute_trade database function.
+// Each trade is one round trip and one transaction: the portfolio row is locked, the latest close is the fill price,
+// and the holding and cash balance change together or not at all.
+// Batches of orders, e.g. from rebalancing many portfolios, run in one transaction with set-based reads and writes.
+public class TradeExecutor {
+    public enum Side {
+        BUY,
+        SELL
+    }
+
+    // One order of a batch
+    public record Order(int portfolioId, String symbol, Side side, int shares) {
+        int signedShares() {
+            return side == Side.BUY ? shares : -shares;
+        }
+    }
+
+    // Per-order results of a batch, in order; rejected orders changed nothing and did not affect the others
+    public record BatchResult(List<TradeResult> results) {
+        public int filledCount() {
+            int filled = 0;
+            for (TradeResult result : results) {
+                if (result.isFilled()) {
+                    filled++;
+                }
+            }
+            return filled;
+        }
+
+        public List<TradeResult> rejected() {
+            List<TradeResult> rejected = new ArrayList<>();
+            for (TradeResult result : results) {
+                if (!result.isFilled()) {
+                    rejected.add(result);
+                }
+            }
+            return rejected;
+        }
+    }
+
+    public enum Status {
+        FILLED,
+        NO_PORTFOLIO,
+        UNKNOWN_STOCK,
+        NO_QUOTE,
+        INVALID_QUANTITY,
+        INSUFFICIENT_FUNDS,
+        INSUFFICIENT_SHARES
+    }
+
+    // Outcome of a trade. position and cashBalance are the portfolio's state after the trade (unchanged if it was
+    // rejected, 0 if the portfolio does not exist); fillPrice is NaN if the stock has no price.
+    public record TradeResult(Status status, String symbol, int shares, double fillPrice, int position,
+                              double cashBalance) {
+        public boolean isFilled() {
+            return status == Status.FILLED;
+        }
+
+        // Cash paid (buy) or received (sell) for the shares traded
+        public double amount() {
+            return isFilled() ? Math.abs(shares) * fillPrice : 0;
+        }
+
+        public String message() {
+            return switch (status) {
+                case FILLED -> String.format("%s %d shares of %s at $%.2f ($%.2f). Position: %d shares, cash balance: $%.2f",
+                        shares > 0 ? "Bought" : "Sold", Math.abs(shares), symbol, fillPrice, amount(), position,
+                        cashBalance);
+                case NO_PORTFOLIO -> "Portfolio not found!";
+                case UNKNOWN_STOCK -> "Stock does not exist! Please add it first!";
+                case NO_QUOTE -> "Stock " + symbol + " has no price history yet!";
+                case INVALID_QUANTITY -> "Number of shares must be greater than zero.";
+                case INSUFFICIENT_FUNDS -> "You do not have enough funds to buy this stock!";
+                case INSUFFICIENT_SHARES -> "You do not own enough shares to sell!";
+            };
+        }
+    }
+
+    // A non-positive number of shares is rejected as INVALID_QUANTITY rather than trading the other way
+    public static TradeResult buy(int portfolioId, String symbol, int shares) throws SQLException {
+        return execute(portfolioId, symbol, Math.max(shares, 0));
+    }
+
+    public static TradeResult sell(int portfolioId, String symbol, int shares) throws SQLException {
+        return execute(portfolioId, symbol, -Math.max(shares, 0));
+    }
+
+    // Trade signedShares of a stock: positive buys, negative sells
+    public static TradeResult execute(int portfolioId, String symbol, int signedShares) throws SQLException {
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            return execute(conn, portfolioId, symbol, signedShares);
+        }
+    }
+
+    // Same, on a caller's connection, so the trade joins the caller's transaction if autocommit is off
+    static TradeResult execute(Connection conn, int portfolioId, String symbol, int signedShares) throws SQLException {
+        String sql = "SELECT status, fill_price, shares_held, cash_balance FROM execute_trade(?, ?, ?)";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, portfolioId);
+            stmt.setString(2, symbol);
+            stmt.setInt(3, signedShares);
+            ResultSet rs = stmt.executeQuery();
+            rs.next();
+            return toResult(rs, symbol, signedShares);
+        }
+    }
+
+    // Execute a batch of orders in one transaction, applied in list order with the same rules as execute_trade.
+    // Every portfolio involved is locked up front, all prices are read in one query, and the resulting holdings and
+    // cash balances are written with one statement each.
+    public static BatchResult executeBatch(List<Order> orders) throws SQLException {
+        if (orders.isEmpty()) {
+            return new BatchResult(List.of());
+        }
+        Set<Integer> portfolioIds = new TreeSet<>();
+        Set<String> symbols = new TreeSet<>();
+        for (Order order : orders) {
+            portfolioIds.add(order.portfolioId());
+            symbols.add(order.symbol());
+        }
+
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                // Amounts are kept in cents so the balances match the DECIMAL columns exactly
+                Map<Integer, Long> cash = lockPortfolios(conn, portfolioIds);
+                Map<String, Long> prices = new HashMap<>();
+                Set<String> knownSymbols = loadPrices(conn, symbols, prices);
+                Map<Integer, Map<String, Integer>> positions = loadPositions(conn, portfolioIds, symbols);
+                Map<Integer, Map<String, Integer>> changed = new HashMap<>();
+
+                List<TradeResult> results = new ArrayList<>(orders.size());
+                for (Order order : orders) {
+                    results.add(apply(order, cash, prices, knownSymbols, positions, changed));
+                }
+
+                writePositions(conn, changed);
+                writeCash(conn, cash, changed.keySet());
+                conn.commit();
+                return new BatchResult(results);
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private static TradeResult apply(Order order, Map<Integer, Long> cash, Map<String, Long> prices,
+                                     Set<String> knownSymbols, Map<Integer, Map<String, Integer>> positions,
+                                     Map<Integer, Map<String, Integer>> changed) {
+        int signedShares = order.signedShares();
+        Long balance = cash.get(order.portfolioId());
+        if (balance == null) {
+            return new TradeResult(Status.NO_PORTFOLIO, order.symbol(), signedShares, Double.NaN, 0, 0);
+        }
+        Map<String, Integer> held = positions.computeIfAbsent(order.portfolioId(), k -> new HashMap<>());
+        int position = held.getOrDefault(order.symbol(), 0);
+        Long price = prices.get(order.symbol());
+        double fillPrice = price == null ? Double.NaN : price / 100.0;
+
+        Status status;
+        if (order.shares() <= 0) {
+            status = Status.INVALID_QUANTITY;
+        } else if (price == null) {
+            status = knownSymbols.contains(order.symbol()) ? Status.NO_QUOTE : Status.UNKNOWN_STOCK;
+        } else if (order.side() == Side.BUY && price * order.shares() > balance) {
+            status = Status.INSUFFICIENT_FUNDS;
+        } else if (order.side() == Side.SELL && position < order.shares()) {
+            status = Status.INSUFFICIENT_SHARES;
+        } else {
+            status = Status.FILLED;
+            balance -= price * signedShares;
+            position += signedShares;
+            cash.put(order.portfolioId(), balance);
+            held.put(order.symbol(), position);
+            changed.computeIfAbsent(order.portfolioId(), k -> new HashMap<>()).put(order.symbol(), position);
+        }
+        return new TradeResult(status, order.symbol(), signedShares, fillPrice, position, balance / 100.0);
+    }
+
+    // Lock the portfolio rows in id order, so concurrent batches cannot deadlock, and read their cash in cents
+    private static Map<Integer, Long> lockPortfolios(Connection conn, Set<Integer> portfolioIds) throws SQLException {
+        String sql = """
+                SELECT portfolio_id, cash_balance
+                FROM Portfolio
+                WHERE portfolio_id = ANY(?)
+                ORDER BY portfolio_id
+                FOR UPDATE
+                """;
+        Map<Integer, Long> cash = new HashMap<>();
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setArray(1, conn.createArrayOf("integer", portfolioIds.toArray()));
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                cash.put(rs.getInt("portfolio_id"), toCents(rs.getBigDecimal("cash_balance")));
+            }
+        }
+        return cash;
+    }
+
+    // Read the latest close in cents of every symbol that has one into prices; returns the symbols that exist
+    private static Set<String> loadPrices(Connection conn, Set<String> symbols, Map<String, Long> prices)
+            throws SQLException {
+        String sql = """
+                SELECT s.symbol, lq.close
+                FROM Stock s
+                LEFT JOIN LatestQuote lq ON s.symbol = lq.symbol
+                WHERE s.symbol = ANY(?)
+                """;
+        Set<String> known = new HashSet<>();
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setArray(1, conn.createArrayOf("varchar", symbols.toArray()));
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                String symbol = rs.getString("symbol");
+                known.add(symbol);
+                BigDecimal close = rs.getBigDecimal("close");
+                if (close != null) {
+                    prices.put(symbol, toCents(close));
+                }
+            }
+        }
+        return known;
+    }
+
+    private static Map<Integer, Map<String, Integer>> loadPositions(Connection conn, Set<Integer> portfolioIds,
+                                                                    Set<String> symbols) throws SQLException {
+        String sql = """
+                SELECT portfolio_id, symbol, shares
+                FROM PortfolioHolding
+                WHERE portfolio_id = ANY(?) AND symbol = ANY(?)
+                """;
+        Map<Integer, Map<String, Integer>> positions = new HashMap<>();
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setArray(1, conn.createArrayOf("integer", portfolioIds.toArray()));
+            stmt.setArray(2, conn.createArrayOf("varchar", symbols.toArray()));
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                positions.computeIfAbsent(rs.getInt("portfolio_id"), k -> new HashMap<>())
+                        .put(rs.getString("symbol"), rs.getInt("shares"));
+            }
+        }
+        return positions;
+    }
+
+    // Upsert the final position of every traded holding, and delete the ones sold down to 0 shares
+    private static void writePositions(Connection conn, Map<Integer, Map<String, Integer>> changed)
+            throws SQLException {
+        List<Integer> upsertIds = new ArrayList<>(), deleteIds = new ArrayList<>();
+        List<String> upsertSymbols = new ArrayList<>(), deleteSymbols = new ArrayList<>();
+        List<Integer> upsertShares = new ArrayList<>();
+        for (Map.Entry<Integer, Map<String, Integer>> portfolio : changed.entrySet()) {
+            for (Map.Entry<String, Integer> holding : portfolio.getValue().entrySet()) {
+                if (holding.getValue() > 0) {
+                    upsertIds.add(portfolio.getKey());
+                    upsertSymbols.add(holding.getKey());
+                    upsertShares.add(holding.getValue());
+                } else {
+                    deleteIds.add(portfolio.getKey());
+                    deleteSymbols.add(holding.getKey());
+                }
+            }
+        }
+
+        if (!upsertIds.isEmpty()) {
+            String sql = """
+                    INSERT INTO PortfolioHolding (portfolio_id, symbol, shares)
+                    SELECT * FROM UNNEST(?::integer[], ?::varchar[], ?::integer[])
+                    ON CONFLICT (portfolio_id, symbol) DO UPDATE SET shares = EXCLUDED.shares
+                    """;
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setArray(1, conn.createArrayOf("integer", upsertIds.toArray()));
+                stmt.setArray(2, conn.createArrayOf("varchar", upsertSymbols.toArray()));
+                stmt.setArray(3, conn.createArrayOf("integer", upsertShares.toArray()));
+                stmt.executeUpdate();
+            }
+        }
+        if (!deleteIds.isEmpty()) {
+            String sql = """
+                    DELETE FROM PortfolioHolding ph
+                    USING UNNEST(?::integer[], ?::varchar[]) AS d(portfolio_id, symbol)
+                    WHERE ph.portfolio_id = d.portfolio_id AND ph.symbol = d.symbol
+                    """;
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setArray(1, conn.createArrayOf("integer", deleteIds.toArray()));
+                stmt.setArray(2, conn.createArrayOf("varchar", deleteSymbols.toArray()));
+                stmt.executeUpdate();
+            }
+        }
+    }
+
+    private static void writeCash(Connection conn, Map<Integer, Long> cash, Set<Integer> portfolioIds)
+            throws SQLException {
+        if (portfolioIds.isEmpty()) {
+            return;
+        }
+        List<Integer> ids = new ArrayList<>(portfolioIds);
+        BigDecimal[] balances = new BigDecimal[ids.size()];
+        for (int i = 0; i < ids.size(); i++) {
+            balances[i] = BigDecimal.valueOf(cash.get(ids.get(i)), 2);
+        }
+        String sql = """
+                UPDATE Portfolio p
+                SET cash_balance = c.cash_balance
+                FROM UNNEST(?::integer[], ?::numeric[]) AS c(portfolio_id, cash_balance)
+                WHERE p.portfolio_id = c.portfolio_id
+                """;
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setArray(1, conn.createArrayOf("integer", ids.toArray()));
+            stmt.setArray(2, conn.createArrayOf("numeric", balances));
+            stmt.executeUpdate();
+        }
+    }
+
+    private static long toCents(BigDecimal amount) {
+        return amount.movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact();
+    }
+
+    static TradeResult toResult(ResultSet rs, String symbol, int signedShares) throws SQLException {
+        Status status = Status.valueOf(rs.getString("status"));
+        double fillPrice = rs.getDouble("fill_price");
+        if (rs.wasNull()) {
+            fillPrice = Double.NaN;
+        }
+        return new TradeResult(status, symbol, signedShares, fillPrice, rs.getInt("shares_held"),
+                rs.getDouble("cash_balance"));
+    }
+}
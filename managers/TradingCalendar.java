@@ -0,0 +1,227 @@
+package managers;
+
+import java.nio.*;
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+
+// This class is the trading calendar derived from StockHistory: a bitmap with one bit per calendar day, set on every
+// day on which any stock has a bar. It aligns several close series on it in one linear pass, using a presence bitmap
+// per symbol, so statistics see the same days for every symbol instead of whatever a join by date happens to keep.
+//   DROP          keep only the trading days on which every symbol has a close
+//   FORWARD_FILL  keep every trading day once every symbol has started trading, carrying the last close over gaps
+// A symbol without any close in the window (and, when forward filling, none to carry into it) is missing: its row is
+// left NaN and it does not limit the days kept for the others (see missingSymbols).
+public final class TradingCalendar {
+    public enum FillPolicy {
+        DROP, FORWARD_FILL;
+
+        // Policy named by a system property value (drop, forward or forward_fill); null for anything else
+        public static FillPolicy parse(String value) {
+            if (value == null) {
+                return null;
+            }
+            switch (value.trim().toLowerCase()) {
+                case "drop":
+                    return DROP;
+                case "forward":
+                case "forward_fill":
+                    return FORWARD_FILL;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    // Calendar currently held in memory, loaded on first use
+    private static volatile TradingCalendar calendar;
+
+    // Bit d is set if epoch day baseDay + d is a trading day
+    private final int baseDay;
+    private final BitSet days;
+
+    private TradingCalendar(int baseDay, BitSet days) {
+        this.baseDay = baseDay;
+        this.days = days;
+    }
+
+    public static TradingCalendar get() throws SQLException {
+        TradingCalendar current = calendar;
+        if (current == null) {
+            synchronized (TradingCalendar.class) {
+                current = calendar;
+                if (current == null) {
+                    current = load();
+                    calendar = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    // Forget the calendar, e.g. after a bulk load; it is read again on next use
+    public static void invalidate() {
+        calendar = null;
+    }
+
+    // Record that StockHistory now has a bar on the given day
+    public static synchronized void markTradingDay(LocalDate date) {
+        TradingCalendar current = calendar;
+        if (current == null) {
+            return; // Will be read with the day on first use
+        }
+        int day = (int) date.toEpochDay();
+        if (day < current.baseDay) {
+            calendar = null;
+            return;
+        }
+        // Copy on write, so readers never see a bitmap being changed
+        BitSet days = (BitSet) current.days.clone();
+        days.set(day - current.baseDay);
+        calendar = new TradingCalendar(current.baseDay, days);
+    }
+
+    private static TradingCalendar load() throws SQLException {
+        String sql = """
+                SELECT DISTINCT timestamp
+                FROM StockHistory
+                ORDER BY timestamp
+                """;
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            ResultSet rs = stmt.executeQuery();
+            int baseDay = 0;
+            BitSet days = new BitSet();
+            boolean first = true;
+            while (rs.next()) {
+                int day = (int) rs.getDate("timestamp").toLocalDate().toEpochDay();
+                if (first) {
+                    baseDay = day;
+                    first = false;
+                }
+                days.set(day - baseDay);
+            }
+            return new TradingCalendar(baseDay, days);
+        }
+    }
+
+    public boolean isTradingDay(int epochDay) {
+        return epochDay >= baseDay && days.get(epochDay - baseDay);
+    }
+
+    // Trading days in [firstDay, lastDay], in order
+    public int[] tradingDays(int firstDay, int lastDay) {
+        int from = Math.max(0, firstDay - baseDay);
+        int to = lastDay - baseDay + 1;
+        if (to <= from) {
+            return new int[0];
+        }
+        BitSet window = days.get(from, to);
+        int[] result = new int[window.cardinality()];
+        int k = 0;
+        for (int d = window.nextSetBit(0); d >= 0; d = window.nextSetBit(d + 1)) {
+            result[k++] = baseDay + from + d;
+        }
+        return result;
+    }
+
+    // Align the rows of closes (NaN = missing) on this calendar under the policy; the result has no NaN outside the
+    // rows of missing symbols.
+    // carry holds each symbol's last close before the window (NaN if none) and is updated to its last close in it,
+    // so consecutive windows can be aligned one after another; pass null for a single window.
+    public PriceMatrix align(PriceMatrix closes, FillPolicy policy, double[] carry) {
+        int k = closes.rows();
+        int n = closes.days();
+        if (carry == null) {
+            carry = new double[k];
+            Arrays.fill(carry, Double.NaN);
+        }
+
+        // Axis: the trading days of the window, plus any day of the matrix the calendar does not know yet.
+        // column[p] is the matrix column of axis day p, or -1 if no symbol has a close on it.
+        int[] calendarDays = n == 0 ? new int[0] : tradingDays(closes.epochDay(0), closes.epochDay(n - 1));
+        int[] axis = new int[calendarDays.length + n];
+        int[] column = new int[axis.length];
+        int size = 0;
+        for (int c = 0, t = 0; c < calendarDays.length || t < n; ) {
+            int day;
+            if (t == n || (c < calendarDays.length && calendarDays[c] < closes.epochDay(t))) {
+                day = calendarDays[c++];
+                column[size] = -1;
+            } else {
+                day = closes.epochDay(t);
+                if (c < calendarDays.length && calendarDays[c] == day) {
+                    c++;
+                }
+                column[size] = t++;
+            }
+            axis[size++] = day;
+        }
+
+        // Presence of every symbol on the axis, and the days to keep
+        BitSet keep = new BitSet(size);
+        keep.set(0, size);
+        BitSet missing = new BitSet(k);
+        for (int i = 0; i < k; i++) {
+            DoubleBuffer row = closes.row(i);
+            BitSet present = new BitSet(size);
+            for (int p = 0; p < size; p++) {
+                if (column[p] >= 0 && !Double.isNaN(row.get(column[p]))) {
+                    present.set(p);
+                }
+            }
+            if (present.isEmpty() && (policy == FillPolicy.DROP || Double.isNaN(carry[i]))) {
+                missing.set(i);
+            } else if (policy == FillPolicy.DROP) {
+                keep.and(present);
+            } else if (Double.isNaN(carry[i])) {
+                // Nothing to carry until the symbol's first close
+                int first = present.nextSetBit(0);
+                keep.clear(0, first < 0 ? size : first);
+            }
+        }
+
+        int[] keptDays = new int[keep.cardinality()];
+        int kept = 0;
+        for (int p = keep.nextSetBit(0); p >= 0; p = keep.nextSetBit(p + 1)) {
+            keptDays[kept++] = axis[p];
+        }
+        PriceMatrix aligned = PriceMatrix.allocate(closes.symbols(), keptDays);
+        for (int i = 0; i < k; i++) {
+            DoubleBuffer out = aligned.mutableRow(i);
+            if (missing.get(i)) {
+                for (int t = 0; t < kept; t++) {
+                    out.put(t, Double.NaN);
+                }
+                continue;
+            }
+            DoubleBuffer row = closes.row(i);
+            double last = carry[i];
+            int t = 0;
+            for (int p = 0; p < size; p++) {
+                if (column[p] >= 0) {
+                    double value = row.get(column[p]);
+                    if (!Double.isNaN(value)) {
+                        last = value;
+                    }
+                }
+                if (keep.get(p)) {
+                    out.put(t++, last);
+                }
+            }
+            carry[i] = last;
+        }
+        return aligned;
+    }
+
+    // Symbols of a matrix returned by align that had no closes to align, in row order
+    public static List<String> missingSymbols(PriceMatrix aligned) {
+        List<String> missing = new ArrayList<>();
+        for (int i = 0; i < aligned.rows(); i++) {
+            if (aligned.days() > 0 && Double.isNaN(aligned.get(i, 0))) {
+                missing.add(aligned.symbols().get(i));
+            }
+        }
+        return missing;
+    }
+}
@@ -0,0 +1,430 @@
+package managers;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// This class computes the daily-return correlation of every pair of symbols in the universe (constituents.csv by
+// default) over a window, and finds the most correlated and most anti-correlated pairs.
+// Returns are standardized once, so the correlation of two complete series is a dot product. The upper triangle is cut
+// into square tiles of symbols that are computed in parallel on the fork/join pool; inside a tile the days are walked in
+// blocks so the tile's rows stay in cache. Each task keeps only its best K pairs in bounded heaps, which are merged.
+// The full matrix can be saved as packed 32-bit floats and loaded again without recomputing.
+//
+// Usage: UniverseCorrelation <start YYYY-MM-DD> <end YYYY-MM-DD> [k] [--save file] [--load file]
+//        [--constituents file]
+public class UniverseCorrelation {
+    private static final String CONSTITUENTS_FILE = "constituents.csv";
+    private static final int MATRIX_MAGIC = 0x55434F52; // "UCOR"
+    private static final int MATRIX_VERSION = 1;
+    // Symbols per tile side, and days per pass inside a tile: 2 x 64 rows x 256 days of doubles is 256 KB
+    private static final int TILE = 64;
+    private static final int DAY_BLOCK = 256;
+    // Pairs with fewer common return days than this are left out (NaN)
+    private static final int MIN_COMMON_DAYS = 20;
+
+    public record Pair(String symbol1, String symbol2, double correlation) {
+    }
+
+    // Correlations of symbols[i] and symbols[j] over [firstDay, lastDay] as a packed upper triangle (null unless
+    // requested), and the k most and least correlated pairs, strongest first
+    public record Result(List<String> symbols, int firstDay, int lastDay, float[] packed,
+                         List<Pair> mostCorrelated, List<Pair> mostAntiCorrelated) {
+        public double correlation(int i, int j) {
+            return i <= j ? packed[packedIndex(i, j, symbols.size())] : packed[packedIndex(j, i, symbols.size())];
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: UniverseCorrelation <start YYYY-MM-DD> <end YYYY-MM-DD> [k] [--save file]"
+                    + " [--load file] [--constituents file]");
+            return;
+        }
+        int k = 10;
+        Path save = null, load = null, constituents = Paths.get(CONSTITUENTS_FILE);
+        for (int a = 2; a < args.length; a++) {
+            switch (args[a]) {
+                case "--save" -> save = Paths.get(args[++a]);
+                case "--load" -> load = Paths.get(args[++a]);
+                case "--constituents" -> constituents = Paths.get(args[++a]);
+                default -> k = Integer.parseInt(args[a]);
+            }
+        }
+        try {
+            long started = System.nanoTime();
+            Result result;
+            if (load != null) {
+                result = load(load, k);
+            } else {
+                Timestamp start = Timestamp.valueOf(LocalDate.parse(args[0]).atStartOfDay());
+                Timestamp end = Timestamp.valueOf(LocalDate.parse(args[1]).atTime(LocalTime.MAX));
+                result = compute(MarketReturns.readConstituents(constituents), start, end, k, save != null);
+            }
+            System.out.printf("Correlated %d symbols over %s to %s in %.2fs%n", result.symbols().size(),
+                    LocalDate.ofEpochDay(result.firstDay()), LocalDate.ofEpochDay(result.lastDay()),
+                    (System.nanoTime() - started) / 1e9);
+            printPairs("Most correlated pairs", result.mostCorrelated());
+            printPairs("Most anti-correlated pairs", result.mostAntiCorrelated());
+            if (save != null) {
+                save(result, save);
+                System.out.println("Matrix saved to " + save);
+            }
+        } catch (IOException | SQLException e) {
+            System.err.println("Universe correlation failed: " + e.getMessage());
+        } finally {
+            DatabaseConnection.shutdown();
+        }
+    }
+
+    private static void printPairs(String title, List<Pair> pairs) {
+        System.out.println("\n" + title + ":");
+        System.out.println("Symbol 1\tSymbol 2\tCorrelation");
+        for (Pair pair : pairs) {
+            System.out.printf("%s\t\t%s\t\t%.4f%n", pair.symbol1(), pair.symbol2(), pair.correlation());
+        }
+    }
+
+    // Correlate the daily returns of all symbols over [start, end]; keepMatrix also returns the full matrix
+    public static Result compute(List<String> symbols, Timestamp start, Timestamp end, int k, boolean keepMatrix)
+            throws SQLException {
+        try (PriceMatrix closes = PriceMatrix.load(symbols, start, end);
+             PriceMatrix returns = closes.returns()) {
+            int firstDay = closes.days() == 0 ? PriceHistoryCache.firstEpochDay(start) : closes.epochDay(0);
+            int lastDay = closes.days() == 0 ? PriceHistoryCache.lastEpochDay(end) : closes.epochDay(closes.days() - 1);
+            return compute(returns, firstDay, lastDay, k, keepMatrix);
+        }
+    }
+
+    static Result compute(PriceMatrix returns, int firstDay, int lastDay, int k, boolean keepMatrix) {
+        int n = returns.rows();
+        int days = returns.days();
+        float[] packed = new float[n * (n + 1) / 2];
+        Arrays.fill(packed, Float.NaN);
+
+        try (PriceMatrix standardized = PriceMatrix.allocate(returns.symbols(), new int[days])) {
+            // complete[i]: row i has a return every day, so it is standardized in place for dot products.
+            // Otherwise mean[i] is the mean of its returns, used to shift the masked sums of its pairs.
+            boolean[] complete = new boolean[n];
+            double[] mean = new double[n];
+            boolean[] usable = new boolean[n];
+            for (int i = 0; i < n; i++) {
+                DoubleBuffer row = returns.row(i);
+                int count = 0;
+                double sum = 0;
+                for (int t = 0; t < days; t++) {
+                    double r = row.get(t);
+                    if (!Double.isNaN(r)) {
+                        count++;
+                        sum += r;
+                    }
+                }
+                usable[i] = count >= MIN_COMMON_DAYS;
+                mean[i] = count == 0 ? 0 : sum / count;
+                complete[i] = usable[i] && count == days;
+                if (complete[i]) {
+                    double squares = 0;
+                    for (int t = 0; t < days; t++) {
+                        double d = row.get(t) - mean[i];
+                        squares += d * d;
+                    }
+                    if (squares == 0) {
+                        usable[i] = false;
+                        complete[i] = false;
+                        continue;
+                    }
+                    double scale = 1 / Math.sqrt(squares);
+                    DoubleBuffer out = standardized.mutableRow(i);
+                    for (int t = 0; t < days; t++) {
+                        out.put(t, (row.get(t) - mean[i]) * scale);
+                    }
+                }
+            }
+
+            int blocks = (n + TILE - 1) / TILE;
+            List<int[]> tiles = new ArrayList<>();
+            for (int bi = 0; bi < blocks; bi++) {
+                for (int bj = bi; bj < blocks; bj++) {
+                    tiles.add(new int[]{bi * TILE, bj * TILE});
+                }
+            }
+            Tiles task = new Tiles(tiles, 0, tiles.size(), new Context(returns, standardized, complete, usable, mean,
+                    packed, k));
+            TopPairs top = ForkJoinPool.commonPool().invoke(task);
+
+            List<String> symbols = returns.symbols();
+            return new Result(symbols, firstDay, lastDay, keepMatrix ? packed : null, top.highest(symbols),
+                    top.lowest(symbols));
+        }
+    }
+
+    // Shared inputs and the output triangle of one computation
+    private record Context(PriceMatrix returns, PriceMatrix standardized, boolean[] complete, boolean[] usable,
+                           double[] mean, float[] packed, int k) {
+    }
+
+    // Computes a range of tiles, splitting it in half until one tile is left
+    private static final class Tiles extends RecursiveTask<TopPairs> {
+        // Tasks are never serialized; ForkJoinTask is Serializable only to carry exceptions
+        private static final long serialVersionUID = 1L;
+
+        private final transient List<int[]> tiles;
+        private final int from;
+        private final int to;
+        private final transient Context context;
+
+        private Tiles(List<int[]> tiles, int from, int to, Context context) {
+            this.tiles = tiles;
+            this.from = from;
+            this.to = to;
+            this.context = context;
+        }
+
+        @Override
+        protected TopPairs compute() {
+            if (to - from <= 1) {
+                TopPairs top = new TopPairs(context.k());
+                if (to > from) {
+                    computeTile(tiles.get(from)[0], tiles.get(from)[1], context, top);
+                }
+                return top;
+            }
+            int mid = (from + to) >>> 1;
+            Tiles left = new Tiles(tiles, from, mid, context);
+            left.fork();
+            TopPairs right = new Tiles(tiles, mid, to, context).compute();
+            return right.merge(left.join());
+        }
+    }
+
+    // Correlations of rows [rowStart, rowStart + TILE) with columns [columnStart, columnStart + TILE), j > i
+    private static void computeTile(int rowStart, int columnStart, Context context, TopPairs top) {
+        int n = context.returns().rows();
+        int days = context.returns().days();
+        int rowEnd = Math.min(n, rowStart + TILE);
+        int columnEnd = Math.min(n, columnStart + TILE);
+        boolean[] complete = context.complete();
+        PriceMatrix standardized = context.standardized();
+
+        // Complete pairs: accumulate the dot products one block of days at a time
+        double[] dots = new double[TILE * TILE];
+        DoubleBuffer[] rows = new DoubleBuffer[TILE];
+        DoubleBuffer[] columns = new DoubleBuffer[TILE];
+        for (int i = rowStart; i < rowEnd; i++) {
+            rows[i - rowStart] = complete[i] ? standardized.row(i) : null;
+        }
+        for (int j = columnStart; j < columnEnd; j++) {
+            columns[j - columnStart] = complete[j] ? standardized.row(j) : null;
+        }
+        for (int dayStart = 0; dayStart < days; dayStart += DAY_BLOCK) {
+            int dayEnd = Math.min(days, dayStart + DAY_BLOCK);
+            for (int i = rowStart; i < rowEnd; i++) {
+                DoubleBuffer x = rows[i - rowStart];
+                if (x == null) {
+                    continue;
+                }
+                for (int j = Math.max(columnStart, i + 1); j < columnEnd; j++) {
+                    DoubleBuffer y = columns[j - columnStart];
+                    if (y == null) {
+                        continue;
+                    }
+                    double s0 = 0, s1 = 0;
+                    int t = dayStart;
+                    for (; t + 1 < dayEnd; t += 2) {
+                        s0 += x.get(t) * y.get(t);
+                        s1 += x.get(t + 1) * y.get(t + 1);
+                    }
+                    if (t < dayEnd) {
+                        s0 += x.get(t) * y.get(t);
+                    }
+                    dots[(i - rowStart) * TILE + (j - columnStart)] += s0 + s1;
+                }
+            }
+        }
+
+        double[] sums = new double[6];
+        for (int i = rowStart; i < rowEnd; i++) {
+            for (int j = Math.max(columnStart, i + 1); j < columnEnd; j++) {
+                double correlation;
+                if (complete[i] && complete[j]) {
+                    correlation = dots[(i - rowStart) * TILE + (j - columnStart)];
+                } else if (context.usable()[i] && context.usable()[j]) {
+                    correlation = maskedCorrelation(context.returns().row(i), context.returns().row(j),
+                            context.mean()[i], context.mean()[j], sums);
+                } else {
+                    continue;
+                }
+                if (Double.isNaN(correlation)) {
+                    continue;
+                }
+                context.packed()[packedIndex(i, j, n)] = (float) correlation;
+                top.offer(i, j, correlation);
+            }
+            if (i >= columnStart && i < columnEnd) {
+                context.packed()[packedIndex(i, i, n)] = context.usable()[i] ? 1 : Float.NaN;
+            }
+        }
+    }
+
+    // Correlation over the days on which both have a return; NaN with too few common days or no variance
+    private static double maskedCorrelation(DoubleBuffer x, DoubleBuffer y, double shiftX, double shiftY,
+                                            double[] sums) {
+        Arrays.fill(sums, 0);
+        for (int t = 0; t < x.limit(); t++) {
+            double xt = x.get(t), yt = y.get(t);
+            if (xt == xt && yt == yt) {
+                double dx = xt - shiftX, dy = yt - shiftY;
+                sums[0]++;
+                sums[1] += dx;
+                sums[2] += dy;
+                sums[3] += dx * dx;
+                sums[4] += dy * dy;
+                sums[5] += dx * dy;
+            }
+        }
+        double count = sums[0];
+        if (count < MIN_COMMON_DAYS) {
+            return Double.NaN;
+        }
+        double varianceX = sums[3] - sums[1] * sums[1] / count;
+        double varianceY = sums[4] - sums[2] * sums[2] / count;
+        if (varianceX <= 0 || varianceY <= 0) {
+            return Double.NaN;
+        }
+        return (sums[5] - sums[1] * sums[2] / count) / Math.sqrt(varianceX * varianceY);
+    }
+
+    // Position of (i, j), i <= j, in a packed upper triangle of an n x n matrix
+    private static int packedIndex(int i, int j, int n) {
+        return i * n - i * (i - 1) / 2 + (j - i);
+    }
+
+    // The k highest and k lowest correlations seen, each in a bounded heap whose root is the weakest kept pair
+    private static final class TopPairs {
+        private record Entry(int i, int j, double correlation) {
+        }
+
+        private final int k;
+        private final PriorityQueue<Entry> highest =
+                new PriorityQueue<>(Comparator.comparingDouble(Entry::correlation));
+        private final PriorityQueue<Entry> lowest =
+                new PriorityQueue<>(Comparator.comparingDouble(Entry::correlation).reversed());
+
+        private TopPairs(int k) {
+            this.k = k;
+        }
+
+        private void offer(int i, int j, double correlation) {
+            if (k == 0) {
+                return;
+            }
+            offerHighest(i, j, correlation);
+            offerLowest(i, j, correlation);
+        }
+
+        private void offerHighest(int i, int j, double correlation) {
+            if (highest.size() < k) {
+                highest.add(new Entry(i, j, correlation));
+            } else if (correlation > highest.peek().correlation()) {
+                highest.poll();
+                highest.add(new Entry(i, j, correlation));
+            }
+        }
+
+        private void offerLowest(int i, int j, double correlation) {
+            if (lowest.size() < k) {
+                lowest.add(new Entry(i, j, correlation));
+            } else if (correlation < lowest.peek().correlation()) {
+                lowest.poll();
+                lowest.add(new Entry(i, j, correlation));
+            }
+        }
+
+        // Each pair was seen by exactly one of the two, so the heaps are merged side by side; offering the other's
+        // entries to both heaps would add a pair twice wherever its highest and lowest overlap
+        private TopPairs merge(TopPairs other) {
+            for (Entry entry : other.highest) {
+                offerHighest(entry.i(), entry.j(), entry.correlation());
+            }
+            for (Entry entry : other.lowest) {
+                offerLowest(entry.i(), entry.j(), entry.correlation());
+            }
+            return this;
+        }
+
+        private List<Pair> highest(List<String> symbols) {
+            return sorted(highest, symbols, Comparator.comparingDouble(Pair::correlation).reversed());
+        }
+
+        private List<Pair> lowest(List<String> symbols) {
+            return sorted(lowest, symbols, Comparator.comparingDouble(Pair::correlation));
+        }
+
+        private static List<Pair> sorted(PriorityQueue<Entry> heap, List<String> symbols, Comparator<Pair> order) {
+            List<Pair> pairs = new ArrayList<>();
+            for (Entry entry : heap) {
+                pairs.add(new Pair(symbols.get(entry.i()), symbols.get(entry.j()), entry.correlation()));
+            }
+            pairs.sort(order);
+            return pairs;
+        }
+    }
+
+    // Write the matrix of a result computed with keepMatrix
+    public static void save(Result result, Path file) throws IOException {
+        if (result.packed() == null) {
+            throw new IllegalArgumentException("Result was computed without its matrix");
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file),
+                1 << 16))) {
+            out.writeInt(MATRIX_MAGIC);
+            out.writeInt(MATRIX_VERSION);
+            out.writeInt(result.symbols().size());
+            out.writeInt(result.firstDay());
+            out.writeInt(result.lastDay());
+            for (String symbol : result.symbols()) {
+                out.writeUTF(symbol);
+            }
+            for (float correlation : result.packed()) {
+                out.writeFloat(correlation);
+            }
+        }
+    }
+
+    // Read a saved matrix and find its top k pairs
+    public static Result load(Path file, int k) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file),
+                1 << 16))) {
+            if (in.readInt() != MATRIX_MAGIC || in.readInt() != MATRIX_VERSION) {
+                throw new IOException(file + " is not a correlation matrix");
+            }
+            int n = in.readInt();
+            int firstDay = in.readInt();
+            int lastDay = in.readInt();
+            List<String> symbols = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                symbols.add(in.readUTF());
+            }
+            float[] packed = new float[n * (n + 1) / 2];
+            for (int p = 0; p < packed.length; p++) {
+                packed[p] = in.readFloat();
+            }
+
+            TopPairs top = new TopPairs(k);
+            for (int i = 0; i < n; i++) {
+                for (int j = i + 1; j < n; j++) {
+                    float correlation = packed[packedIndex(i, j, n)];
+                    if (!Float.isNaN(correlation)) {
+                        top.offer(i, j, correlation);
+                    }
+                }
+            }
+            return new Result(List.copyOf(symbols), firstDay, lastDay, packed, top.highest(symbols),
+                    top.lowest(symbols));
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package managers;
+
+import jdk.incubator.vector.*;
+
+import java.nio.*;
+
+// This class holds the Vector API versions of the NumericKernels loops. NumericKernels only calls into it when the
+// jdk.incubator.vector module is present (java --add-modules jdk.incubator.vector), so without the module this class
+// is never loaded and the scalar loops run instead.
+// Each loop works on whole vectors of the widest shape the CPU supports and finishes the tail one element at a time.
+// DoubleBuffer rows are copied into per-thread chunks first, as vectors only load from arrays without MemorySegment.
+// There is no dot4: it streams five rows from memory and runs no faster on vectors once the copies are paid for.
+final class VectorKernels {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    // Small enough that the chunks stay in the L1 cache
+    private static final int CHUNK = 512;
+    private static final ThreadLocal<double[][]> CHUNKS = ThreadLocal.withInitial(() -> new double[2][CHUNK]);
+
+    // 1, 2, .., LANES, the x values of the first vector of linearTrend
+    private static final double[] RAMP = new double[LANES];
+
+    static {
+        for (int i = 0; i < LANES; i++) {
+            RAMP[i] = i + 1;
+        }
+    }
+
+    private VectorKernels() {
+    }
+
+    static double sum(double[] x, int from, int to) {
+        DoubleVector s0 = DoubleVector.zero(SPECIES), s1 = DoubleVector.zero(SPECIES);
+        int t = from;
+        for (; t + 2 * LANES <= to; t += 2 * LANES) {
+            s0 = s0.add(DoubleVector.fromArray(SPECIES, x, t));
+            s1 = s1.add(DoubleVector.fromArray(SPECIES, x, t + LANES));
+        }
+        double s = s0.add(s1).reduceLanes(VectorOperators.ADD);
+        for (; t < to; t++) {
+            s += x[t];
+        }
+        return s;
+    }
+
+    static double sum(DoubleBuffer x) {
+        double[] chunk = CHUNKS.get()[0];
+        int n = x.limit();
+        double s = 0;
+        for (int from = 0; from < n; from += CHUNK) {
+            int length = Math.min(CHUNK, n - from);
+            x.get(from, chunk, 0, length);
+            s += sum(chunk, 0, length);
+        }
+        return s;
+    }
+
+    static double variance(double[] x, double mean) {
+        DoubleVector m = DoubleVector.broadcast(SPECIES, mean);
+        DoubleVector s0 = DoubleVector.zero(SPECIES), s1 = DoubleVector.zero(SPECIES);
+        int n = x.length;
+        int t = 0;
+        for (; t + 2 * LANES <= n; t += 2 * LANES) {
+            DoubleVector d0 = DoubleVector.fromArray(SPECIES, x, t).sub(m);
+            DoubleVector d1 = DoubleVector.fromArray(SPECIES, x, t + LANES).sub(m);
+            s0 = d0.fma(d0, s0);
+            s1 = d1.fma(d1, s1);
+        }
+        double s = s0.add(s1).reduceLanes(VectorOperators.ADD);
+        for (; t < n; t++) {
+            double d = x[t] - mean;
+            s += d * d;
+        }
+        return s / (n - 1);
+    }
+
+    static double dot(double[] x, double[] y, int n) {
+        return dot(x, 0, y, 0, n);
+    }
+
+    private static double dot(double[] x, int xFrom, double[] y, int yFrom, int n) {
+        DoubleVector s0 = DoubleVector.zero(SPECIES), s1 = DoubleVector.zero(SPECIES);
+        DoubleVector s2 = DoubleVector.zero(SPECIES), s3 = DoubleVector.zero(SPECIES);
+        int t = 0;
+        for (; t + 4 * LANES <= n; t += 4 * LANES) {
+            s0 = DoubleVector.fromArray(SPECIES, x, xFrom + t)
+                    .fma(DoubleVector.fromArray(SPECIES, y, yFrom + t), s0);
+            s1 = DoubleVector.fromArray(SPECIES, x, xFrom + t + LANES)
+                    .fma(DoubleVector.fromArray(SPECIES, y, yFrom + t + LANES), s1);
+            s2 = DoubleVector.fromArray(SPECIES, x, xFrom + t + 2 * LANES)
+                    .fma(DoubleVector.fromArray(SPECIES, y, yFrom + t + 2 * LANES), s2);
+            s3 = DoubleVector.fromArray(SPECIES, x, xFrom + t + 3 * LANES)
+                    .fma(DoubleVector.fromArray(SPECIES, y, yFrom + t + 3 * LANES), s3);
+        }
+        for (; t + LANES <= n; t += LANES) {
+            s0 = DoubleVector.fromArray(SPECIES, x, xFrom + t).fma(DoubleVector.fromArray(SPECIES, y, yFrom + t), s0);
+        }
+        double s = s0.add(s1).add(s2.add(s3)).reduceLanes(VectorOperators.ADD);
+        for (; t < n; t++) {
+            s += x[xFrom + t] * y[yFrom + t];
+        }
+        return s;
+    }
+
+    static double dot(DoubleBuffer x, DoubleBuffer y) {
+        double[][] chunks = CHUNKS.get();
+        double[] cx = chunks[0], cy = chunks[1];
+        int n = x.limit();
+        double s = 0;
+        for (int from = 0; from < n; from += CHUNK) {
+            int length = Math.min(CHUNK, n - from);
+            x.get(from, cx, 0, length);
+            y.get(from, cy, 0, length);
+            s += dot(cx, 0, cy, 0, length);
+        }
+        return s;
+    }
+
+    // Lanes where x or y is NaN are masked out of every sum
+    static void pairSums(DoubleBuffer x, DoubleBuffer y, double shiftX, double shiftY, double[] out) {
+        double[][] chunks = CHUNKS.get();
+        double[] cx = chunks[0], cy = chunks[1];
+        int n = x.limit();
+        long count = 0;
+        double sx = 0, sy = 0, sxy = 0;
+        for (int from = 0; from < n; from += CHUNK) {
+            int length = Math.min(CHUNK, n - from);
+            x.get(from, cx, 0, length);
+            y.get(from, cy, 0, length);
+            DoubleVector vx = DoubleVector.zero(SPECIES), vy = DoubleVector.zero(SPECIES);
+            DoubleVector vxy = DoubleVector.zero(SPECIES);
+            int t = 0;
+            for (; t + LANES <= length; t += LANES) {
+                DoubleVector xt = DoubleVector.fromArray(SPECIES, cx, t);
+                DoubleVector yt = DoubleVector.fromArray(SPECIES, cy, t);
+                VectorMask<Double> present = xt.test(VectorOperators.IS_NAN).or(yt.test(VectorOperators.IS_NAN))
+                        .not();
+                DoubleVector dx = xt.sub(shiftX), dy = yt.sub(shiftY);
+                count += present.trueCount();
+                vx = vx.add(dx, present);
+                vy = vy.add(dy, present);
+                vxy = vxy.add(dx.mul(dy), present);
+            }
+            sx += vx.reduceLanes(VectorOperators.ADD);
+            sy += vy.reduceLanes(VectorOperators.ADD);
+            sxy += vxy.reduceLanes(VectorOperators.ADD);
+            for (; t < length; t++) {
+                double xt = cx[t], yt = cy[t];
+                if (xt == xt && yt == yt) {
+                    double dx = xt - shiftX, dy = yt - shiftY;
+                    count++;
+                    sx += dx;
+                    sy += dy;
+                    sxy += dx * dy;
+                }
+            }
+        }
+        out[0] = count;
+        out[1] = sx;
+        out[2] = sy;
+        out[3] = sxy;
+    }
+
+    static void crossSums(double[] r, int rFrom, double[] m, int mFrom, int n, double[] sums) {
+        DoubleVector sr = DoubleVector.zero(SPECIES), sm = DoubleVector.zero(SPECIES);
+        DoubleVector srm = DoubleVector.zero(SPECIES), smm = DoubleVector.zero(SPECIES);
+        int k = 0;
+        for (; k + LANES <= n; k += LANES) {
+            DoubleVector rk = DoubleVector.fromArray(SPECIES, r, rFrom + k);
+            DoubleVector mk = DoubleVector.fromArray(SPECIES, m, mFrom + k);
+            sr = sr.add(rk);
+            sm = sm.add(mk);
+            srm = rk.fma(mk, srm);
+            smm = mk.fma(mk, smm);
+        }
+        double sumR = sr.reduceLanes(VectorOperators.ADD), sumM = sm.reduceLanes(VectorOperators.ADD);
+        double sumRM = srm.reduceLanes(VectorOperators.ADD), sumMM = smm.reduceLanes(VectorOperators.ADD);
+        for (; k < n; k++) {
+            double rk = r[rFrom + k], mk = m[mFrom + k];
+            sumR += rk;
+            sumM += mk;
+            sumRM += rk * mk;
+            sumMM += mk * mk;
+        }
+        sums[0] += n;
+        sums[1] += sumR;
+        sums[2] += sumM;
+        sums[3] += sumRM;
+        sums[4] += sumMM;
+    }
+
+    // Sums of y and of x*y, with x = 1 .. n
+    static void trendSums(double[] y, double[] out) {
+        int n = y.length;
+        DoubleVector x = DoubleVector.fromArray(SPECIES, RAMP, 0);
+        DoubleVector sy0 = DoubleVector.zero(SPECIES), sy1 = DoubleVector.zero(SPECIES);
+        DoubleVector sxy0 = DoubleVector.zero(SPECIES), sxy1 = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (; i + 2 * LANES <= n; i += 2 * LANES) {
+            DoubleVector y0 = DoubleVector.fromArray(SPECIES, y, i);
+            DoubleVector y1 = DoubleVector.fromArray(SPECIES, y, i + LANES);
+            DoubleVector x1 = x.add(LANES);
+            sy0 = sy0.add(y0);
+            sy1 = sy1.add(y1);
+            sxy0 = x.fma(y0, sxy0);
+            sxy1 = x1.fma(y1, sxy1);
+            x = x1.add(LANES);
+        }
+        double sumY = sy0.add(sy1).reduceLanes(VectorOperators.ADD);
+        double sumXY = sxy0.add(sxy1).reduceLanes(VectorOperators.ADD);
+        for (; i < n; i++) {
+            sumY += y[i];
+            sumXY += (i + 1) * y[i];
+        }
+        out[0] = sumY;
+        out[1] = sumXY;
+    }
+}
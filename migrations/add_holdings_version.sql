@@ -0,0 +1,32 @@
+-- Count the committed changes to PortfolioHolding and StockListHolding, so managers.MarkToMarket can keep its
+-- symbol-to-holder index between runs and rebuild it only after the holdings changed (see create_database.sql).
+-- Without this table MarkToMarket rebuilds the index on every run.
+-- Run once against a database created by create_database.sql; it is safe to re-run.
+
+CREATE TABLE IF NOT EXISTS HoldingsVersion (
+    holdings VARCHAR(20) PRIMARY KEY,
+    version BIGINT NOT NULL
+);
+
+INSERT INTO HoldingsVersion (holdings, version) VALUES ('portfolioholding', 0), ('stocklistholding', 0)
+ON CONFLICT (holdings) DO NOTHING;
+
+CREATE OR REPLACE FUNCTION bump_holdings_version()
+RETURNS TRIGGER AS $$
+BEGIN
+    UPDATE HoldingsVersion SET version = version + 1 WHERE holdings = lower(TG_TABLE_NAME);
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS trigger_portfolio_holdings_version ON PortfolioHolding;
+CREATE TRIGGER trigger_portfolio_holdings_version
+AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON PortfolioHolding
+FOR EACH STATEMENT
+EXECUTE FUNCTION bump_holdings_version();
+
+DROP TRIGGER IF EXISTS trigger_stock_list_holdings_version ON StockListHolding;
+CREATE TRIGGER trigger_stock_list_holdings_version
+AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON StockListHolding
+FOR EACH STATEMENT
+EXECUTE FUNCTION bump_holdings_version();
@@ -0,0 +1,35 @@
+-- Optional: key StockHistory rows by the fixed-width Stock.symbol_id as well as the symbol,
+-- so large joins and self-joins on StockHistory compare 2-byte integers instead of strings.
+-- Run once against a database created by create_database.sql; it is safe to re-run.
+
+ALTER TABLE StockHistory ADD COLUMN IF NOT EXISTS symbol_id SMALLINT;
+
+-- Backfill existing rows (history of symbols that are not in Stock keeps a NULL id)
+UPDATE StockHistory sh
+SET symbol_id = s.symbol_id
+FROM Stock s
+WHERE sh.symbol = s.symbol AND sh.symbol_id IS DISTINCT FROM s.symbol_id;
+
+CREATE INDEX IF NOT EXISTS idx_stock_history_symbol_id_timestamp ON StockHistory (symbol_id, timestamp);
+
+-- Fill symbol_id on every new or re-keyed row
+CREATE OR REPLACE FUNCTION set_stock_history_symbol_id()
+RETURNS TRIGGER AS $$
+BEGIN
+    SELECT s.symbol_id INTO NEW.symbol_id FROM Stock s WHERE s.symbol = NEW.symbol;
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS trigger_set_stock_history_symbol_id ON StockHistory;
+CREATE TRIGGER trigger_set_stock_history_symbol_id
+BEFORE INSERT OR UPDATE OF symbol ON StockHistory
+FOR EACH ROW
+EXECUTE FUNCTION set_stock_history_symbol_id();
+
+-- Example: the covariance self-join on fixed-width keys
+-- SELECT s1.symbol_id, s2.symbol_id, COVAR_POP(s1.close, s2.close)
+-- FROM StockHistory s1
+-- JOIN StockHistory s2 ON s1.timestamp = s2.timestamp AND s1.symbol_id <= s2.symbol_id
+-- WHERE s1.symbol_id = ANY(?) AND s2.symbol_id = ANY(?)
+-- GROUP BY s1.symbol_id, s2.symbol_id;